@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.controlcenter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+
+/**
+ * An <code>IData</code> that remembers vehicles read from another
+ * <code>IData</code>. Vehicles are indexed by name in a concurrent map, and
+ * each entry expires <code>timeToLive</code> milliseconds after it was
+ * loaded. When the map grows past <code>capacity</code> one thread sweeps it,
+ * dropping expired entries and then the least recently used ones until it is
+ * back below capacity; lookups never wait for the sweep, so the bound and the
+ * recency order are approximate. The full vehicle list is cached the same
+ * way. Writes go straight through to the delegate and refresh or invalidate
+ * the cached copies.
+ */
+public class CachingData implements IData {
+	public static final int CAPACITY_DEFAULT = 10000;
+	public static final long TIME_TO_LIVE_DEFAULT = 5 * 60 * 1000;
+
+	// A sweep frees this share of the capacity, so sweeps stay rare.
+	private static final int SWEEP_FRACTION = 10;
+
+	private IData delegate;
+	private int capacity;
+	private long timeToLive;
+	private ConcurrentHashMap index;
+	private final AtomicReference vehicles = new AtomicReference(new VehicleList(null, 0));
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong listHits = new AtomicLong();
+	private final AtomicLong listMisses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final DataListeners listeners = new DataListeners();
+
+	public CachingData(IData delegate) {
+		this(delegate, CAPACITY_DEFAULT, TIME_TO_LIVE_DEFAULT);
+	}
+
+	public CachingData(IData delegate, int capacity, long timeToLive) {
+		super();
+		initialize(delegate, capacity, timeToLive);
+	}
+
+	/**
+	 * For subclasses that create their delegate later, typically when they are
+	 * activated as a component. Such subclasses must call
+	 * <code>initialize</code> before the cache is used.
+	 */
+	protected CachingData() {
+		super();
+	}
+
+	protected void initialize(IData delegate, int capacity, long timeToLive) {
+		if (delegate == null)
+			throw new IllegalArgumentException("delegate must not be null"); //$NON-NLS-1$
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1"); //$NON-NLS-1$
+		this.delegate = delegate;
+		this.capacity = capacity;
+		this.timeToLive = timeToLive;
+		index = new ConcurrentHashMap(capacity * 4 / 3 + 1);
+	}
+
+	protected IData getDelegate() {
+		return delegate;
+	}
+
+	public IVehicle getVehicle(String name) {
+		long now = System.currentTimeMillis();
+		Entry entry = (Entry) index.get(name);
+		if (entry != null && !entry.isExpired(now, timeToLive)) {
+			entry.accessed = now;
+			hits.incrementAndGet();
+			return entry.vehicle;
+		}
+		misses.incrementAndGet();
+		IVehicle vehicle = delegate.getVehicle(name);
+		if (vehicle == null)
+			return null;
+		return cache(vehicle, now);
+	}
+
+	public Collection getVehicles() {
+		long now = System.currentTimeMillis();
+		VehicleList cached = (VehicleList) vehicles.get();
+		if (cached.isValid(now, timeToLive)) {
+			listHits.incrementAndGet();
+			return cached.vehicles;
+		}
+		listMisses.incrementAndGet();
+		Collection loaded = delegate.getVehicles();
+		List result = new ArrayList(loaded.size());
+		// Hand out the cached instance of each vehicle that has one.
+		for (Iterator i = loaded.iterator(); i.hasNext();)
+			result.add(cache((IVehicle) i.next(), now));
+		result = Collections.unmodifiableList(result);
+		// Every invalidation installs a new empty list, so a list loaded
+		// across an invalidation is answered but not kept.
+		vehicles.compareAndSet(cached, new VehicleList(result, now));
+		return result;
+	}
+
+	/**
+	 * Pages always come from the delegate, which knows how to sort, but the
+	 * vehicles on them are swapped for any cached instances.
+	 */
+	public List getVehicles(int sort, boolean ascending, int offset, int count) {
+		long now = System.currentTimeMillis();
+		List page = delegate.getVehicles(sort, ascending, offset, count);
+		List result = new ArrayList(page.size());
+		for (Iterator i = page.iterator(); i.hasNext();)
+			result.add(cache((IVehicle) i.next(), now));
+		return result;
+	}
+
+	public int getVehicleCount() {
+		VehicleList cached = (VehicleList) vehicles.get();
+		if (cached.isValid(System.currentTimeMillis(), timeToLive))
+			return cached.vehicles.size();
+		return delegate.getVehicleCount();
+	}
+
+	public Collection getVehicleNames() {
+		Collection vehicles = getVehicles();
+		List names = new ArrayList(vehicles.size());
+		for (Iterator i = vehicles.iterator(); i.hasNext();)
+			names.add(((IVehicle) i.next()).getName());
+		return names;
+	}
+
+	public void persist(IVehicle object) {
+		delegate.persist(object);
+		put(object, System.currentTimeMillis());
+		invalidateVehicles();
+		listeners.vehicleChanged(object);
+	}
+
+	public void update(IVehicle object) {
+		delegate.update(object);
+		Entry entry = (Entry) index.get(object.getName());
+		// Updating the cached instance, as tracking does on every fix, leaves
+		// the cached vehicle list valid; a different instance replaces it.
+		if (entry == null || entry.vehicle != object) {
+			put(object, System.currentTimeMillis());
+			invalidateVehicles();
+		}
+		listeners.vehicleChanged(object);
+	}
+
+	public void removeVehicle(String name) {
+		delegate.removeVehicle(name);
+		invalidate(name);
+		listeners.vehicleRemoved(name);
+	}
+
+	public void addListener(IDataListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(IDataListener listener) {
+		listeners.remove(listener);
+	}
+
+	public void invalidate(String name) {
+		index.remove(name);
+		invalidateVehicles();
+	}
+
+	public void invalidateAll() {
+		index.clear();
+		invalidateVehicles();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Answer how often the whole vehicle list was answered from the cache.
+	 * Lookups of single vehicles are counted by {@link #getHits()}.
+	 */
+	public long getListHits() {
+		return listHits.get();
+	}
+
+	public long getListMisses() {
+		return listMisses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public int getSize() {
+		return index.size();
+	}
+
+	public String toString() {
+		return "CachingData[size=" + index.size() + ", hits=" + hits + ", misses=" + misses + ", listHits=" + listHits + ", listMisses=" + listMisses + ", evictions=" + evictions + "]";
+	}
+
+	private void invalidateVehicles() {
+		vehicles.set(new VehicleList(null, 0));
+	}
+
+	/*
+	 * Callers mutate the vehicles they get back, so keep handing out the one
+	 * instance while it is live, even if another thread loaded a second copy
+	 * in the meantime.
+	 */
+	private IVehicle cache(IVehicle vehicle, long now) {
+		String name = vehicle.getName();
+		while (true) {
+			Entry entry = (Entry) index.get(name);
+			if (entry != null && !entry.isExpired(now, timeToLive)) {
+				entry.accessed = now;
+				return entry.vehicle;
+			}
+			Entry fresh = new Entry(vehicle, now);
+			boolean added = entry == null ? index.putIfAbsent(name, fresh) == null : index.replace(name, entry, fresh);
+			if (added) {
+				evictIfFull();
+				return vehicle;
+			}
+		}
+	}
+
+	private void put(IVehicle vehicle, long now) {
+		index.put(vehicle.getName(), new Entry(vehicle, now));
+		evictIfFull();
+	}
+
+	/*
+	 * Only one thread sweeps at a time; the others carry on, leaving the map
+	 * briefly over capacity.
+	 */
+	private void evictIfFull() {
+		if (index.size() <= capacity || !sweeping.compareAndSet(false, true))
+			return;
+		try {
+			sweep(System.currentTimeMillis());
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	private void sweep(long now) {
+		int target = capacity - Math.max(1, capacity / SWEEP_FRACTION);
+		for (Iterator i = index.entrySet().iterator(); i.hasNext();) {
+			Map.Entry mapping = (Map.Entry) i.next();
+			if (((Entry) mapping.getValue()).isExpired(now, timeToLive))
+				remove(mapping);
+		}
+		int excess = index.size() - target;
+		if (excess <= 0)
+			return;
+		// Drop every entry last used before the cut-off, taken from a
+		// snapshot of the access times.
+		long[] accessed = new long[index.size()];
+		int count = 0;
+		for (Iterator i = index.values().iterator(); i.hasNext() && count < accessed.length;)
+			accessed[count++] = ((Entry) i.next()).accessed;
+		if (count == 0)
+			return;
+		Arrays.sort(accessed, 0, count);
+		long cutoff = accessed[Math.min(excess, count) - 1];
+		for (Iterator i = index.entrySet().iterator(); i.hasNext();) {
+			Map.Entry mapping = (Map.Entry) i.next();
+			if (((Entry) mapping.getValue()).accessed <= cutoff)
+				remove(mapping);
+		}
+	}
+
+	/*
+	 * Leave an entry that another thread has replaced since the sweep saw it.
+	 */
+	private void remove(Map.Entry mapping) {
+		if (index.remove(mapping.getKey(), mapping.getValue()))
+			evictions.incrementAndGet();
+	}
+
+	private static class Entry {
+		final IVehicle vehicle;
+		final long loaded;
+		volatile long accessed;
+
+		Entry(IVehicle vehicle, long loaded) {
+			this.vehicle = vehicle;
+			this.loaded = loaded;
+			this.accessed = loaded;
+		}
+
+		boolean isExpired(long now, long timeToLive) {
+			return now - loaded >= timeToLive;
+		}
+	}
+
+	private static class VehicleList {
+		final List vehicles;
+		final long loaded;
+
+		VehicleList(List vehicles, long loaded) {
+			this.vehicles = vehicles;
+			this.loaded = loaded;
+		}
+
+		boolean isValid(long now, long timeToLive) {
+			return vehicles != null && now - loaded < timeToLive;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.controlcenter;
+
+import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.examples.toast.core.LogUtility;
+
+/**
+ * The listeners of an <code>IData</code>, which an implementation tells of
+ * each change it makes. Listeners may be added and removed while changes are
+ * being told; a change goes to the listeners there were when it was made. A
+ * listener that fails is logged and does not stop the others being told.
+ */
+public final class DataListeners implements IDataListener {
+	private static final IDataListener[] NO_LISTENERS = new IDataListener[0];
+
+	private IDataListener[] listeners;
+
+	public DataListeners() {
+		super();
+		listeners = NO_LISTENERS;
+	}
+
+	public synchronized void add(IDataListener listener) {
+		IDataListener[] result = new IDataListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, result, 0, listeners.length);
+		result[listeners.length] = listener;
+		listeners = result;
+	}
+
+	public synchronized void remove(IDataListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				IDataListener[] result = new IDataListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, result, 0, i);
+				System.arraycopy(listeners, i + 1, result, i, result.length - i);
+				listeners = result;
+				return;
+			}
+		}
+	}
+
+	public void vehicleChanged(IVehicle vehicle) {
+		IDataListener[] targets = getListeners();
+		for (int i = 0; i < targets.length; i++) {
+			try {
+				targets[i].vehicleChanged(vehicle);
+			} catch (RuntimeException e) {
+				LogUtility.logError(this, "Data listener failed on change to " + vehicle.getName(), e);
+			}
+		}
+	}
+
+	public void vehicleRemoved(String name) {
+		IDataListener[] targets = getListeners();
+		for (int i = 0; i < targets.length; i++) {
+			try {
+				targets[i].vehicleRemoved(name);
+			} catch (RuntimeException e) {
+				LogUtility.logError(this, "Data listener failed on removal of " + name, e);
+			}
+		}
+	}
+
+	private synchronized IDataListener[] getListeners() {
+		return listeners;
+	}
+}
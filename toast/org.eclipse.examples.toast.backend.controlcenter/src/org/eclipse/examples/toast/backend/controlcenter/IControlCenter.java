@@ -12,15 +12,57 @@
 package org.eclipse.examples.toast.backend.controlcenter;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 
 public interface IControlCenter {
 	public Collection getVehicles();
 
+	/**
+	 * Answer a page of the fleet; see
+	 * {@link IData#getVehicles(int, boolean, int, int)}.
+	 */
+	public List getVehicles(int sort, boolean ascending, int offset, int count);
+
+	public int getVehicleCount();
+
+	/**
+	 * Answer the names of the vehicles whose name or driver's name contains
+	 * the given text, ignoring case, in the order given by <code>sort</code>.
+	 */
+	public String[] findVehicles(String text, int sort, boolean ascending);
+
 	public IVehicle getVehicle(String id);
 
 	public void removeVehicle(String id);
 
 	public IVehicle addVehicle(String id, Map properties);
+
+	/**
+	 * Tell listeners that the vehicle's location, online state or other
+	 * details have changed. Changes are delivered in batches, so a vehicle
+	 * that changes several times between batches is reported once.
+	 */
+	public void vehicleChanged(IVehicle vehicle);
+
+	/**
+	 * Answer a number that grows whenever a vehicle is added or removed or its
+	 * driver's name changes, by whatever means the data is changed. Callers
+	 * that build views of the fleet from vehicle and driver names can keep
+	 * them for as long as the number stays the same.
+	 */
+	public long getRosterVersion();
+
+	/**
+	 * Answer a number that grows whenever any other detail of a vehicle may
+	 * have changed, such as its location, emergency or online state. Tracking
+	 * changes it every few seconds per vehicle, so only views that show those
+	 * details should depend on it.
+	 */
+	public long getLocationVersion();
+
+	public void addListener(IControlCenterListener listener);
+
+	public void removeListener(IControlCenterListener listener);
 }
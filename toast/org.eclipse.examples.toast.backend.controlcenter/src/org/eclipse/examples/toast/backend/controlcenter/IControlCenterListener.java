@@ -0,0 +1,23 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.controlcenter;
+
+import org.eclipse.examples.toast.backend.data.IVehicle;
+
+public interface IControlCenterListener {
+	/**
+	 * Called on the control center's notification thread with the vehicles
+	 * that have changed since the last call, each at most once. The same
+	 * array is passed to every listener and must not be modified.
+	 */
+	public void vehiclesChanged(IVehicle[] vehicles);
+}
@@ -12,11 +12,25 @@
 package org.eclipse.examples.toast.backend.controlcenter;
 
 import java.util.Collection;
+import java.util.List;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 
 public interface IData {
+	public static final int SORT_BY_NAME = 0;
+	public static final int SORT_BY_DRIVER = 1;
+
 	public Collection getVehicles();
 
+	/**
+	 * Answer at most <code>count</code> vehicles, starting at
+	 * <code>offset</code> in the order given by <code>sort</code>: by name, or
+	 * by driver last name then first name then vehicle name. Lets callers
+	 * page through a large fleet without loading all of it.
+	 */
+	public List getVehicles(int sort, boolean ascending, int offset, int count);
+
+	public int getVehicleCount();
+
 	public void update(IVehicle object);
 
 	public void persist(IVehicle object);
@@ -26,4 +40,12 @@ public interface IData {
 	public Collection getVehicleNames();
 
 	public IVehicle getVehicle(String name);
+
+	/**
+	 * Tell the listener of every vehicle persisted, updated or removed
+	 * through this <code>IData</code>, whoever does it.
+	 */
+	public void addListener(IDataListener listener);
+
+	public void removeListener(IDataListener listener);
 }
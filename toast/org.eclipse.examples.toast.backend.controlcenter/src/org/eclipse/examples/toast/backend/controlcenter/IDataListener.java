@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.controlcenter;
+
+import org.eclipse.examples.toast.backend.data.IVehicle;
+
+public interface IDataListener {
+	/**
+	 * Called after a vehicle has been persisted or updated, on the thread
+	 * that did so. Should be quick, since that thread is held until every
+	 * listener returns.
+	 */
+	public void vehicleChanged(IVehicle vehicle);
+
+	/**
+	 * Called after the named vehicle has been removed, on the thread that
+	 * removed it.
+	 */
+	public void vehicleRemoved(String name);
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.controlcenter;
+
+/**
+ * Finds vehicles by their latest tracked location. Latitudes and longitudes
+ * are in the units of <code>ITrackedLocation</code>, hundred-thousandths of
+ * a degree. Vehicles that have never reported a location are not found.
+ */
+public interface IVehicleLocator {
+	/**
+	 * Answer the names of the vehicles within <code>radius</code> meters of
+	 * the given point, nearest first.
+	 */
+	public String[] findWithin(int latitude, int longitude, int radius);
+
+	/**
+	 * Answer the names of the <code>count</code> vehicles nearest the given
+	 * point, nearest first. Fewer are answered if fewer vehicles are located.
+	 */
+	public String[] findNearest(int latitude, int longitude, int count);
+
+	/**
+	 * Answer the names of the vehicles inside the given box, in no particular
+	 * order. A box whose west edge is east of its east edge spans the 180th
+	 * meridian.
+	 */
+	public String[] findInside(int south, int west, int north, int east);
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.controlcenter;
+
+/**
+ * Finds vehicles by their name or their driver's name. Matching ignores case,
+ * and a vehicle matches when the text appears anywhere in its name, its
+ * driver's first or last name, or the driver's name written "last, first".
+ */
+public interface IVehicleSearch {
+	/**
+	 * Answer the names of at most <code>limit</code> matching vehicles, best
+	 * first. Vehicles whose name, or whose driver's first or last name, starts
+	 * with the text come before those that only contain it.
+	 */
+	public String[] search(String text, int limit);
+
+	/**
+	 * Answer the names of all matching vehicles in the order given by
+	 * <code>sort</code>, one of the <code>IData.SORT_BY_*</code> constants.
+	 */
+	public String[] search(String text, int sort, boolean ascending);
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.controlcenter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.eclipse.examples.toast.backend.data.IDriver;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+
+/**
+ * The vehicle orderings offered by {@link IData#getVehicles(int, boolean, int, int)},
+ * for implementations that hold their vehicles in memory.
+ */
+public class VehicleOrder {
+
+	private VehicleOrder() {
+		super();
+	}
+
+	public static Comparator getComparator(final int sort, final boolean ascending) {
+		return new Comparator() {
+			public int compare(Object object1, Object object2) {
+				IVehicle vehicle1 = (IVehicle) object1;
+				IVehicle vehicle2 = (IVehicle) object2;
+				int result = 0;
+				if (sort == IData.SORT_BY_DRIVER) {
+					IDriver driver1 = vehicle1.getDriver();
+					IDriver driver2 = vehicle2.getDriver();
+					result = compare(driver1 == null ? null : driver1.getLastName(), driver2 == null ? null : driver2.getLastName());
+					if (result == 0)
+						result = compare(driver1 == null ? null : driver1.getFirstName(), driver2 == null ? null : driver2.getFirstName());
+				}
+				if (result == 0)
+					result = compare(vehicle1.getName(), vehicle2.getName());
+				return ascending ? result : -result;
+			}
+
+			private int compare(String string1, String string2) {
+				if (string1 == null)
+					return string2 == null ? 0 : -1;
+				if (string2 == null)
+					return 1;
+				return string1.compareTo(string2);
+			}
+		};
+	}
+
+	/**
+	 * Sort a copy of the given vehicles and answer the requested page of it.
+	 */
+	public static List getPage(Collection vehicles, int sort, boolean ascending, int offset, int count) {
+		List sorted = new ArrayList(vehicles);
+		Collections.sort(sorted, getComparator(sort, ascending));
+		int start = Math.min(Math.max(offset, 0), sorted.size());
+		int end = Math.min(start + Math.max(count, 0), sorted.size());
+		return new ArrayList(sorted.subList(start, end));
+	}
+}
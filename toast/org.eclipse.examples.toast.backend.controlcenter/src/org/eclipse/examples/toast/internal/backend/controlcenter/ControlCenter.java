@@ -14,30 +14,70 @@ package org.eclipse.examples.toast.internal.backend.controlcenter;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenterListener;
 import org.eclipse.examples.toast.backend.controlcenter.IData;
+import org.eclipse.examples.toast.backend.controlcenter.IDataListener;
+import org.eclipse.examples.toast.backend.controlcenter.IVehicleSearch;
 import org.eclipse.examples.toast.backend.data.IToastBackEndDataFactory;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 import org.eclipse.examples.toast.backend.data.internal.Vehicle;
 import org.eclipse.examples.toast.backend.provisioning.IProvisioner;
 import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.PropertyManager;
 import org.eclipse.examples.toast.core.discovery.IDiscovery;
 import org.eclipse.examples.toast.core.discovery.IDiscoveryListener;
 
-public class ControlCenter implements IControlCenter, IDiscoveryListener {
+public class ControlCenter implements IControlCenter, IVehicleSearch, IDiscoveryListener {
+	private static final String NOTIFY_INTERVAL_PROPERTY = "toast.controlcenter.notify.interval"; //$NON-NLS-1$
+	private static final int NOTIFY_INTERVAL_DEFAULT = 250;
+	private static final long LOAD_WAIT = 5000;
+
 	private IProvisioner provisioner;
 	private IDiscovery discovery;
 	private IData data;
+	private VehicleChangeNotifier notifier;
+	private VehicleIndex index;
+	private IDataListener dataListener;
+	private final AtomicLong rosterVersion = new AtomicLong();
+	private final AtomicLong locationVersion = new AtomicLong();
+	private final CountDownLatch loaded = new CountDownLatch(1);
+	private volatile boolean running;
+	private Thread loader;
 
 	public ControlCenter() {
 		super();
+		notifier = new VehicleChangeNotifier(getNotifyInterval());
+		index = new VehicleIndex();
+		// Keep the search index and the versions up to date whoever changes
+		// the data, not only when they go through the control center. The
+		// index tells a vehicle that is new or has a new driver name from the
+		// far more common change of location.
+		dataListener = new IDataListener() {
+			public void vehicleChanged(IVehicle vehicle) {
+				if (index.put(vehicle))
+					rosterVersion.incrementAndGet();
+				locationVersion.incrementAndGet();
+			}
+
+			public void vehicleRemoved(String name) {
+				index.remove(name);
+				rosterVersion.incrementAndGet();
+			}
+		};
 	}
 
 	private void loadData() {
 		Collection vehicles = data.getVehicles();
-		for (Iterator i = vehicles.iterator(); i.hasNext();) {
+		for (Iterator i = vehicles.iterator(); running && i.hasNext();) {
 			IVehicle vehicle = (IVehicle) i.next();
+			if (index.put(vehicle))
+				rosterVersion.incrementAndGet();
 			Map properties = new HashMap();
 			properties.put("osgi.os", System.getProperty("osgi.os"));
 			properties.put("osgi.ws", System.getProperty("osgi.ws"));
@@ -59,20 +99,55 @@ public class ControlCenter implements IControlCenter, IDiscoveryListener {
 	}
 
 	public void startup() {
-		Runnable work = new Runnable() {
+		running = true;
+		notifier.start();
+		data.addListener(dataListener);
+		discovery.addListener(this);
+		// Indexing the fleet and creating a profile per vehicle takes a while
+		// on a large fleet so do it off the activation thread. Searches that
+		// come in meanwhile wait for the load, see awaitLoaded().
+		loader = new Thread(new Runnable() {
 			public void run() {
-				loadData();
-				discovery.addListener(ControlCenter.this);
-				Collection profiles = provisioner.getProfiles();
-				for (Iterator i = profiles.iterator(); i.hasNext();)
-					addVehicle((String) i.next(), null);
+				try {
+					loadData();
+					Collection profiles = provisioner.getProfiles();
+					for (Iterator i = profiles.iterator(); running && i.hasNext();)
+						addVehicle((String) i.next(), null);
+				} catch (RuntimeException e) {
+					LogUtility.logError(ControlCenter.this, "Failed to load the vehicles", e); //$NON-NLS-1$
+				} finally {
+					loaded.countDown();
+				}
 			}
-		};
-		new Thread(work).run();
+		}, "Toast control center loader"); //$NON-NLS-1$
+		loader.setDaemon(true);
+		loader.start();
 	}
 
 	public void shutdown() {
+		running = false;
 		discovery.removeListener(this);
+		data.removeListener(dataListener);
+		try {
+			loader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		notifier.stop();
+	}
+
+	/**
+	 * Wait a bounded time for the startup load to fill the search index. A
+	 * search that still finds it loading answers from the vehicles indexed
+	 * so far.
+	 */
+	private void awaitLoaded() {
+		try {
+			if (!loaded.await(LOAD_WAIT, TimeUnit.MILLISECONDS))
+				LogUtility.logDebug(this, "Searching while the vehicles are still loading"); //$NON-NLS-1$
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	public Collection getKnownIds() {
@@ -83,6 +158,29 @@ public class ControlCenter implements IControlCenter, IDiscoveryListener {
 		return data.getVehicles();
 	}
 
+	public List getVehicles(int sort, boolean ascending, int offset, int count) {
+		return data.getVehicles(sort, ascending, offset, count);
+	}
+
+	public int getVehicleCount() {
+		return data.getVehicleCount();
+	}
+
+	public String[] findVehicles(String text, int sort, boolean ascending) {
+		awaitLoaded();
+		return index.search(text, sort, ascending);
+	}
+
+	public String[] search(String text, int limit) {
+		awaitLoaded();
+		return index.search(text, limit);
+	}
+
+	public String[] search(String text, int sort, boolean ascending) {
+		awaitLoaded();
+		return index.search(text, sort, ascending);
+	}
+
 	public IVehicle getVehicle(String name) {
 		return data.getVehicle(name);
 	}
@@ -102,6 +200,8 @@ public class ControlCenter implements IControlCenter, IDiscoveryListener {
 	// TODO Semantics of removeVehicle are unclear as this method is never called
 	public void removeVehicle(String name) {
 		provisioner.removeProfile(name);
+		if (index.remove(name))
+			rosterVersion.incrementAndGet();
 	}
 
 	public void registered(String id, Map properties) {
@@ -109,6 +209,7 @@ public class ControlCenter implements IControlCenter, IDiscoveryListener {
 		IVehicle vehicle = addVehicle(id, properties);
 		vehicle.setOnline(true);
 		data.update(vehicle);
+		vehicleChanged(vehicle);
 	}
 
 	public void unregistered(String name) {
@@ -116,5 +217,41 @@ public class ControlCenter implements IControlCenter, IDiscoveryListener {
 		IVehicle vehicle = addVehicle(name, null);
 		vehicle.setOnline(false);
 		data.update(vehicle);
+		vehicleChanged(vehicle);
+	}
+
+	public void vehicleChanged(IVehicle vehicle) {
+		notifier.changed(vehicle);
+	}
+
+	public long getRosterVersion() {
+		return rosterVersion.get();
+	}
+
+	public long getLocationVersion() {
+		return locationVersion.get();
+	}
+
+	public void addListener(IControlCenterListener listener) {
+		notifier.addListener(listener);
+	}
+
+	public void removeListener(IControlCenterListener listener) {
+		notifier.removeListener(listener);
+	}
+
+	private long getNotifyInterval() {
+		String value = PropertyManager.getProperty(NOTIFY_INTERVAL_PROPERTY);
+		if (value == null)
+			return NOTIFY_INTERVAL_DEFAULT;
+		try {
+			int interval = Integer.parseInt(value.trim());
+			if (interval > 0)
+				return interval;
+		} catch (NumberFormatException e) {
+			// Fall through to the default.
+		}
+		LogUtility.logWarning(this, "Invalid " + NOTIFY_INTERVAL_PROPERTY + ": " + value);
+		return NOTIFY_INTERVAL_DEFAULT;
 	}
 }
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.controlcenter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenterListener;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.examples.toast.core.LogUtility;
+
+/**
+ * Collects changed vehicles and passes them to listeners from a single
+ * background thread, at most once every <code>interval</code> milliseconds.
+ * Changes are keyed by vehicle name, so a vehicle that reports many fixes
+ * between notifications is passed on once with its latest state, and every
+ * listener is handed the same array rather than each looking the fleet up
+ * again.
+ */
+public class VehicleChangeNotifier {
+	private static final IControlCenterListener[] NO_LISTENERS = new IControlCenterListener[0];
+
+	private final long interval;
+	private final Map pending;
+	private IControlCenterListener[] listeners;
+	private Thread notifier;
+	private boolean running;
+
+	public VehicleChangeNotifier(long interval) {
+		super();
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval must be positive"); //$NON-NLS-1$
+		this.interval = interval;
+		this.pending = new LinkedHashMap();
+		this.listeners = NO_LISTENERS;
+	}
+
+	public synchronized void start() {
+		if (running)
+			return;
+		running = true;
+		notifier = new Thread(new Runnable() {
+			public void run() {
+				notifyLoop();
+			}
+		}, "Toast vehicle change notifier"); //$NON-NLS-1$
+		notifier.setDaemon(true);
+		notifier.start();
+	}
+
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			if (!running)
+				return;
+			running = false;
+			thread = notifier;
+			notifier = null;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public synchronized void addListener(IControlCenterListener listener) {
+		IControlCenterListener[] result = new IControlCenterListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, result, 0, listeners.length);
+		result[listeners.length] = listener;
+		listeners = result;
+	}
+
+	public synchronized void removeListener(IControlCenterListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				IControlCenterListener[] result = new IControlCenterListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, result, 0, i);
+				System.arraycopy(listeners, i + 1, result, i, result.length - i);
+				listeners = result;
+				return;
+			}
+		}
+	}
+
+	public synchronized void changed(IVehicle vehicle) {
+		// Nobody is listening, so there is nothing to remember.
+		if (listeners.length == 0)
+			return;
+		pending.put(vehicle.getName(), vehicle);
+		if (pending.size() == 1)
+			notifyAll();
+	}
+
+	private void notifyLoop() {
+		long last = 0;
+		while (true) {
+			IVehicle[] batch;
+			IControlCenterListener[] targets;
+			synchronized (this) {
+				try {
+					while (running && pending.isEmpty())
+						wait();
+					// Let changes gather until a full interval has passed
+					// since the last notification.
+					long remaining = last + interval - System.currentTimeMillis();
+					while (running && remaining > 0) {
+						wait(remaining);
+						remaining = last + interval - System.currentTimeMillis();
+					}
+				} catch (InterruptedException e) {
+					running = false;
+				}
+				if (!running)
+					return;
+				batch = new IVehicle[pending.size()];
+				Iterator i = pending.values().iterator();
+				for (int j = 0; j < batch.length; j++)
+					batch[j] = (IVehicle) i.next();
+				pending.clear();
+				targets = listeners;
+			}
+			last = System.currentTimeMillis();
+			for (int i = 0; i < targets.length; i++) {
+				try {
+					targets[i].vehiclesChanged(batch);
+				} catch (RuntimeException e) {
+					LogUtility.logError(this, "Listener failed handling " + batch.length + " changed vehicles", e);
+				}
+			}
+		}
+	}
+}
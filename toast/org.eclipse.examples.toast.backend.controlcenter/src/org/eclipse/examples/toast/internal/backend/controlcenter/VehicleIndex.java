@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.controlcenter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.eclipse.examples.toast.backend.controlcenter.IData;
+import org.eclipse.examples.toast.backend.controlcenter.IVehicleSearch;
+import org.eclipse.examples.toast.backend.data.IDriver;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+
+/**
+ * An in-memory index over the names of all vehicles and their drivers. Each
+ * vehicle gets a small integer id and is listed under every three-character
+ * sequence (trigram) of its lower-cased search key, so finding the vehicles
+ * that contain some text only has to check those listed under the text's
+ * rarest trigram. The vehicle, first and last names are also kept in a sorted
+ * map, each with its vehicles in name order, which answers prefix matches
+ * without looking at any other vehicle.
+ * The index is updated one vehicle at a time as vehicles are added, change
+ * driver or are removed. Searches share a read lock, so they run side by side
+ * and only wait for, or hold up, those updates.
+ */
+public class VehicleIndex implements IVehicleSearch {
+	private static final int GRAM_LENGTH = 3;
+	private static final Comparator BY_NAME = new EntryComparator(IData.SORT_BY_NAME, true);
+
+	private final Map entries;
+	private final Map grams;
+	private final TreeMap words;
+	private final IntList freeIds;
+	private Entry[] table;
+	private final Lock readLock;
+	private final Lock writeLock;
+
+	public VehicleIndex() {
+		super();
+		entries = new HashMap();
+		grams = new HashMap();
+		words = new TreeMap();
+		freeIds = new IntList();
+		table = new Entry[256];
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+	}
+
+	/**
+	 * Index the vehicle under its current names, and answer whether that
+	 * changed the index.
+	 */
+	public boolean put(IVehicle vehicle) {
+		// Most calls are for a vehicle whose names have not changed, and are
+		// settled without holding up searches.
+		readLock.lock();
+		try {
+			Entry old = (Entry) entries.get(vehicle.getName());
+			if (old != null && old.matches(vehicle))
+				return false;
+		} finally {
+			readLock.unlock();
+		}
+		writeLock.lock();
+		try {
+			Entry old = (Entry) entries.get(vehicle.getName());
+			if (old != null && old.matches(vehicle))
+				return false;
+			int id;
+			if (old != null) {
+				unindex(old);
+				id = old.id;
+			} else {
+				id = allocateId();
+			}
+			Entry entry = new Entry(vehicle, id);
+			entries.put(entry.name, entry);
+			index(entry);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Drop the named vehicle, answering whether it was indexed.
+	 */
+	public boolean remove(String name) {
+		writeLock.lock();
+		try {
+			Entry entry = (Entry) entries.remove(name);
+			if (entry == null)
+				return false;
+			unindex(entry);
+			table[entry.id] = null;
+			freeIds.add(entry.id);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public String[] search(String text, int limit) {
+		readLock.lock();
+		try {
+			return find(text.toLowerCase(), limit);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	public String[] search(String text, int sort, boolean ascending) {
+		List found;
+		readLock.lock();
+		try {
+			found = findEntries(text.toLowerCase());
+		} finally {
+			readLock.unlock();
+		}
+		// Entries are immutable, so they can be sorted outside the lock.
+		Entry[] sorted = (Entry[]) found.toArray(new Entry[found.size()]);
+		Arrays.sort(sorted, new EntryComparator(sort, ascending));
+		return toNames(Arrays.asList(sorted));
+	}
+
+	private String[] find(String needle, int limit) {
+		List result = new ArrayList(Math.min(limit, 64));
+		Set seen = new HashSet();
+		SortedMap tail = words.tailMap(needle);
+		for (Iterator i = tail.entrySet().iterator(); i.hasNext() && result.size() < limit;) {
+			Map.Entry word = (Map.Entry) i.next();
+			if (!((String) word.getKey()).startsWith(needle))
+				break;
+			IntList ids = (IntList) word.getValue();
+			for (int j = 0; j < ids.size && result.size() < limit; j++) {
+				Entry entry = table[ids.values[j]];
+				if (seen.add(entry))
+					result.add(entry);
+			}
+		}
+		if (result.size() < limit)
+			addFirst(findEntries(needle), seen, result, limit);
+		return toNames(result);
+	}
+
+	/**
+	 * Add the candidates that are not in the result yet, first by name, until
+	 * the result holds <code>limit</code> entries. Only the few that are
+	 * needed are kept in order, rather than sorting every candidate.
+	 */
+	private void addFirst(List candidates, Set seen, List result, int limit) {
+		Entry[] best = new Entry[limit - result.size()];
+		int count = 0;
+		for (Iterator i = candidates.iterator(); i.hasNext();) {
+			Entry entry = (Entry) i.next();
+			if (seen.contains(entry))
+				continue;
+			if (count == best.length && BY_NAME.compare(entry, best[count - 1]) >= 0)
+				continue;
+			int j = count == best.length ? count - 1 : count++;
+			for (; j > 0 && BY_NAME.compare(entry, best[j - 1]) < 0; j--)
+				best[j] = best[j - 1];
+			best[j] = entry;
+		}
+		for (int i = 0; i < count; i++)
+			result.add(best[i]);
+	}
+
+	/**
+	 * Answer the entries whose key contains the given lower-cased text. Text
+	 * shorter than a trigram has no list to start from, so those searches
+	 * check every entry.
+	 */
+	private List findEntries(String needle) {
+		List result = new ArrayList();
+		if (needle.length() < GRAM_LENGTH) {
+			for (int i = 0; i < table.length; i++) {
+				if (table[i] != null && table[i].key.indexOf(needle) != -1)
+					result.add(table[i]);
+			}
+			return result;
+		}
+		IntList rarest = null;
+		for (int i = 0; i + GRAM_LENGTH <= needle.length(); i++) {
+			IntList ids = (IntList) grams.get(needle.substring(i, i + GRAM_LENGTH));
+			if (ids == null)
+				return result;
+			if (rarest == null || ids.size < rarest.size)
+				rarest = ids;
+		}
+		for (int i = 0; i < rarest.size; i++) {
+			Entry entry = table[rarest.values[i]];
+			if (needle.length() == GRAM_LENGTH || entry.key.indexOf(needle) != -1)
+				result.add(entry);
+		}
+		return result;
+	}
+
+	private void index(Entry entry) {
+		table[entry.id] = entry;
+		for (Iterator i = entry.getGrams().iterator(); i.hasNext();) {
+			Object gram = i.next();
+			IntList ids = (IntList) grams.get(gram);
+			if (ids == null) {
+				ids = new IntList();
+				grams.put(gram, ids);
+			}
+			ids.add(entry.id);
+		}
+		for (Iterator i = entry.getWords().iterator(); i.hasNext();) {
+			Object word = i.next();
+			IntList ids = (IntList) words.get(word);
+			if (ids == null) {
+				ids = new IntList();
+				words.put(word, ids);
+			}
+			ids.insert(findInsertionPoint(ids, entry), entry.id);
+		}
+	}
+
+	private int findInsertionPoint(IntList ids, Entry entry) {
+		int low = 0;
+		int high = ids.size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (BY_NAME.compare(table[ids.values[middle]], entry) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private void unindex(Entry entry) {
+		for (Iterator i = entry.getGrams().iterator(); i.hasNext();) {
+			Object gram = i.next();
+			IntList ids = (IntList) grams.get(gram);
+			if (ids != null && ids.remove(entry.id, false) && ids.size == 0)
+				grams.remove(gram);
+		}
+		for (Iterator i = entry.getWords().iterator(); i.hasNext();) {
+			Object word = i.next();
+			IntList ids = (IntList) words.get(word);
+			if (ids != null && ids.remove(entry.id, true) && ids.size == 0)
+				words.remove(word);
+		}
+	}
+
+	private int allocateId() {
+		if (freeIds.size > 0)
+			return freeIds.values[--freeIds.size];
+		int id = entries.size();
+		if (id == table.length) {
+			Entry[] grown = new Entry[table.length * 2];
+			System.arraycopy(table, 0, grown, 0, table.length);
+			table = grown;
+		}
+		return id;
+	}
+
+	private String[] toNames(List entries) {
+		String[] names = new String[entries.size()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = ((Entry) entries.get(i)).name;
+		return names;
+	}
+
+	private static class Entry {
+		final int id;
+		final String name;
+		final String firstName;
+		final String lastName;
+		final String key;
+
+		Entry(IVehicle vehicle, int id) {
+			IDriver driver = vehicle.getDriver();
+			this.id = id;
+			name = vehicle.getName();
+			firstName = driver == null ? null : driver.getFirstName();
+			lastName = driver == null ? null : driver.getLastName();
+			// The separator cannot be typed, so no match spans both names.
+			if (driver == null)
+				key = name.toLowerCase();
+			else
+				key = (name + '\u0000' + lastName + ", " + firstName).toLowerCase(); //$NON-NLS-1$
+		}
+
+		Set getGrams() {
+			Set result = new HashSet();
+			for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+				String gram = key.substring(i, i + GRAM_LENGTH);
+				if (gram.indexOf('\u0000') == -1)
+					result.add(gram);
+			}
+			return result;
+		}
+
+		Set getWords() {
+			Set result = new HashSet();
+			result.add(name.toLowerCase());
+			if (firstName != null && firstName.length() > 0)
+				result.add(firstName.toLowerCase());
+			if (lastName != null && lastName.length() > 0)
+				result.add(lastName.toLowerCase());
+			return result;
+		}
+
+		boolean matches(IVehicle vehicle) {
+			IDriver driver = vehicle.getDriver();
+			return equals(firstName, driver == null ? null : driver.getFirstName()) && equals(lastName, driver == null ? null : driver.getLastName());
+		}
+
+		private static boolean equals(String string1, String string2) {
+			return string1 == null ? string2 == null : string1.equals(string2);
+		}
+	}
+
+	/**
+	 * The ids listed under one trigram, in no particular order, or under one
+	 * word, in name order.
+	 */
+	private static class IntList {
+		int[] values = new int[4];
+		int size;
+
+		void add(int value) {
+			insert(size, value);
+		}
+
+		void insert(int index, int value) {
+			if (size == values.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = value;
+			size++;
+		}
+
+		boolean remove(int value, boolean keepOrder) {
+			for (int i = 0; i < size; i++) {
+				if (values[i] == value) {
+					size--;
+					if (keepOrder)
+						System.arraycopy(values, i + 1, values, i, size - i);
+					else
+						values[i] = values[size];
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class EntryComparator implements Comparator {
+		private final int sort;
+		private final boolean ascending;
+
+		EntryComparator(int sort, boolean ascending) {
+			this.sort = sort;
+			this.ascending = ascending;
+		}
+
+		public int compare(Object object1, Object object2) {
+			Entry entry1 = (Entry) object1;
+			Entry entry2 = (Entry) object2;
+			int result = 0;
+			if (sort == IData.SORT_BY_DRIVER) {
+				result = compare(entry1.lastName, entry2.lastName);
+				if (result == 0)
+					result = compare(entry1.firstName, entry2.firstName);
+			}
+			if (result == 0)
+				result = entry1.name.compareTo(entry2.name);
+			return ascending ? result : -result;
+		}
+
+		private int compare(String string1, String string2) {
+			if (string1 == null)
+				return string2 == null ? 0 : -1;
+			if (string2 == null)
+				return 1;
+			return string1.compareTo(string2);
+		}
+	}
+}
@@ -0,0 +1,462 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.data.loader;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.examples.toast.backend.controlcenter.DataListeners;
+import org.eclipse.examples.toast.backend.controlcenter.IData;
+import org.eclipse.examples.toast.backend.controlcenter.IDataListener;
+import org.eclipse.examples.toast.backend.data.IDriver;
+import org.eclipse.examples.toast.backend.data.IToastBackEndDataFactory;
+import org.eclipse.examples.toast.backend.data.ITrackedLocation;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.examples.toast.backend.data.internal.Driver;
+import org.eclipse.examples.toast.backend.data.internal.TrackedLocation;
+import org.eclipse.examples.toast.backend.data.internal.Vehicle;
+
+/**
+ * An in-memory <code>IData</code> for simulating very large fleets. Rather
+ * than holding an EMF object graph per vehicle it keeps only the state the
+ * back end works with (name, online flag, current and emergency location and
+ * the driver's name and image) in one primitive array per field, and builds
+ * a <code>Vehicle</code> from a row each time one is asked for. Changes made
+ * to such a vehicle are stored by passing it to <code>update</code>.
+ * Waybills are not kept; materialized vehicles have no packages.
+ * <p>
+ * Rows are found by name through an open-addressing hash table of row
+ * numbers. Removing a vehicle moves the last row into its place.
+ * </p>
+ * <p>
+ * Pages are served from a sorted array of row numbers that is kept until a
+ * vehicle is added or removed or a driver's name changes.
+ * </p>
+ */
+public class ColumnarDataStore implements IData {
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final byte ONLINE = 1;
+	private static final byte HAS_CURRENT = 2;
+	private static final byte HAS_EMERGENCY = 4;
+
+	private int size;
+	private String[] names;
+	private byte[] flags;
+	private int[] currentLatitudes;
+	private int[] currentLongitudes;
+	private int[] currentHeadings;
+	private int[] currentSpeeds;
+	private long[] currentTimes;
+	private int[] emergencyLatitudes;
+	private int[] emergencyLongitudes;
+	private int[] emergencyHeadings;
+	private int[] emergencySpeeds;
+	private long[] emergencyTimes;
+	private String[] firstNames;
+	private String[] lastNames;
+	private String[] images;
+	// Open-addressing index from name to row + 1; 0 marks an empty slot.
+	private int[] slots;
+	// Driver names and images repeat across vehicles, share one copy of each.
+	private Map strings;
+	private int[] order;
+	private int orderSort;
+	private boolean orderAscending;
+	private final DataListeners listeners = new DataListeners();
+
+	public ColumnarDataStore() {
+		super();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	public void startup() {
+		DataLoader loader = new DataLoader() {
+			protected void process(IVehicle vehicle, List result) {
+				update(vehicle);
+			}
+		};
+		loader.perZone = 50;
+		loader.waybills = 0;
+		loader.mode = DataLoader.CITY_MODE;
+		loader.cities = Arrays.asList(new String[] {"san francisco"});
+		loader.locationSource = DataLoader.class.getResource("sanfran.txt");
+		loader.run();
+	}
+
+	public synchronized Collection getVehicles() {
+		List result = new ArrayList(size);
+		for (int row = 0; row < size; row++)
+			result.add(materialize(row));
+		return result;
+	}
+
+	public synchronized List getVehicles(int sort, boolean ascending, int offset, int count) {
+		if (order == null || orderSort != sort || orderAscending != ascending) {
+			order = new int[size];
+			for (int row = 0; row < size; row++)
+				order[row] = row;
+			new RowSorter(sort, ascending).sort(order);
+			orderSort = sort;
+			orderAscending = ascending;
+		}
+		int start = Math.min(Math.max(offset, 0), size);
+		int end = Math.min(start + Math.max(count, 0), size);
+		List result = new ArrayList(end - start);
+		for (int i = start; i < end; i++)
+			result.add(materialize(order[i]));
+		return result;
+	}
+
+	public synchronized int getVehicleCount() {
+		return size;
+	}
+
+	public synchronized Collection getVehicleNames() {
+		List result = new ArrayList(size);
+		for (int row = 0; row < size; row++)
+			result.add(names[row]);
+		return result;
+	}
+
+	public synchronized IVehicle getVehicle(String name) {
+		int row = find(name);
+		return row < 0 ? null : materialize(row);
+	}
+
+	public void persist(IVehicle object) {
+		update(object);
+	}
+
+	public void update(IVehicle object) {
+		store(object);
+		listeners.vehicleChanged(object);
+	}
+
+	public void removeVehicle(String name) {
+		if (delete(name))
+			listeners.vehicleRemoved(name);
+	}
+
+	public void addListener(IDataListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(IDataListener listener) {
+		listeners.remove(listener);
+	}
+
+	private synchronized void store(IVehicle object) {
+		String name = object.getName();
+		int row = find(name);
+		if (row < 0)
+			row = add(name);
+		byte flag = object.isOnline() ? ONLINE : 0;
+		ITrackedLocation location = object.getCurrentLocation();
+		if (location != null) {
+			flag |= HAS_CURRENT;
+			currentLatitudes[row] = location.getLatitude();
+			currentLongitudes[row] = location.getLongitude();
+			currentHeadings[row] = location.getHeading();
+			currentSpeeds[row] = location.getSpeed();
+			currentTimes[row] = location.getTime();
+		}
+		location = object.getEmergencyLocation();
+		if (location != null) {
+			flag |= HAS_EMERGENCY;
+			emergencyLatitudes[row] = location.getLatitude();
+			emergencyLongitudes[row] = location.getLongitude();
+			emergencyHeadings[row] = location.getHeading();
+			emergencySpeeds[row] = location.getSpeed();
+			emergencyTimes[row] = location.getTime();
+		}
+		flags[row] = flag;
+		IDriver driver = object.getDriver();
+		if (driver != null) {
+			String firstName = share(driver.getFirstName());
+			String lastName = share(driver.getLastName());
+			if (firstName != firstNames[row] || lastName != lastNames[row])
+				order = null;
+			firstNames[row] = firstName;
+			lastNames[row] = lastName;
+			images[row] = driver.getImage() == null ? null : share(driver.getImage().toString());
+		}
+	}
+
+	private synchronized boolean delete(String name) {
+		int slot = findSlot(name);
+		if (slots[slot] == 0)
+			return false;
+		int row = slots[slot] - 1;
+		removeSlot(slot);
+		int last = size - 1;
+		if (row != last) {
+			moveRow(last, row);
+			slots[findSlot(names[row])] = row + 1;
+		}
+		clearRow(last);
+		size--;
+		order = null;
+		return true;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private IVehicle materialize(int row) {
+		IToastBackEndDataFactory factory = IToastBackEndDataFactory.eINSTANCE;
+		Vehicle vehicle = (Vehicle) factory.createVehicle();
+		vehicle.setName(names[row]);
+		vehicle.setOnline((flags[row] & ONLINE) != 0);
+		if ((flags[row] & HAS_CURRENT) != 0)
+			vehicle.setCurrentLocation(createLocation(currentLatitudes[row], currentLongitudes[row], currentHeadings[row], currentSpeeds[row], currentTimes[row]));
+		if ((flags[row] & HAS_EMERGENCY) != 0)
+			vehicle.setEmergencyLocation(createLocation(emergencyLatitudes[row], emergencyLongitudes[row], emergencyHeadings[row], emergencySpeeds[row], emergencyTimes[row]));
+		if (firstNames[row] != null || lastNames[row] != null) {
+			Driver driver = (Driver) factory.createDriver();
+			driver.setFirstName(firstNames[row]);
+			driver.setLastName(lastNames[row]);
+			if (images[row] != null) {
+				try {
+					driver.setImage(new URI(images[row]));
+				} catch (URISyntaxException e) {
+					// Only ever stored from a valid URI.
+				}
+			}
+			vehicle.setDriver(driver);
+		}
+		return vehicle;
+	}
+
+	private TrackedLocation createLocation(int latitude, int longitude, int heading, int speed, long time) {
+		TrackedLocation location = (TrackedLocation) IToastBackEndDataFactory.eINSTANCE.createTrackedLocation();
+		location.setLatitude(latitude);
+		location.setLongitude(longitude);
+		location.setHeading(heading);
+		location.setSpeed(speed);
+		location.setTime(time);
+		return location;
+	}
+
+	private String share(String value) {
+		if (value == null)
+			return null;
+		String shared = (String) strings.get(value);
+		if (shared != null)
+			return shared;
+		strings.put(value, value);
+		return value;
+	}
+
+	private int add(String name) {
+		if (size == names.length)
+			grow(names.length * 2);
+		int row = size++;
+		names[row] = name;
+		slots[findSlot(name)] = row + 1;
+		order = null;
+		return row;
+	}
+
+	private int find(String name) {
+		return slots[findSlot(name)] - 1;
+	}
+
+	/*
+	 * Answer the slot holding the name, or the empty slot where it would go.
+	 * The table is never more than half full so an empty slot always exists.
+	 */
+	private int findSlot(String name) {
+		int mask = slots.length - 1;
+		int slot = hash(name) & mask;
+		while (slots[slot] != 0 && !names[slots[slot] - 1].equals(name))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/*
+	 * Empty the slot and shift later entries of the same probe run back so
+	 * that lookups never stop early at the gap.
+	 */
+	private void removeSlot(int slot) {
+		int mask = slots.length - 1;
+		slots[slot] = 0;
+		int next = (slot + 1) & mask;
+		while (slots[next] != 0) {
+			int home = hash(names[slots[next] - 1]) & mask;
+			boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+			if (movable) {
+				slots[slot] = slots[next];
+				slots[next] = 0;
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private void moveRow(int from, int to) {
+		names[to] = names[from];
+		flags[to] = flags[from];
+		currentLatitudes[to] = currentLatitudes[from];
+		currentLongitudes[to] = currentLongitudes[from];
+		currentHeadings[to] = currentHeadings[from];
+		currentSpeeds[to] = currentSpeeds[from];
+		currentTimes[to] = currentTimes[from];
+		emergencyLatitudes[to] = emergencyLatitudes[from];
+		emergencyLongitudes[to] = emergencyLongitudes[from];
+		emergencyHeadings[to] = emergencyHeadings[from];
+		emergencySpeeds[to] = emergencySpeeds[from];
+		emergencyTimes[to] = emergencyTimes[from];
+		firstNames[to] = firstNames[from];
+		lastNames[to] = lastNames[from];
+		images[to] = images[from];
+	}
+
+	private void clearRow(int row) {
+		names[row] = null;
+		flags[row] = 0;
+		firstNames[row] = null;
+		lastNames[row] = null;
+		images[row] = null;
+	}
+
+	private void allocate(int capacity) {
+		names = new String[capacity];
+		flags = new byte[capacity];
+		currentLatitudes = new int[capacity];
+		currentLongitudes = new int[capacity];
+		currentHeadings = new int[capacity];
+		currentSpeeds = new int[capacity];
+		currentTimes = new long[capacity];
+		emergencyLatitudes = new int[capacity];
+		emergencyLongitudes = new int[capacity];
+		emergencyHeadings = new int[capacity];
+		emergencySpeeds = new int[capacity];
+		emergencyTimes = new long[capacity];
+		firstNames = new String[capacity];
+		lastNames = new String[capacity];
+		images = new String[capacity];
+		slots = new int[capacity * 2];
+		strings = new HashMap();
+	}
+
+	private void grow(int capacity) {
+		names = (String[]) copy(names, new String[capacity]);
+		flags = (byte[]) copy(flags, new byte[capacity]);
+		currentLatitudes = (int[]) copy(currentLatitudes, new int[capacity]);
+		currentLongitudes = (int[]) copy(currentLongitudes, new int[capacity]);
+		currentHeadings = (int[]) copy(currentHeadings, new int[capacity]);
+		currentSpeeds = (int[]) copy(currentSpeeds, new int[capacity]);
+		currentTimes = (long[]) copy(currentTimes, new long[capacity]);
+		emergencyLatitudes = (int[]) copy(emergencyLatitudes, new int[capacity]);
+		emergencyLongitudes = (int[]) copy(emergencyLongitudes, new int[capacity]);
+		emergencyHeadings = (int[]) copy(emergencyHeadings, new int[capacity]);
+		emergencySpeeds = (int[]) copy(emergencySpeeds, new int[capacity]);
+		emergencyTimes = (long[]) copy(emergencyTimes, new long[capacity]);
+		firstNames = (String[]) copy(firstNames, new String[capacity]);
+		lastNames = (String[]) copy(lastNames, new String[capacity]);
+		images = (String[]) copy(images, new String[capacity]);
+		slots = new int[capacity * 2];
+		for (int row = 0; row < size; row++)
+			slots[findSlot(names[row])] = row + 1;
+	}
+
+	private Object copy(Object from, Object to) {
+		System.arraycopy(from, 0, to, 0, size);
+		return to;
+	}
+
+	/*
+	 * Orders row numbers the way VehicleOrder orders vehicles, reading the
+	 * columns directly rather than materializing each vehicle. Rows are sorted
+	 * as plain ints with a stable merge sort, so no row is boxed.
+	 */
+	private class RowSorter {
+		private static final int INSERTION_SORT_LENGTH = 16;
+
+		private final int sort;
+		private final boolean ascending;
+
+		RowSorter(int sort, boolean ascending) {
+			this.sort = sort;
+			this.ascending = ascending;
+		}
+
+		void sort(int[] rows) {
+			int length = rows.length;
+			for (int start = 0; start < length; start += INSERTION_SORT_LENGTH)
+				insertionSort(rows, start, Math.min(start + INSERTION_SORT_LENGTH, length));
+			int[] from = rows;
+			int[] to = new int[length];
+			for (int width = INSERTION_SORT_LENGTH; width < length; width *= 2) {
+				for (int start = 0; start < length; start += 2 * width)
+					merge(from, to, start, Math.min(start + width, length), Math.min(start + 2 * width, length));
+				int[] swap = from;
+				from = to;
+				to = swap;
+			}
+			if (from != rows)
+				System.arraycopy(from, 0, rows, 0, length);
+		}
+
+		private void insertionSort(int[] rows, int start, int end) {
+			for (int i = start + 1; i < end; i++) {
+				int row = rows[i];
+				int j = i;
+				for (; j > start && compare(rows[j - 1], row) > 0; j--)
+					rows[j] = rows[j - 1];
+				rows[j] = row;
+			}
+		}
+
+		private void merge(int[] from, int[] to, int start, int middle, int end) {
+			int left = start;
+			int right = middle;
+			for (int i = start; i < end; i++) {
+				if (right >= end || (left < middle && compare(from[left], from[right]) <= 0))
+					to[i] = from[left++];
+				else
+					to[i] = from[right++];
+			}
+		}
+
+		private int compare(int row1, int row2) {
+			int result = 0;
+			if (sort == SORT_BY_DRIVER) {
+				result = compare(lastNames[row1], lastNames[row2]);
+				if (result == 0)
+					result = compare(firstNames[row1], firstNames[row2]);
+			}
+			if (result == 0)
+				result = names[row1].compareTo(names[row2]);
+			return ascending ? result : -result;
+		}
+
+		private int compare(String string1, String string2) {
+			if (string1 == null)
+				return string2 == null ? 0 : -1;
+			if (string2 == null)
+				return 1;
+			return string1.compareTo(string2);
+		}
+	}
+}
@@ -15,13 +15,22 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.eclipse.examples.toast.backend.data.IToastBackEndDataFactory;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 import org.eclipse.examples.toast.backend.data.internal.Address;
@@ -55,19 +64,32 @@ public class DataLoader {
 	protected int mode = ALL_MODE;
 	protected int waybills = 10;
 	protected double factor = 60.0;
+	// Zones are built on this many threads. Only the state, zip and city modes
+	// split the input into more than one zone.
+	protected int threads = 1;
+	// Every random choice derives from the seed, so a given seed and input
+	// always produce the same objects, whatever the number of threads.
+	protected long seed = System.currentTimeMillis();
 
 	String[] drivers = readDrivers();
+	private Random random;
+	private int zoneCount;
 
 	public List run() {
 		ArrayList result = new ArrayList();
+		random = new Random(seed);
+		zoneCount = 0;
 		try {
 			BufferedReader in = null;
 			try {
 				in = new BufferedReader(new InputStreamReader(locationSource.openStream()));
 				in.readLine();
-				while (stream(in) != null) {
-					result.addAll(buildObjects());
-				}
+				if (threads > 1)
+					runParallel(in, result);
+				else
+					while (stream(in) != null)
+						buildObjects(result);
+				finish(result);
 			} finally {
 				if (in != null)
 					in.close();
@@ -78,8 +100,58 @@ public class DataLoader {
 		return result;
 	}
 
+	/*
+	 * Build zones on a pool of threads while this thread reads ahead. Built
+	 * zones are processed on this thread in input order, and at most two zones
+	 * per thread are outstanding so memory stays bounded.
+	 */
+	private void runParallel(BufferedReader in, List result) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LinkedList pending = new LinkedList();
+		try {
+			while (stream(in) != null) {
+				final List zone = locations;
+				final Random zoneRandom = createZoneRandom(zoneCount++);
+				pending.addLast(executor.submit(new Callable() {
+					public Object call() {
+						return buildZone(zone, zoneRandom);
+					}
+				}));
+				if (pending.size() >= threads * 2)
+					processZone((Future) pending.removeFirst(), result);
+			}
+			while (!pending.isEmpty())
+				processZone((Future) pending.removeFirst(), result);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void processZone(Future zone, List result) throws IOException {
+		List vehicles;
+		try {
+			vehicles = (List) zone.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while building vehicles");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			IOException exception = new IOException("Failed to build vehicles");
+			exception.initCause(e.getCause());
+			throw exception;
+		}
+		for (Iterator i = vehicles.iterator(); i.hasNext();)
+			process((IVehicle) i.next(), result);
+	}
+
+	private Random createZoneRandom(int zone) {
+		return new Random(seed + zone * 0x9E3779B97F4A7C15L);
+	}
+
 	private Collection stream(BufferedReader in) throws IOException {
-		locations.clear();
+		// A fresh list each time, zones may still be being built from the last one.
+		locations = new ArrayList();
 		String currentFilter = null;
 		if (nextLocation == null)
 			nextLocation = readLocation(in);
@@ -97,7 +169,8 @@ public class DataLoader {
 				accept(nextLocation);
 				currentFilter = filter;
 				nextLocation = readLocation(in);
-			}
+			} else
+				break;
 		}
 		return locations.isEmpty() ? null : locations;
 	}
@@ -134,39 +207,65 @@ public class DataLoader {
 		return null;
 	}
 
-	protected Collection buildObjects() {
-		ArrayList result = new ArrayList();
+	/**
+	 * Build the vehicles for the zone currently held in <code>locations</code>
+	 * and hand each one to <code>process</code> as soon as it is built.
+	 */
+	protected void buildObjects(List result) {
+		Random zoneRandom = createZoneRandom(zoneCount++);
 		int count = locations.size() / perZone;
 		for (int i = 0; i < count; i++)
-			result.add(createVehicle(i));
+			process(createVehicle(locations, zoneRandom, i), result);
+	}
+
+	private List buildZone(List zone, Random zoneRandom) {
+		int count = zone.size() / perZone;
+		List result = new ArrayList(count);
+		for (int i = 0; i < count; i++)
+			result.add(createVehicle(zone, zoneRandom, i));
 		return result;
 	}
 
-	private IVehicle createVehicle(int n) {
+	/**
+	 * Call back for each vehicle built. By default the vehicle is added to the
+	 * result returned from <code>run</code>; subclasses that store vehicles
+	 * elsewhere can override this and not keep them.
+	 */
+	protected void process(IVehicle vehicle, List result) {
+		result.add(vehicle);
+	}
+
+	/**
+	 * Call back once every location has been read.
+	 */
+	protected void finish(List result) {
+	}
+
+	private IVehicle createVehicle(List zone, Random random, int n) {
 		IToastBackEndDataFactory factory = ToastBackEndDataFactory.eINSTANCE;
-		Address driverAddress = createAddress(getRandomLocation());
+		Address driverAddress = createAddress(getRandomLocation(zone, random));
 
 		Driver driver = createDriver(n);
 		driver.setAddress(driverAddress);
 
-		TrackedLocation currentLocation = createTrackedLocation(null);
-		TrackedLocation emergencyLocation = createTrackedLocation(null);
+		TrackedLocation currentLocation = createTrackedLocation(getRandomLocation(zone, random), random);
+		TrackedLocation emergencyLocation = createTrackedLocation(getRandomLocation(zone, random), random);
 
 		Vehicle vehicle = (Vehicle) factory.createVehicle();
 		vehicle.setName(driverAddress.getArea() + "-" + driverAddress.getCity() + "-" + n);
 		vehicle.setDriver(driver);
 		vehicle.setCurrentLocation(currentLocation);
 		vehicle.setEmergencyLocation(emergencyLocation);
-		int count = getRandom(waybills);
+		int count = getRandom(random, waybills);
 		for (int i = 0; i < count; i++) {
 			Package package1 = (Package) factory.createPackage();
 			Waybill waybill = (Waybill) factory.createWaybill();
 			package1.setWaybill(waybill);
-			package1.setWeight(getRandom(100));
+			package1.setWeight(getRandom(random, 100));
 
 			waybill.setItem(package1);
-			waybill.setDestination(createAddress(getRandomLocation()));
-			waybill.setOrigin(createAddress(getRandomLocation()));
+			waybill.setDestination(createAddress(getRandomLocation(zone, random)));
+			waybill.setOrigin(createAddress(getRandomLocation(zone, random)));
 			waybill.setSent(new Date());
 			waybill.setReceived(null);
 
@@ -233,34 +332,32 @@ public class DataLoader {
 		return result;
 	}
 
-	private TrackedLocation createTrackedLocation(Location location) {
-		if (location == null)
-			location = getRandomLocation();
+	private TrackedLocation createTrackedLocation(Location location, Random random) {
 		IToastBackEndDataFactory factory = ToastBackEndDataFactory.eINSTANCE;
 		TrackedLocation currentLocation = (TrackedLocation) factory.createTrackedLocation();
-		currentLocation.setHeading(getRandom(360));
+		currentLocation.setHeading(getRandom(random, 360));
 		currentLocation.setLatitude(location.getLatitude());
 		currentLocation.setLongitude(location.getLongitude());
-		currentLocation.setSpeed(getRandom(100));
+		currentLocation.setSpeed(getRandom(random, 100));
 		currentLocation.setTime(System.currentTimeMillis());
 		return currentLocation;
 	}
 
-	private int getRandom(int i) {
-		return (int) Math.floor(Math.random() * i);
+	private int getRandom(Random random, int i) {
+		return i <= 0 ? 0 : random.nextInt(i);
 	}
 
-	private Location getRandomLocation() {
-		return (Location) locations.get(getRandom(locations.size()));
+	private Location getRandomLocation(List zone, Random random) {
+		return (Location) zone.get(getRandom(random, zone.size()));
 	}
 
 	private double randomize(double value) {
-		double random = Math.random();
+		double offset = random.nextDouble();
 		// scale the random down by factor and then make it +/- 
 		// and tweak the value
-		random = random / factor;
-		random = (1.0 / factor / 2.0) - random;
-		return value + random;
+		offset = offset / factor;
+		offset = (1.0 / factor / 2.0) - offset;
+		return value + offset;
 	}
 
 	private Address createAddress(Location location) {
@@ -75,6 +75,10 @@ public class DataLoaderApplication implements IApplication {
 			loader.cities = Arrays.asList(parameter.split(","));
 		if (arg.equalsIgnoreCase("-factor"))
 			loader.factor = Integer.parseInt(parameter);
+		if (arg.equalsIgnoreCase("-threads"))
+			loader.threads = Integer.parseInt(parameter);
+		if (arg.equalsIgnoreCase("-seed"))
+			loader.seed = Long.parseLong(parameter);
 	}
 
 	protected void processFlag(String arg) {
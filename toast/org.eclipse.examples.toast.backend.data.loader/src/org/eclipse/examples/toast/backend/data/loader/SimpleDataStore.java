@@ -17,12 +17,16 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.eclipse.examples.toast.backend.controlcenter.DataListeners;
 import org.eclipse.examples.toast.backend.controlcenter.IData;
+import org.eclipse.examples.toast.backend.controlcenter.IDataListener;
+import org.eclipse.examples.toast.backend.controlcenter.VehicleOrder;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 
 public class SimpleDataStore implements IData {
 
 	private Map vehicles;
+	private final DataListeners listeners = new DataListeners();
 
 	public void startup() {
 		vehicles = new HashMap();
@@ -43,6 +47,14 @@ public class SimpleDataStore implements IData {
 		return vehicles.values();
 	}
 
+	public List getVehicles(int sort, boolean ascending, int offset, int count) {
+		return VehicleOrder.getPage(vehicles.values(), sort, ascending, offset, count);
+	}
+
+	public int getVehicleCount() {
+		return vehicles.size();
+	}
+
 	public Collection getVehicleNames() {
 		return vehicles.keySet();
 	}
@@ -53,13 +65,24 @@ public class SimpleDataStore implements IData {
 
 	public void persist(IVehicle object) {
 		vehicles.put(object.getName(), object);
+		listeners.vehicleChanged(object);
 	}
 
 	public void removeVehicle(String name) {
 		vehicles.remove(name);
+		listeners.vehicleRemoved(name);
 	}
 
 	public void update(IVehicle object) {
 		vehicles.put(object.getName(), object);
+		listeners.vehicleChanged(object);
+	}
+
+	public void addListener(IDataListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(IDataListener listener) {
+		listeners.remove(listener);
 	}
 }
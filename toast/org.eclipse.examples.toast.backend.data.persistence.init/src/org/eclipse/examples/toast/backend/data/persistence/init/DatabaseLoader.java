@@ -11,29 +11,32 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.backend.data.persistence.init;
 
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.eclipse.examples.toast.backend.data.IVehicle;
 import org.eclipse.examples.toast.backend.data.loader.DataLoader;
+import org.eclipse.examples.toast.backend.data.persistence.BatchWriter;
 import org.eclipse.examples.toast.backend.data.persistence.ToastDataManager;
 
 public class DatabaseLoader extends DataLoader {
 
 	protected String destination;
+	protected int batchSize = 500;
 	private ToastDataManager manager;
+	private BatchWriter writer;
 
 	/**
-	 * Call back from the DataLoader superclass to actually create the objects.
-	 * Here we build them all and then persist them.
+	 * Call back from the DataLoader superclass for each vehicle built. The
+	 * vehicle is persisted in the current batch and not kept in the result.
 	 */
-	protected Collection buildObjects() {
-		// TODO work out a way of building and persisting incrementally.
-		Collection result = super.buildObjects();
-		for (Iterator i = result.iterator(); i.hasNext();)
-			manager.persist((Object) i.next());
-		return result;
+	protected void process(IVehicle vehicle, List result) {
+		writer.persist(vehicle);
+	}
+
+	protected void finish(List result) {
+		writer.close();
+		writer = null;
 	}
 
 	public List run() {
@@ -45,8 +48,21 @@ public class DatabaseLoader extends DataLoader {
 		properties.put("eclipselink.jdbc.driver", "org.apache.derby.jdbc.ClientDriver");
 		properties.put("eclipselink.ddl-generation", "drop-and-create-tables");
 		properties.put("eclipselink.ddl-generation.output-mode", "database");
+		properties.put("eclipselink.jdbc.batch-writing.size", String.valueOf(batchSize));
 		manager.startup(properties);
 
-		return super.run();
+		writer = manager.createBatchWriter(batchSize);
+		try {
+			return super.run();
+		} finally {
+			// finish() closes the writer once everything is built; if it is
+			// still here the load failed, and the last batch must not be
+			// committed.
+			if (writer != null) {
+				writer.abort();
+				writer = null;
+			}
+			manager.shutdown();
+		}
 	}
 }
@@ -24,5 +24,7 @@ public class DatabaseLoaderApplication extends DataLoaderApplication {
 		super.processParameter(arg, parameter);
 		if (arg.equalsIgnoreCase("-destination"))
 			((DatabaseLoader) loader).destination = parameter;
+		if (arg.equalsIgnoreCase("-batchSize"))
+			((DatabaseLoader) loader).batchSize = Integer.parseInt(parameter);
 	}
 }
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.data.persistence;
+
+import java.io.PrintStream;
+import javax.persistence.EntityManager;
+import org.eclipse.examples.toast.core.LogUtility;
+
+/**
+ * Persists a stream of objects through one <code>EntityManager</code>,
+ * committing and clearing it every <code>batchSize</code> objects so that
+ * memory use stays flat however many objects are written. Progress is
+ * reported as objects per second. A load that fails part way must call
+ * {@link #abort()} instead of {@link #close()}, so that the unfinished batch
+ * is rolled back rather than committed.
+ */
+public class BatchWriter {
+	private static final long REPORT_INTERVAL = 5000;
+
+	private final EntityManager em;
+	private final int batchSize;
+	private final PrintStream out;
+	private int pending;
+	private long written;
+	private long started;
+	private long lastReport;
+	private long lastReportWritten;
+	private boolean closed;
+
+	BatchWriter(EntityManager em, int batchSize, PrintStream out) {
+		super();
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be at least 1"); //$NON-NLS-1$
+		this.em = em;
+		this.batchSize = batchSize;
+		this.out = out;
+	}
+
+	public void persist(Object object) {
+		if (started == 0) {
+			started = System.currentTimeMillis();
+			lastReport = started;
+		}
+		if (!em.getTransaction().isActive())
+			em.getTransaction().begin();
+		em.persist(object);
+		if (++pending >= batchSize)
+			flush();
+	}
+
+	public void flush() {
+		if (em.getTransaction().isActive())
+			em.getTransaction().commit();
+		// Nothing written so far is needed again; drop it from the persistence
+		// context so it can be collected.
+		em.clear();
+		written += pending;
+		pending = 0;
+		long now = System.currentTimeMillis();
+		if (now - lastReport >= REPORT_INTERVAL) {
+			report("Persisted", written, written - lastReportWritten, now - lastReport);
+			lastReport = now;
+			lastReportWritten = written;
+		}
+	}
+
+	/**
+	 * Commit anything outstanding, report the overall rate and release the
+	 * <code>EntityManager</code>.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			flush();
+			if (started != 0)
+				report("Finished, persisted", written, written, System.currentTimeMillis() - started);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Roll back the batch in progress and release the
+	 * <code>EntityManager</code>. Batches already committed stay. Never
+	 * throws, so it does not hide the failure that led to it.
+	 */
+	public void abort() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			release();
+		} catch (RuntimeException e) {
+			LogUtility.logWarning(this, "Failed to roll back the batch in progress", e);
+		}
+		if (started != 0)
+			report("Aborted after persisting", written, written, System.currentTimeMillis() - started);
+	}
+
+	private void release() {
+		try {
+			if (em.getTransaction().isActive())
+				em.getTransaction().rollback();
+		} finally {
+			em.close();
+		}
+	}
+
+	public long getWritten() {
+		return written;
+	}
+
+	private void report(String prefix, long total, long count, long elapsed) {
+		long rate = elapsed == 0 ? count : count * 1000 / elapsed;
+		out.println(prefix + " " + total + " objects (" + rate + " per second)");
+	}
+}
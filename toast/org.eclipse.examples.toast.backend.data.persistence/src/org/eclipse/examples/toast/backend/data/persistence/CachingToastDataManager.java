@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.data.persistence;
+
+import java.util.Map;
+import org.eclipse.examples.toast.backend.controlcenter.CachingData;
+import org.eclipse.examples.toast.core.LogUtility;
+
+/**
+ * The <code>IData</code> service: a {@link ToastDataManager} behind a
+ * {@link CachingData} so that repeated vehicle lookups do not each go to the
+ * database.
+ */
+public class CachingToastDataManager extends CachingData {
+	public static final String CACHE_SIZE_PROPERTY = "toast.data.cache.size"; //$NON-NLS-1$
+	public static final String CACHE_TTL_PROPERTY = "toast.data.cache.ttl"; //$NON-NLS-1$
+
+	private ToastDataManager manager;
+
+	public CachingToastDataManager() {
+		super();
+	}
+
+	public void startup(Map<String, Object> properties) {
+		manager = new ToastDataManager();
+		manager.startup(properties);
+		int capacity = getNumber(properties.get(CACHE_SIZE_PROPERTY), CAPACITY_DEFAULT).intValue();
+		long timeToLive = getNumber(properties.get(CACHE_TTL_PROPERTY), TIME_TO_LIVE_DEFAULT).longValue();
+		initialize(manager, capacity, timeToLive);
+	}
+
+	public void shutdown() {
+		LogUtility.logDebug(this, "Vehicle cache at shutdown: " + this);
+		invalidateAll();
+		manager.shutdown();
+	}
+
+	private Number getNumber(Object value, long defaultValue) {
+		if (value instanceof Number)
+			return (Number) value;
+		if (value instanceof String) {
+			try {
+				return Long.valueOf(((String) value).trim());
+			} catch (NumberFormatException e) {
+				LogUtility.logWarning(this, "Invalid cache setting: " + value);
+			}
+		}
+		return Long.valueOf(defaultValue);
+	}
+}
@@ -11,24 +11,38 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.backend.data.persistence;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
 import javax.persistence.NonUniqueResultException;
+import org.eclipse.examples.toast.backend.controlcenter.DataListeners;
 import org.eclipse.examples.toast.backend.controlcenter.IData;
+import org.eclipse.examples.toast.backend.controlcenter.IDataListener;
 import org.eclipse.examples.toast.backend.data.IDriver;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 import org.eclipse.examples.toast.backend.data.IWaybill;
 import org.eclipse.examples.toast.backend.data.internal.Vehicle;
+import org.eclipse.examples.toast.core.LogUtility;
 import org.eclipse.persistence.config.PersistenceUnitProperties;
 import org.eclipse.persistence.jpa.osgi.PersistenceProvider;
 
 public class ToastDataManager implements IData {
+	// Write-behind is only used when the interval property is present, so
+	// tools such as the database loader keep their synchronous behavior.
+	public static final String WRITE_BEHIND_INTERVAL_PROPERTY = "toast.persistence.writebehind.interval"; //$NON-NLS-1$
+	public static final String WRITE_BEHIND_BATCH_PROPERTY = "toast.persistence.writebehind.batch"; //$NON-NLS-1$
+	public static final String WRITE_BEHIND_CAPACITY_PROPERTY = "toast.persistence.writebehind.capacity"; //$NON-NLS-1$
+	private static final int WRITE_BEHIND_BATCH_DEFAULT = 200;
+	private static final int WRITE_BEHIND_CAPACITY_DEFAULT = 5000;
 
 	private static EntityManagerFactory emf;
 	protected String databaseLocation;
+	private WriteBehindQueue writeBehind;
+	private final DataListeners listeners = new DataListeners();
 
 	public ToastDataManager() {
 	}
@@ -50,8 +64,59 @@ public class ToastDataManager implements IData {
 		return "toast";
 	}
 
+	/**
+	 * Save the vehicle. When write-behind is configured this only queues the
+	 * vehicle; repeated updates to the same vehicle are written once, in a
+	 * batch, by the write-behind thread. The queue writes a snapshot of the
+	 * changing state taken here, on the thread that changed the vehicle,
+	 * since the live instance keeps changing while the batch is written.
+	 */
 	public void update(IVehicle object) {
-		update((Object) object);
+		WriteBehindQueue queue = writeBehind;
+		boolean queued = false;
+		if (queue != null) {
+			try {
+				queue.add(object, new VehicleSnapshot(object));
+				queued = true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (!queued)
+			update((Object) object);
+		listeners.vehicleChanged(object);
+	}
+
+	private void write(List<VehicleSnapshot> snapshots) {
+		EntityManager em = null;
+		try {
+			em = emf.createEntityManager();
+			em.getTransaction().begin();
+			for (VehicleSnapshot snapshot : snapshots) {
+				IVehicle vehicle = findVehicle(em, snapshot);
+				if (vehicle == null)
+					LogUtility.logDebug(this, "Dropped the update of removed vehicle " + snapshot.getName()); //$NON-NLS-1$
+				else
+					snapshot.applyTo(vehicle);
+			}
+			em.getTransaction().commit();
+		} finally {
+			if (em != null) {
+				if (em.getTransaction().isActive())
+					em.getTransaction().rollback();
+				em.close();
+			}
+		}
+	}
+
+	private IVehicle findVehicle(EntityManager em, VehicleSnapshot snapshot) {
+		if (snapshot.getId() != 0)
+			return em.find(Vehicle.class, snapshot.getId());
+		try {
+			return (IVehicle) em.createQuery("select v from Vehicle v where v.name = :name").setParameter("name", snapshot.getName()).getSingleResult(); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (NoResultException e) {
+			return null;
+		}
 	}
 
 	public void update(Object object) {
@@ -69,9 +134,55 @@ public class ToastDataManager implements IData {
 	@SuppressWarnings("unchecked")
 	public Collection<IVehicle> getVehicles() {
 		EntityManager em = null;
+		List<IVehicle> vehicles;
 		try {
 			em = emf.createEntityManager();
-			return em.createNamedQuery("Vehicle.findAll").getResultList();
+			vehicles = em.createNamedQuery("Vehicle.findAll").getResultList();
+		} finally {
+			em.close();
+		}
+		WriteBehindQueue queue = writeBehind;
+		if (queue == null || queue.size() == 0)
+			return vehicles;
+		List<IVehicle> result = new ArrayList<IVehicle>(vehicles.size());
+		for (IVehicle vehicle : vehicles) {
+			IVehicle pending = queue.get(vehicle.getName());
+			result.add(pending == null ? vehicle : pending);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<IVehicle> getVehicles(int sort, boolean ascending, int offset, int count) {
+		String query;
+		if (sort == SORT_BY_DRIVER)
+			query = ascending ? "Vehicle.findAllByDriver" : "Vehicle.findAllByDriverDescending"; //$NON-NLS-1$ //$NON-NLS-2$
+		else
+			query = ascending ? "Vehicle.findAllByName" : "Vehicle.findAllByNameDescending"; //$NON-NLS-1$ //$NON-NLS-2$
+		EntityManager em = null;
+		List<IVehicle> vehicles;
+		try {
+			em = emf.createEntityManager();
+			vehicles = em.createNamedQuery(query).setFirstResult(offset).setMaxResults(count).getResultList();
+		} finally {
+			em.close();
+		}
+		WriteBehindQueue queue = writeBehind;
+		if (queue == null || queue.size() == 0)
+			return vehicles;
+		List<IVehicle> result = new ArrayList<IVehicle>(vehicles.size());
+		for (IVehicle vehicle : vehicles) {
+			IVehicle pending = queue.get(vehicle.getName());
+			result.add(pending == null ? vehicle : pending);
+		}
+		return result;
+	}
+
+	public int getVehicleCount() {
+		EntityManager em = null;
+		try {
+			em = emf.createEntityManager();
+			return ((Number) em.createNamedQuery("Vehicle.count").getSingleResult()).intValue(); //$NON-NLS-1$
 		} finally {
 			em.close();
 		}
@@ -125,6 +236,7 @@ public class ToastDataManager implements IData {
 
 	public void persist(IVehicle object) {
 		persist((Object) object);
+		listeners.vehicleChanged(object);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -142,14 +254,57 @@ public class ToastDataManager implements IData {
 		}
 	}
 
+	/**
+	 * Answer a writer for bulk loading that persists objects in transactions
+	 * of <code>batchSize</code> objects. The caller must close it.
+	 */
+	public BatchWriter createBatchWriter(int batchSize) {
+		return new BatchWriter(emf.createEntityManager(), batchSize, System.out);
+	}
+
 	public void startup(Map properties) {
 		initEntityManagerFactory(properties);
+		startWriteBehind(properties);
 	}
 
 	public void shutdown() {
+		if (writeBehind != null) {
+			writeBehind.stop();
+			writeBehind = null;
+		}
 		emf.close();
 	}
 
+	private void startWriteBehind(Map properties) {
+		int interval = getIntProperty(properties, WRITE_BEHIND_INTERVAL_PROPERTY, 0);
+		if (interval <= 0)
+			return;
+		int batchSize = getIntProperty(properties, WRITE_BEHIND_BATCH_PROPERTY, WRITE_BEHIND_BATCH_DEFAULT);
+		int capacity = getIntProperty(properties, WRITE_BEHIND_CAPACITY_PROPERTY, WRITE_BEHIND_CAPACITY_DEFAULT);
+		WriteBehindQueue.Writer writer = new WriteBehindQueue.Writer() {
+			public void write(List<VehicleSnapshot> snapshots) {
+				ToastDataManager.this.write(snapshots);
+			}
+		};
+		writeBehind = new WriteBehindQueue(writer, interval, batchSize, Math.max(capacity, batchSize));
+		writeBehind.start();
+		LogUtility.logDebug(this, "Write-behind started: interval=" + interval + "ms, batch=" + batchSize + ", capacity=" + capacity);
+	}
+
+	private int getIntProperty(Map properties, String name, int defaultValue) {
+		Object value = properties.get(name);
+		if (value instanceof Number)
+			return ((Number) value).intValue();
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt(((String) value).trim());
+			} catch (NumberFormatException e) {
+				LogUtility.logWarning(this, "Invalid value for " + name + ": " + value);
+			}
+		}
+		return defaultValue;
+	}
+
 	public Collection getVehicleNames() {
 		EntityManager em = null;
 		try {
@@ -161,6 +316,12 @@ public class ToastDataManager implements IData {
 	}
 
 	public IVehicle getVehicle(String name) {
+		WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			IVehicle pending = queue.get(name);
+			if (pending != null)
+				return pending;
+		}
 		EntityManager em = null;
 		try {
 			em = emf.createEntityManager();
@@ -171,6 +332,8 @@ public class ToastDataManager implements IData {
 	}
 
 	public void removeVehicle(String name) {
+		if (writeBehind != null)
+			writeBehind.remove(name);
 		EntityManager em = null;
 		try {
 			em = emf.createEntityManager();
@@ -185,5 +348,14 @@ public class ToastDataManager implements IData {
 		} finally {
 			em.close();
 		}
+		listeners.vehicleRemoved(name);
+	}
+
+	public void addListener(IDataListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(IDataListener listener) {
+		listeners.remove(listener);
 	}
 }
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All
+ * rights reserved. This program and the accompanying materials are made available
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.data.persistence;
+
+import org.eclipse.examples.toast.backend.data.IToastBackEndDataFactory;
+import org.eclipse.examples.toast.backend.data.ITrackedLocation;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.examples.toast.backend.data.internal.TrackedLocation;
+import org.eclipse.examples.toast.backend.data.internal.Vehicle;
+
+/**
+ * The parts of a vehicle that change at run time: whether it is online, its
+ * current location and its emergency location. A snapshot is taken on the
+ * thread that changed the vehicle and later applied to a managed vehicle by
+ * the write-behind thread, which therefore never reads the live instance.
+ */
+public final class VehicleSnapshot {
+	private final int id;
+	private final String name;
+	private final boolean online;
+	private final Location currentLocation;
+	private final Location emergencyLocation;
+
+	private static final class Location {
+		final int latitude;
+		final int longitude;
+		final int heading;
+		final int speed;
+		final long time;
+
+		Location(ITrackedLocation location) {
+			super();
+			latitude = location.getLatitude();
+			longitude = location.getLongitude();
+			heading = location.getHeading();
+			speed = location.getSpeed();
+			time = location.getTime();
+		}
+
+		ITrackedLocation applyTo(ITrackedLocation location) {
+			TrackedLocation result = (TrackedLocation) location;
+			if (result == null)
+				result = (TrackedLocation) IToastBackEndDataFactory.eINSTANCE.createTrackedLocation();
+			result.setLatitude(latitude);
+			result.setLongitude(longitude);
+			result.setHeading(heading);
+			result.setSpeed(speed);
+			result.setTime(time);
+			return result;
+		}
+	}
+
+	public VehicleSnapshot(IVehicle vehicle) {
+		super();
+		id = vehicle.getId();
+		name = vehicle.getName();
+		online = vehicle.isOnline();
+		currentLocation = createLocation(vehicle.getCurrentLocation());
+		emergencyLocation = createLocation(vehicle.getEmergencyLocation());
+	}
+
+	private static Location createLocation(ITrackedLocation location) {
+		return location == null ? null : new Location(location);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Copy the snapshot onto the given vehicle, which is normally managed by
+	 * an <code>EntityManager</code>. Existing locations are updated in place
+	 * rather than replaced, so no location rows are orphaned.
+	 */
+	public void applyTo(IVehicle vehicle) {
+		Vehicle target = (Vehicle) vehicle;
+		target.setOnline(online);
+		target.setCurrentLocation(currentLocation == null ? null : currentLocation.applyTo(target.getCurrentLocation()));
+		target.setEmergencyLocation(emergencyLocation == null ? null : emergencyLocation.applyTo(target.getEmergencyLocation()));
+	}
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.data.persistence;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.examples.toast.core.LogUtility;
+
+/**
+ * Collects vehicle updates and hands them to a {@link Writer} from a single
+ * background thread. Updates are keyed by vehicle name, so a vehicle that
+ * changes many times between flushes is written once with its latest state.
+ * A flush happens every <code>interval</code> milliseconds, or sooner once
+ * <code>batchSize</code> vehicles are pending. When <code>capacity</code>
+ * vehicles are pending, callers adding a new vehicle block until the writer
+ * catches up. Callers hand in a {@link VehicleSnapshot} along with the live
+ * instance; the snapshot is what gets written, so the writer never reads a
+ * vehicle that request threads are still changing. On {@link #stop()} the
+ * last updates are written on the calling thread, retrying a few times, and
+ * any that still cannot be written are reported as lost.
+ */
+public class WriteBehindQueue {
+	public interface Writer {
+		public void write(List<VehicleSnapshot> vehicles);
+	}
+
+	private static final int STOP_ATTEMPTS = 3;
+	private static final long STOP_RETRY_DELAY = 1000;
+
+	private static final class Entry {
+		final IVehicle vehicle;
+		final VehicleSnapshot snapshot;
+
+		Entry(IVehicle vehicle, VehicleSnapshot snapshot) {
+			super();
+			this.vehicle = vehicle;
+			this.snapshot = snapshot;
+		}
+	}
+
+	private final Writer writer;
+	private final long interval;
+	private final int batchSize;
+	private final int capacity;
+	private final Map<String, Entry> pending;
+	private Thread flusher;
+	private boolean running;
+	private boolean flushRequested;
+
+	public WriteBehindQueue(Writer writer, long interval, int batchSize, int capacity) {
+		super();
+		if (interval <= 0 || batchSize <= 0 || capacity < batchSize)
+			throw new IllegalArgumentException("interval and batchSize must be positive and capacity at least batchSize"); //$NON-NLS-1$
+		this.writer = writer;
+		this.interval = interval;
+		this.batchSize = batchSize;
+		this.capacity = capacity;
+		this.pending = new LinkedHashMap<String, Entry>(capacity * 4 / 3 + 1);
+	}
+
+	public synchronized void start() {
+		if (running)
+			return;
+		running = true;
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, "Toast write-behind"); //$NON-NLS-1$
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Stop the background thread, then write everything that is still
+	 * pending, including a batch whose last background write failed.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			if (!running)
+				return;
+			running = false;
+			thread = flusher;
+			flusher = null;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writeRemaining();
+	}
+
+	/*
+	 * The flush thread has gone, so nothing else will drain the queue.
+	 */
+	private void writeRemaining() {
+		List<Entry> batch;
+		synchronized (this) {
+			batch = drain();
+		}
+		if (batch.isEmpty())
+			return;
+		List<VehicleSnapshot> snapshots = getSnapshots(batch);
+		for (int attempt = 1;; attempt++) {
+			try {
+				writer.write(snapshots);
+				return;
+			} catch (RuntimeException e) {
+				if (attempt == STOP_ATTEMPTS) {
+					LogUtility.logError(this, "Lost " + snapshots.size() + " vehicle updates that could not be written on shutdown", e);
+					return;
+				}
+				LogUtility.logWarning(this, "Failed to write " + snapshots.size() + " vehicles on shutdown, will retry");
+			}
+			try {
+				Thread.sleep(STOP_RETRY_DELAY);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LogUtility.logError(this, "Lost " + snapshots.size() + " vehicle updates that could not be written on shutdown");
+				return;
+			}
+		}
+	}
+
+	public synchronized void add(IVehicle vehicle, VehicleSnapshot snapshot) throws InterruptedException {
+		String name = vehicle.getName();
+		if (!pending.containsKey(name)) {
+			while (running && pending.size() >= capacity)
+				wait();
+		}
+		pending.put(name, new Entry(vehicle, snapshot));
+		if (pending.size() >= batchSize && !flushRequested) {
+			flushRequested = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Answer the vehicle waiting to be written under the given name, or
+	 * <code>null</code> if there is none. Readers use this so that they see
+	 * updates that have not reached the database yet.
+	 */
+	public synchronized IVehicle get(String name) {
+		Entry entry = pending.get(name);
+		return entry == null ? null : entry.vehicle;
+	}
+
+	public synchronized void remove(String name) {
+		if (pending.remove(name) != null)
+			notifyAll();
+	}
+
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	private void flushLoop() {
+		while (true) {
+			List<Entry> batch;
+			synchronized (this) {
+				long deadline = System.currentTimeMillis() + interval;
+				while (running && !flushRequested) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						break;
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						// Only stop() ends the loop, so that it can write what is left.
+					}
+				}
+				flushRequested = false;
+				// stop() writes what is left once this thread has gone.
+				if (!running)
+					return;
+				batch = drain();
+			}
+			write(batch);
+		}
+	}
+
+	private List<Entry> drain() {
+		int count = Math.min(pending.size(), batchSize);
+		if (!running)
+			count = pending.size();
+		List<Entry> batch = new ArrayList<Entry>(count);
+		Iterator<Entry> i = pending.values().iterator();
+		while (batch.size() < count) {
+			batch.add(i.next());
+			i.remove();
+		}
+		if (!pending.isEmpty())
+			flushRequested = true;
+		if (count > 0)
+			notifyAll();
+		return batch;
+	}
+
+	private List<VehicleSnapshot> getSnapshots(List<Entry> batch) {
+		List<VehicleSnapshot> result = new ArrayList<VehicleSnapshot>(batch.size());
+		for (Entry entry : batch)
+			result.add(entry.snapshot);
+		return result;
+	}
+
+	private void write(List<Entry> batch) {
+		if (batch.isEmpty())
+			return;
+		try {
+			writer.write(getSnapshots(batch));
+		} catch (RuntimeException e) {
+			LogUtility.logError(this, "Failed to write " + batch.size() + " vehicles, will retry", e);
+			requeue(batch);
+		}
+	}
+
+	private synchronized void requeue(List<Entry> batch) {
+		// A vehicle that was updated again while the write was failing already
+		// has a newer entry; leave that one in place. Once stopping, stop()
+		// picks the batch up again and writes it itself.
+		for (Entry entry : batch) {
+			String name = entry.vehicle.getName();
+			if (!pending.containsKey(name))
+				pending.put(name, entry);
+		}
+		if (!running)
+			return;
+		// Back off for a full interval rather than spinning on a broken database.
+		flushRequested = false;
+	}
+}
@@ -12,36 +12,53 @@
 package org.eclipse.examples.toast.internal.backend.tickle;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.PropertyManager;
 import org.eclipse.examples.toast.core.discovery.IDiscovery;
 import org.eclipse.examples.toast.core.discovery.IDiscoveryConstants;
 import org.eclipse.examples.toast.core.discovery.IDiscoveryListener;
 
+/**
+ * Registers vehicles as they report in over HTTP. Listeners are told about
+ * registrations on dispatch threads rather than the request thread, so slow
+ * listeners do not hold up vehicles. Each vehicle is always dispatched on
+ * the same thread, so its registrations and unregistrations reach listeners
+ * in the order they arrived.
+ */
 public class DiscoveryServlet extends HttpServlet implements IDiscovery {
-	private static final int UNREGISTER = 1;
-	private static final int REGISTER = 0;
+	private static final String DISPATCH_THREADS_PROPERTY = "toast.discovery.dispatch.threads"; //$NON-NLS-1$
+	private static final int DISPATCH_THREADS_DEFAULT = 4;
+	private static final long SHUTDOWN_TIMEOUT = 5000;
 
-	private Map receiversById;
-	private List listeners;
+	private final Map<String, String> receiversById;
+	private final List<IDiscoveryListener> listeners;
+	private final ExecutorService[] dispatchers;
 
 	public DiscoveryServlet() {
 		super();
-		receiversById = new HashMap(13);
-		listeners = new ArrayList(10);
+		receiversById = new ConcurrentHashMap<String, String>(256);
+		listeners = new CopyOnWriteArrayList<IDiscoveryListener>();
+		dispatchers = new ExecutorService[getDispatchThreadCount()];
+		for (int i = 0; i < dispatchers.length; i++)
+			dispatchers[i] = Executors.newSingleThreadExecutor(new DispatchThreadFactory(i));
 	}
 
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		String id = request.getParameter(IDiscoveryConstants.ID_PARAMETER);
 		String operation = request.getParameter(IDiscoveryConstants.OPERATION_PARAMETER);
-		if (operation.equals(IDiscoveryConstants.REGISTER_OPERATION)) {
+		if (IDiscoveryConstants.REGISTER_OPERATION.equals(operation)) {
 			String location = request.getParameter(IDiscoveryConstants.LOCATION_PARAMETER);
 			register(id, location);
 		} else {
@@ -51,41 +68,95 @@ public class DiscoveryServlet extends HttpServlet implements IDiscovery {
 		response.getWriter().print(IDiscoveryConstants.ACK_REPLY);
 	}
 
-	public void register(String id, String location) {
+	public void register(final String id, String location) {
 		receiversById.put(id, location);
-		notifyListeners(id, REGISTER);
+		dispatch(id, new Runnable() {
+			public void run() {
+				for (IDiscoveryListener listener : listeners) {
+					try {
+						listener.registered(id, null);
+					} catch (RuntimeException e) {
+						LogUtility.logError(DiscoveryServlet.this, "Listener failed handling registration of " + id, e);
+					}
+				}
+			}
+		});
 	}
 
-	public void unregister(String id) {
+	public void unregister(final String id) {
 		receiversById.remove(id);
-		notifyListeners(id, UNREGISTER);
+		dispatch(id, new Runnable() {
+			public void run() {
+				for (IDiscoveryListener listener : listeners) {
+					try {
+						listener.unregistered(id);
+					} catch (RuntimeException e) {
+						LogUtility.logError(DiscoveryServlet.this, "Listener failed handling unregistration of " + id, e);
+					}
+				}
+			}
+		});
 	}
 
 	public void addListener(IDiscoveryListener listener) {
-		synchronized (listeners) {
-			listeners.add(listener);
-		}
+		listeners.add(listener);
 	}
 
 	public void removeListener(IDiscoveryListener listener) {
-		synchronized (listeners) {
-			listeners.remove(listener);
-		}
+		listeners.remove(listener);
 	}
 
-	private void notifyListeners(String id, int operation) {
-		synchronized (listeners) {
-			for (Iterator i = listeners.iterator(); i.hasNext();) {
-				IDiscoveryListener listener = (IDiscoveryListener) i.next();
-				if (operation == REGISTER)
-					listener.registered(id, null);
-				else
-					listener.unregistered(id);
+	public String lookup(String id) {
+		return receiversById.get(id);
+	}
+
+	/**
+	 * Stop dispatching, giving notifications already queued a little time to
+	 * be delivered.
+	 */
+	public void shutdown() {
+		for (int i = 0; i < dispatchers.length; i++)
+			dispatchers[i].shutdown();
+		try {
+			long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+			for (int i = 0; i < dispatchers.length; i++) {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				if (!dispatchers[i].awaitTermination(remaining, TimeUnit.MILLISECONDS))
+					dispatchers[i].shutdownNow();
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
-	public String lookup(String id) {
-		return (String) receiversById.get(id);
+	private void dispatch(String id, Runnable notification) {
+		int index = (id.hashCode() & Integer.MAX_VALUE) % dispatchers.length;
+		dispatchers[index].execute(notification);
+	}
+
+	private int getDispatchThreadCount() {
+		String value = PropertyManager.getProperty(DISPATCH_THREADS_PROPERTY);
+		if (value == null)
+			return DISPATCH_THREADS_DEFAULT;
+		try {
+			return Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			LogUtility.logWarning(this, "Invalid " + DISPATCH_THREADS_PROPERTY + ": " + value);
+			return DISPATCH_THREADS_DEFAULT;
+		}
+	}
+
+	private static class DispatchThreadFactory implements ThreadFactory {
+		private final int index;
+
+		DispatchThreadFactory(int index) {
+			this.index = index;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Toast discovery dispatch " + index); //$NON-NLS-1$
+			thread.setDaemon(true);
+			return thread;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -51,6 +51,7 @@ public class Component implements IDiscovery {
 
 	protected void deactivate() {
 		http.unregister(servletAlias);
+		servlet.shutdown();
 		servlet = null;
 	}
 
@@ -11,47 +11,301 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.internal.backend.emergency;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
 import org.eclipse.examples.toast.backend.controlcenter.IData;
 import org.eclipse.examples.toast.backend.data.IToastBackEndDataFactory;
+import org.eclipse.examples.toast.backend.data.ITrackedLocation;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 import org.eclipse.examples.toast.backend.data.internal.TrackedLocation;
 import org.eclipse.examples.toast.backend.data.internal.Vehicle;
+import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.PropertyManager;
+import org.eclipse.examples.toast.core.emergency.EmergencyIncident;
 import org.eclipse.examples.toast.core.emergency.IEmergencyCenter;
+import org.eclipse.examples.toast.core.emergency.IEmergencyListener;
+import org.eclipse.examples.toast.core.tracking.ITrackingCenter;
 
+/**
+ * Accepts emergencies from vehicles and hands them on. The reporting thread
+ * only checks the vehicle, drops repeated reports of an emergency it already
+ * has, numbers the incident and queues it; recording it against the vehicle
+ * and telling listeners happen on dispatch threads. Each vehicle is always
+ * dispatched on the same thread, so its incidents are handled in order, and
+ * none of this takes a lock shared by every vehicle. Every accepted incident
+ * is also written to an append-only {@link IncidentLog}.
+ */
 public class EmergencyCenter implements IEmergencyCenter {
+	private static final String DEDUPE_WINDOW_PROPERTY = "toast.emergency.dedupe.window"; //$NON-NLS-1$
+	private static final int DEDUPE_WINDOW_DEFAULT = 60000;
+	private static final String LOG_FILE_PROPERTY = "toast.emergency.log.file"; //$NON-NLS-1$
+	private static final String LOG_FILE_DEFAULT = "emergency-incidents.log"; //$NON-NLS-1$
+	private static final String DISPATCH_THREADS_PROPERTY = "toast.emergency.dispatch.threads"; //$NON-NLS-1$
+	private static final int DISPATCH_THREADS_DEFAULT = 4;
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+	private static final String HELP_REPLY = "Help is on its way!";
 
 	private IData data;
+	private volatile ITrackingCenter tracking;
+	private volatile IControlCenter controlCenter;
+	private final Map<String, Long> incidentTimes;
+	private final List<IEmergencyListener> listeners;
+	private final AtomicLong sequence;
+	private final AtomicReference<EmergencyIncident> latest;
+	private long dedupeWindow;
+	private IncidentLog log;
+	private ExecutorService[] dispatchers;
 
 	public EmergencyCenter() {
 		super();
+		incidentTimes = new ConcurrentHashMap<String, Long>(256);
+		listeners = new CopyOnWriteArrayList<IEmergencyListener>();
+		sequence = new AtomicLong();
+		latest = new AtomicReference<EmergencyIncident>();
 	}
 
 	public void setData(IData value) {
 		data = value;
 	}
 
+	public void setTrackingCenter(ITrackingCenter value) {
+		tracking = value;
+	}
+
+	public void clearTrackingCenter(ITrackingCenter value) {
+		if (tracking == value)
+			tracking = null;
+	}
+
+	public void setControlCenter(IControlCenter value) {
+		controlCenter = value;
+	}
+
+	public void clearControlCenter(IControlCenter value) {
+		if (controlCenter == value)
+			controlCenter = null;
+	}
+
 	public void startup() {
+		dedupeWindow = getIntProperty(DEDUPE_WINDOW_PROPERTY, DEDUPE_WINDOW_DEFAULT);
+		String location = PropertyManager.getProperty(LOG_FILE_PROPERTY, LOG_FILE_DEFAULT);
+		log = new IncidentLog(new File(location));
+		try {
+			sequence.set(log.start());
+		} catch (IOException e) {
+			// Keep accepting emergencies; losing the log is better than
+			// losing the emergency.
+			LogUtility.logError(this, "Unable to open incident log " + location, e);
+			log = null;
+		}
+		dispatchers = new ExecutorService[Math.max(1, getIntProperty(DISPATCH_THREADS_PROPERTY, DISPATCH_THREADS_DEFAULT))];
+		for (int i = 0; i < dispatchers.length; i++)
+			dispatchers[i] = Executors.newSingleThreadExecutor(new DispatchThreadFactory(i));
 	}
 
+	/**
+	 * Stop dispatching, giving incidents already queued a little time to be
+	 * handled, then close the incident log.
+	 */
 	public void shutdown() {
+		for (int i = 0; i < dispatchers.length; i++)
+			dispatchers[i].shutdown();
+		try {
+			long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+			for (int i = 0; i < dispatchers.length; i++) {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				if (!dispatchers[i].awaitTermination(remaining, TimeUnit.MILLISECONDS))
+					dispatchers[i].shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (log != null)
+			log.stop();
 	}
 
 	public String emergency(String id, int latitude, int longitude, int heading, int speed) {
-		IVehicle vehicle = data.getVehicle(id);
-		if (vehicle == null)
+		return emergency(id, latitude, longitude, heading, speed, System.currentTimeMillis(), null, null, null, null, null, 0);
+	}
+
+	public String emergency(final String id, int latitude, int longitude, int heading, int speed, long time, final int[] latitudes, final int[] longitudes, final int[] headings, final int[] speeds, final long[] times, final int count) {
+		if (data.getVehicle(id) == null)
 			return "Vehicle: " + id + " not found.";
-		TrackedLocation location = createLocation(latitude, longitude, heading, speed);
-		((Vehicle) vehicle).setEmergencyLocation(location);
-		return "Help is on its way!";
+		if (isDuplicate(id, time)) {
+			// An airbag that keeps firing, or a client retrying after a lost
+			// reply; either way help has already been sent.
+			if (LogUtility.isLoggingDebug())
+				LogUtility.logDebug(this, "Ignoring repeated emergency from " + id);
+			return HELP_REPLY;
+		}
+		final EmergencyIncident incident = new EmergencyIncident(sequence.incrementAndGet(), id, latitude, longitude, heading, speed, time);
+		setLatest(incident);
+		if (log != null)
+			log.append(incident);
+		Runnable dispatch = new Runnable() {
+			public void run() {
+				record(incident, latitudes, longitudes, headings, speeds, times, count);
+				notifyListeners(incident);
+			}
+		};
+		try {
+			dispatchers[(id.hashCode() & Integer.MAX_VALUE) % dispatchers.length].execute(dispatch);
+		} catch (RejectedExecutionException e) {
+			// Shutting down; handle it here rather than drop it.
+			dispatch.run();
+		}
+		return HELP_REPLY;
+	}
+
+	public void addListener(IEmergencyListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(IEmergencyListener listener) {
+		listeners.remove(listener);
+	}
+
+	public EmergencyIncident getLatestIncident() {
+		return latest.get();
 	}
 
-	private TrackedLocation createLocation(int latitude, int longitude, int heading, int speed) {
+	/**
+	 * Answer whether the vehicle has already reported an emergency within
+	 * the dedupe window of the given time, remembering this one if not.
+	 */
+	private boolean isDuplicate(String id, long time) {
+		Long value = Long.valueOf(time);
+		while (true) {
+			Long last = incidentTimes.get(id);
+			if (last == null) {
+				if (incidentTimes.putIfAbsent(id, value) == null)
+					return false;
+			} else {
+				if (Math.abs(time - last.longValue()) < dedupeWindow)
+					return true;
+				if (incidentTimes.replace(id, last, value))
+					return false;
+			}
+		}
+	}
+
+	private void setLatest(EmergencyIncident incident) {
+		while (true) {
+			EmergencyIncident current = latest.get();
+			if (current != null && current.getSequence() > incident.getSequence())
+				return;
+			if (latest.compareAndSet(current, incident))
+				return;
+		}
+	}
+
+	private void record(EmergencyIncident incident, int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times, int count) {
+		String id = incident.getId();
+		try {
+			IVehicle vehicle = data.getVehicle(id);
+			if (vehicle == null)
+				return;
+			// Record the fixes leading up to the emergency that the vehicle's
+			// own tracking reports did not get through. Fixes that are already
+			// recorded are left out, so the history holds each fix once.
+			ITrackingCenter trackingCenter = tracking;
+			if (trackingCenter != null)
+				postMissedLocations(trackingCenter, vehicle, latitudes, longitudes, headings, speeds, times, count);
+			TrackedLocation location = createLocation(incident.getLatitude(), incident.getLongitude(), incident.getHeading(), incident.getSpeed(), incident.getTime());
+			((Vehicle) vehicle).setEmergencyLocation(location);
+			data.update(vehicle);
+			IControlCenter center = controlCenter;
+			if (center != null)
+				center.vehicleChanged(vehicle);
+		} catch (RuntimeException e) {
+			LogUtility.logError(this, "Failed to record incident " + incident, e);
+		}
+	}
+
+	private void postMissedLocations(ITrackingCenter center, IVehicle vehicle, int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times, int count) {
+		ITrackedLocation current = vehicle.getCurrentLocation();
+		long recorded = current == null ? Long.MIN_VALUE : current.getTime();
+		int[] missed = new int[count];
+		int missedCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (times[i] > recorded)
+				missed[missedCount++] = i;
+		}
+		if (missedCount == 0)
+			return;
+		String[] ids = new String[missedCount];
+		int[] missedLatitudes = new int[missedCount];
+		int[] missedLongitudes = new int[missedCount];
+		int[] missedHeadings = new int[missedCount];
+		int[] missedSpeeds = new int[missedCount];
+		long[] missedTimes = new long[missedCount];
+		for (int i = 0; i < missedCount; i++) {
+			int fix = missed[i];
+			ids[i] = vehicle.getName();
+			missedLatitudes[i] = latitudes[fix];
+			missedLongitudes[i] = longitudes[fix];
+			missedHeadings[i] = headings[fix];
+			missedSpeeds[i] = speeds[fix];
+			missedTimes[i] = times[fix];
+		}
+		center.postTrackingLocations(ids, missedLatitudes, missedLongitudes, missedHeadings, missedSpeeds, missedTimes, missedCount);
+	}
+
+	private void notifyListeners(EmergencyIncident incident) {
+		for (IEmergencyListener listener : listeners) {
+			try {
+				listener.emergencyReported(incident);
+			} catch (RuntimeException e) {
+				LogUtility.logError(this, "Listener failed handling incident " + incident, e);
+			}
+		}
+	}
+
+	private TrackedLocation createLocation(int latitude, int longitude, int heading, int speed, long time) {
 		TrackedLocation location = (TrackedLocation) IToastBackEndDataFactory.eINSTANCE.createTrackedLocation();
 		location.setHeading(heading);
 		location.setLatitude(latitude);
 		location.setLongitude(longitude);
 		location.setSpeed(speed);
-		location.setTime(System.currentTimeMillis());
+		location.setTime(time);
 		return location;
 	}
+
+	private int getIntProperty(String name, int defaultValue) {
+		String value = PropertyManager.getProperty(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			LogUtility.logWarning(this, "Invalid " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private static class DispatchThreadFactory implements ThreadFactory {
+		private final int index;
+
+		DispatchThreadFactory(int index) {
+			this.index = index;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Toast emergency dispatch " + index); //$NON-NLS-1$
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
 }
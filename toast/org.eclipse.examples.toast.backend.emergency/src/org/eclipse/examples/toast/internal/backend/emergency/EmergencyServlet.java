@@ -13,6 +13,7 @@ package org.eclipse.examples.toast.internal.backend.emergency;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.StringTokenizer;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -35,12 +36,55 @@ public class EmergencyServlet extends HttpServlet {
 		int longitude = Integer.parseInt(getParameter(request, response, IEmergencyConstants.LONGITUDE_PARAMETER));
 		int heading = Integer.parseInt(getParameter(request, response, IEmergencyConstants.HEADING_PARAMETER));
 		int speed = Integer.parseInt(getParameter(request, response, IEmergencyConstants.SPEED_PARAMETER));
-		String reply = center.emergency(id, latitude, longitude, heading, speed);
+		String timeString = request.getParameter(IEmergencyConstants.TIME_PARAMETER);
+		String history = request.getParameter(IEmergencyConstants.HISTORY_PARAMETER);
+		String reply;
+		if (timeString == null && history == null) {
+			reply = center.emergency(id, latitude, longitude, heading, speed);
+		} else {
+			long time = timeString == null ? System.currentTimeMillis() : Long.parseLong(timeString);
+			int count = countFixes(history);
+			int[] latitudes = new int[count];
+			int[] longitudes = new int[count];
+			int[] headings = new int[count];
+			int[] speeds = new int[count];
+			long[] times = new long[count];
+			try {
+				parseHistory(history, latitudes, longitudes, headings, speeds, times);
+			} catch (RuntimeException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid " + IEmergencyConstants.HISTORY_PARAMETER + ": " + history);
+				return;
+			}
+			reply = center.emergency(id, latitude, longitude, heading, speed, time, latitudes, longitudes, headings, speeds, times, count);
+		}
 		PrintWriter writer = response.getWriter();
 		writer.print(reply);
 		response.setContentType(ICoreConstants.CONTENT_TYPE_PLAIN);
 	}
 
+	private int countFixes(String history) {
+		if (history == null || history.length() == 0)
+			return 0;
+		int count = 1;
+		for (int i = history.indexOf(';'); i != -1; i = history.indexOf(';', i + 1))
+			count++;
+		return count;
+	}
+
+	private void parseHistory(String history, int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times) {
+		if (latitudes.length == 0)
+			return;
+		StringTokenizer fixes = new StringTokenizer(history, ";");
+		for (int i = 0; i < latitudes.length; i++) {
+			StringTokenizer fields = new StringTokenizer(fixes.nextToken(), ",");
+			latitudes[i] = Integer.parseInt(fields.nextToken());
+			longitudes[i] = Integer.parseInt(fields.nextToken());
+			headings[i] = Integer.parseInt(fields.nextToken());
+			speeds[i] = Integer.parseInt(fields.nextToken());
+			times[i] = Long.parseLong(fields.nextToken());
+		}
+	}
+
 	private String getParameter(HttpServletRequest request, HttpServletResponse response, String parameter) throws IOException {
 		String value = request.getParameter(parameter);
 		if (value == null || value.length() == 0)
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.emergency;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.emergency.EmergencyIncident;
+
+/**
+ * Appends accepted incidents to a text file, one tab separated line each:
+ * sequence, time, vehicle id, latitude, longitude, heading and speed. The
+ * file is only ever appended to. Callers just queue the incident; a single
+ * background thread writes whatever has queued up and forces it to disk once
+ * per batch, so a burst of incidents costs one sync rather than one each.
+ */
+public class IncidentLog {
+	private static final int BATCH_SIZE = 512;
+	private static final int TAIL_SIZE = 4096;
+	private static final EmergencyIncident STOP = new EmergencyIncident(-1, null, 0, 0, 0, 0, 0);
+
+	private final File file;
+	private final BlockingQueue<EmergencyIncident> queue;
+	private FileOutputStream stream;
+	private Writer out;
+	private Thread writer;
+	private boolean torn;
+
+	public IncidentLog(File file) {
+		super();
+		this.file = file;
+		this.queue = new LinkedBlockingQueue<EmergencyIncident>();
+	}
+
+	/**
+	 * Open the log and start writing. Answer the sequence number of the last
+	 * incident already in the log, or zero if it is empty, so that numbering
+	 * carries on across restarts.
+	 */
+	public synchronized long start() throws IOException {
+		if (writer != null)
+			throw new IllegalStateException("Incident log already started"); //$NON-NLS-1$
+		long last = readLastSequence();
+		stream = new FileOutputStream(file, true);
+		out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), 8192); //$NON-NLS-1$
+		if (torn)
+			out.write('\n');
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "Toast emergency incident log"); //$NON-NLS-1$
+		writer.setDaemon(true);
+		writer.start();
+		return last;
+	}
+
+	public void append(EmergencyIncident incident) {
+		queue.add(incident);
+	}
+
+	/**
+	 * Stop the background thread after it has written everything that was
+	 * appended before this call.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			thread = writer;
+			writer = null;
+		}
+		if (thread == null)
+			return;
+		queue.add(STOP);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+		List<EmergencyIncident> batch = new ArrayList<EmergencyIncident>(BATCH_SIZE);
+		boolean stopping = false;
+		while (!stopping) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			queue.drainTo(batch, BATCH_SIZE - 1);
+			stopping = batch.remove(STOP);
+			write(batch);
+			batch.clear();
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			LogUtility.logError(this, "Failed to close incident log " + file, e);
+		}
+	}
+
+	private void write(List<EmergencyIncident> batch) {
+		if (batch.isEmpty())
+			return;
+		try {
+			for (EmergencyIncident incident : batch) {
+				out.write(Long.toString(incident.getSequence()));
+				out.write('\t');
+				out.write(Long.toString(incident.getTime()));
+				out.write('\t');
+				out.write(incident.getId());
+				out.write('\t');
+				out.write(Integer.toString(incident.getLatitude()));
+				out.write('\t');
+				out.write(Integer.toString(incident.getLongitude()));
+				out.write('\t');
+				out.write(Integer.toString(incident.getHeading()));
+				out.write('\t');
+				out.write(Integer.toString(incident.getSpeed()));
+				out.write('\n');
+			}
+			out.flush();
+			stream.getFD().sync();
+		} catch (IOException e) {
+			LogUtility.logError(this, "Failed to write " + batch.size() + " incidents to " + file, e);
+		}
+	}
+
+	private long readLastSequence() throws IOException {
+		if (!file.exists())
+			return 0;
+		RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			long length = input.length();
+			int size = (int) Math.min(length, TAIL_SIZE);
+			byte[] tail = new byte[size];
+			input.seek(length - size);
+			input.readFully(tail);
+			// Skip a partial line left by a crash mid-write, then take the
+			// sequence number from the start of the last complete line.
+			int end = size;
+			torn = size > 0 && tail[size - 1] != '\n';
+			while (end > 0 && tail[end - 1] != '\n')
+				end--;
+			if (end == 0)
+				return 0;
+			int start = end - 1;
+			while (start > 0 && tail[start - 1] != '\n')
+				start--;
+			long sequence = 0;
+			for (int i = start; i < end && tail[i] >= '0' && tail[i] <= '9'; i++)
+				sequence = sequence * 10 + (tail[i] - '0');
+			return sequence;
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -16,5 +16,36 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 public interface IPortalAction {
+	/**
+	 * Service property that, set to <code>"true"</code>, declares that the
+	 * action's page depends only on the request parameters and the control
+	 * center's data, so the portal may cache it. The page is kept while the
+	 * control center's roster version stays the same.
+	 */
+	public static final String CACHEABLE_PROPERTY = "cacheable"; //$NON-NLS-1$
+
+	/**
+	 * Service property that, set to <code>"true"</code> on a cacheable action,
+	 * declares that its page shows vehicle locations or other details beyond
+	 * the roster, so it is also dropped when the control center's location
+	 * version changes.
+	 */
+	public static final String RENDERS_LOCATIONS_PROPERTY = "rendersLocations"; //$NON-NLS-1$
+
+	/**
+	 * Service property that, set to <code>"true"</code>, declares that the
+	 * action changes state the control center's versions do not track,
+	 * such as installed software, so cached pages must be dropped
+	 * after it runs.
+	 */
+	public static final String MODIFIES_STATE_PROPERTY = "modifiesState"; //$NON-NLS-1$
+
+	/**
+	 * Service property that, set to <code>"true"</code>, declares that the
+	 * action may run for several requests at once. Other actions run for
+	 * one request at a time.
+	 */
+	public static final String THREAD_SAFE_PROPERTY = "threadSafe"; //$NON-NLS-1$
+
 	public void execute(HttpServletRequest request, HttpServletResponse response) throws IOException;
 }
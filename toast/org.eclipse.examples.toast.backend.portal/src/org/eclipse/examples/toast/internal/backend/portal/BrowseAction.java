@@ -16,13 +16,16 @@ import java.util.Collection;
 import java.util.Iterator;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.examples.toast.backend.controlcenter.IVehicleSearch;
 import org.eclipse.examples.toast.backend.portal.spi.IActionLookup;
 import org.eclipse.examples.toast.backend.portal.spi.IPortalAction;
 import org.eclipse.examples.toast.core.ICoreConstants;
 
 public class BrowseAction implements IPortalAction {
+	private static final int SEARCH_LIMIT = 50;
 
 	private IActionLookup actionLookup;
+	private IVehicleSearch search;
 
 	public void clearActionLookup(IActionLookup value) {
 		actionLookup = null;
@@ -32,8 +35,42 @@ public class BrowseAction implements IPortalAction {
 		actionLookup = value;
 	}
 
+	public void clearVehicleSearch(IVehicleSearch value) {
+		if (search == value)
+			search = null;
+	}
+
+	public void setVehicleSearch(IVehicleSearch value) {
+		search = value;
+	}
+
 	public void execute(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		generateBrowseVehicle(request, response);
+		String text = request.getParameter(IPortalConstants.SEARCH_PARAMETER);
+		if (request.getParameter(ICoreConstants.ID_PARAMETER) == null && text != null)
+			generateSearchResults(text.trim(), response);
+		else
+			generateBrowseVehicle(request, response);
+	}
+
+	private void generateSearchResults(String text, HttpServletResponse response) throws IOException {
+		StringBuffer buffer = new StringBuffer(2048);
+		WebPageGenerator.writeHeader(buffer, "Vehicles matching: " + WebPageGenerator.escape(text));
+		IVehicleSearch current = search;
+		String[] names = current == null || text.length() == 0 ? new String[0] : current.search(text, SEARCH_LIMIT);
+		if (names.length == 0)
+			buffer.append("\t\t<p>No vehicles found.</p>\n");
+		buffer.append("\t\t<ul>\n");
+		for (int i = 0; i < names.length; i++) {
+			buffer.append("\t\t\t<li>");
+			buffer.append(WebPageGenerator.createLink(names[i], IPortalConstants.BROWSE_ACTION, ICoreConstants.ID_PARAMETER, names[i]));
+			buffer.append("</li>\n");
+		}
+		buffer.append("\t\t</ul>\n");
+		if (names.length == SEARCH_LIMIT)
+			buffer.append("\t\t<p>Only the first " + SEARCH_LIMIT + " matches are shown.</p>\n");
+		buffer.append("\t\t<a href=\"" + WebPageGenerator.servletAlias + "\"/>Back to Toast home</a>\n");
+		WebPageGenerator.writeFooter(buffer);
+		response.getWriter().print(buffer.toString());
 	}
 
 	private void generateBrowseVehicle(HttpServletRequest request, HttpServletResponse response) throws IOException {
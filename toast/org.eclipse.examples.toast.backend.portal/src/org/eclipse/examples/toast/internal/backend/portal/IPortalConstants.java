@@ -16,6 +16,7 @@ public interface IPortalConstants {
 	public static final String BROWSE_ACTION = "browse";
 	public static final String BROWSE_TRACKING_ACTION = BROWSE_ACTION + "/" + "tracking";
 	public static final String TRACKING_MAP_ACTION = BROWSE_TRACKING_ACTION + "/" + "trackmap";
+	public static final String SEARCH_PARAMETER = "search";
 
 	public static final String RESOURCE_IMAGES_ALIAS = "images";
 	public static final String RESOURCE_IMAGES_PATH = "resources/images";
@@ -13,10 +13,14 @@ package org.eclipse.examples.toast.internal.backend.portal;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
 import org.eclipse.examples.toast.backend.portal.spi.IActionLookup;
 import org.eclipse.examples.toast.backend.portal.spi.IPortalAction;
@@ -26,13 +30,129 @@ import org.eclipse.examples.toast.core.LogUtility;
 public class PortalServlet extends HttpServlet {
 	private static final String CONTENT_TYPE_HTML = "text/html";
 
+	/*
+	 * Holds what an action writes so that it can be cached, and notes
+	 * anything the action does that makes its response unfit for caching.
+	 */
+	private static class CapturingResponse extends HttpServletResponseWrapper {
+		private String contentType;
+		private StringWriter text;
+		private PrintWriter writer;
+		private boolean cacheable = true;
+
+		CapturingResponse(HttpServletResponse response, String contentType) {
+			super(response);
+			this.contentType = contentType;
+		}
+
+		public PrintWriter getWriter() {
+			if (writer == null) {
+				text = new StringWriter(2048);
+				writer = new PrintWriter(text);
+			}
+			return writer;
+		}
+
+		public ServletOutputStream getOutputStream() throws IOException {
+			cacheable = false;
+			return super.getOutputStream();
+		}
+
+		public void setContentType(String type) {
+			contentType = type;
+			super.setContentType(type);
+		}
+
+		public void setStatus(int sc) {
+			if (sc != SC_OK)
+				cacheable = false;
+			super.setStatus(sc);
+		}
+
+		public void sendError(int sc) throws IOException {
+			cacheable = false;
+			super.sendError(sc);
+		}
+
+		public void sendError(int sc, String msg) throws IOException {
+			cacheable = false;
+			super.sendError(sc, msg);
+		}
+
+		public void sendRedirect(String location) throws IOException {
+			cacheable = false;
+			super.sendRedirect(location);
+		}
+
+		public void addCookie(Cookie cookie) {
+			cacheable = false;
+			super.addCookie(cookie);
+		}
+
+		public void setHeader(String name, String value) {
+			cacheable = false;
+			super.setHeader(name, value);
+		}
+
+		public void addHeader(String name, String value) {
+			cacheable = false;
+			super.addHeader(name, value);
+		}
+
+		public void setDateHeader(String name, long date) {
+			cacheable = false;
+			super.setDateHeader(name, date);
+		}
+
+		public void addDateHeader(String name, long date) {
+			cacheable = false;
+			super.addDateHeader(name, date);
+		}
+
+		public void setIntHeader(String name, int value) {
+			cacheable = false;
+			super.setIntHeader(name, value);
+		}
+
+		public void addIntHeader(String name, int value) {
+			cacheable = false;
+			super.addIntHeader(name, value);
+		}
+
+		boolean isCacheable() {
+			return cacheable;
+		}
+
+		String getContentTypeWritten() {
+			return contentType;
+		}
+
+		String getText() {
+			if (writer == null)
+				return ""; //$NON-NLS-1$
+			writer.flush();
+			return text.toString();
+		}
+
+		/*
+		 * Pass whatever was written on to the real response, for responses
+		 * that are not cached.
+		 */
+		void pass() throws IOException {
+			if (writer != null)
+				super.getWriter().print(getText());
+		}
+	}
+
 	private IControlCenter center;
 	private IActionLookup lookup;
+	private ResponseCache cache;
 
-	public PortalServlet(IControlCenter center, IActionLookup lookup) {
+	public PortalServlet(IControlCenter center, IActionLookup lookup, ResponseCache cache) {
 		super();
 		this.center = center;
 		this.lookup = lookup;
+		this.cache = cache;
 	}
 
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -49,7 +169,13 @@ public class PortalServlet extends HttpServlet {
 				handleDefaultRequest(response, id, actionParameter);
 			else
 				try {
-					action.execute(request, response);
+					if (isActionProperty(actionParameter, IPortalAction.CACHEABLE_PROPERTY)) {
+						executeCached(action, request, response, isActionProperty(actionParameter, IPortalAction.RENDERS_LOCATIONS_PROPERTY));
+					} else {
+						action.execute(request, response);
+						if (isActionProperty(actionParameter, IPortalAction.MODIFIES_STATE_PROPERTY))
+							cache.clear();
+					}
 				} finally {
 					lookup.release(actionParameter, action);
 				}
@@ -59,7 +185,51 @@ public class PortalServlet extends HttpServlet {
 	}
 
 	private void handleRootRequest(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		new WebPageGenerator(center, lookup).generateRoot(request, response);
+		IPortalAction root = new IPortalAction() {
+			public void execute(HttpServletRequest rootRequest, HttpServletResponse rootResponse) throws IOException {
+				new WebPageGenerator(center, lookup).generateRoot(rootRequest, rootResponse);
+			}
+		};
+		executeCached(root, request, response, false);
+	}
+
+	private boolean isActionProperty(String action, String key) {
+		return "true".equals(lookup.getActionProperty(action, key)); //$NON-NLS-1$
+	}
+
+	/*
+	 * Answer the request from the cache if the page is current, generating
+	 * and caching it otherwise. A page is keyed on the roster version and, if
+	 * it shows locations, the location version too; both only grow, so their
+	 * sum changes whenever either does. The version is read before the page
+	 * is generated, so a change made meanwhile leaves the page out of date
+	 * rather than hiding the change. The browser is told to check back each
+	 * time, and gets 304 Not Modified if its copy is still good.
+	 */
+	private void executeCached(IPortalAction action, HttpServletRequest request, HttpServletResponse response, boolean locations) throws IOException {
+		String key = ResponseCache.getKey(request);
+		long version = center.getRosterVersion();
+		if (locations)
+			version += center.getLocationVersion();
+		ResponseCache.Page page = cache.get(key, version);
+		if (page == null) {
+			CapturingResponse capture = new CapturingResponse(response, CONTENT_TYPE_HTML);
+			action.execute(request, capture);
+			if (!capture.isCacheable()) {
+				capture.pass();
+				return;
+			}
+			page = cache.put(key, capture.getContentTypeWritten(), capture.getText(), version);
+		}
+		response.setHeader("ETag", page.etag); //$NON-NLS-1$
+		response.setDateHeader("Last-Modified", page.lastModified); //$NON-NLS-1$
+		response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (page.isNotModified(request)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setContentType(page.contentType);
+		response.getWriter().print(page.text);
 	}
 
 	private void handleDefaultRequest(HttpServletResponse response, String id, String action) throws IOException {
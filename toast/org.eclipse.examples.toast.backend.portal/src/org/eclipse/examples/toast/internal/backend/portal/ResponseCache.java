@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.portal;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Pages generated by portal actions, keyed by action and request parameters.
+ * A page is reused while the version of the data it shows is the one it was
+ * generated at and it is younger than <code>timeToLive</code> milliseconds;
+ * the age limit covers state the control center's versions do not track, such
+ * as installed software. The ETag of a page is derived from its text,
+ * so a page regenerated with the same text keeps its ETag and browsers
+ * holding it still get <code>304 Not Modified</code>. At most
+ * <code>capacity</code> pages are kept, dropping the least recently used.
+ */
+public class ResponseCache {
+	public static final int CAPACITY_DEFAULT = 256;
+	public static final long TIME_TO_LIVE_DEFAULT = 60 * 1000;
+
+	private final int capacity;
+	private final long timeToLive;
+	private final Map pages;
+
+	static final class Page {
+		final String contentType;
+		final String text;
+		final String etag;
+		final long lastModified;
+		final long version;
+		final long created;
+
+		Page(String contentType, String text, long lastModified, long version, long created) {
+			super();
+			this.contentType = contentType;
+			this.text = text;
+			this.etag = "\"" + Integer.toHexString(text.hashCode()) + '-' + Integer.toHexString(text.length()) + '"'; //$NON-NLS-1$
+			this.lastModified = lastModified;
+			this.version = version;
+			this.created = created;
+		}
+
+		/**
+		 * Answer whether the browser already holds this page, judging by the
+		 * request's <code>If-None-Match</code> header or, without one, its
+		 * <code>If-Modified-Since</code> header.
+		 */
+		boolean isNotModified(HttpServletRequest request) {
+			String match = request.getHeader("If-None-Match"); //$NON-NLS-1$
+			if (match != null)
+				return match.indexOf(etag) >= 0 || match.trim().equals("*"); //$NON-NLS-1$
+			long since;
+			try {
+				since = request.getDateHeader("If-Modified-Since"); //$NON-NLS-1$
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+			// HTTP dates have whole seconds.
+			return since >= 0 && lastModified / 1000 <= since / 1000;
+		}
+	}
+
+	public ResponseCache() {
+		this(CAPACITY_DEFAULT, TIME_TO_LIVE_DEFAULT);
+	}
+
+	public ResponseCache(int capacity, long timeToLive) {
+		super();
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1"); //$NON-NLS-1$
+		this.capacity = capacity;
+		this.timeToLive = timeToLive;
+		pages = new LinkedHashMap(capacity * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > ResponseCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Answer the key for the request: its parameters, the action among them,
+	 * in name order so that the order they were sent in does not matter.
+	 */
+	static String getKey(HttpServletRequest request) {
+		Map parameters = request.getParameterMap();
+		Object[] names = parameters.keySet().toArray();
+		Arrays.sort(names);
+		StringBuffer buffer = new StringBuffer(64);
+		for (int i = 0; i < names.length; i++) {
+			String[] values = (String[]) parameters.get(names[i]);
+			for (int j = 0; j < values.length; j++) {
+				if (buffer.length() > 0)
+					buffer.append('&');
+				buffer.append(names[i]);
+				buffer.append('=');
+				buffer.append(values[j]);
+			}
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Answer the page cached under the key if it is still current, or
+	 * <code>null</code>.
+	 */
+	Page get(String key, long version) {
+		synchronized (pages) {
+			Page page = (Page) pages.get(key);
+			if (page == null || page.version != version || System.currentTimeMillis() - page.created >= timeToLive)
+				return null;
+			return page;
+		}
+	}
+
+	/**
+	 * Cache a newly generated page and answer it. If the text is the same as
+	 * that of the page it replaces, the old modification time is kept.
+	 */
+	Page put(String key, String contentType, String text, long version) {
+		long now = System.currentTimeMillis();
+		synchronized (pages) {
+			Page old = (Page) pages.get(key);
+			long lastModified = old != null && old.text.equals(text) ? old.lastModified : now;
+			Page page = new Page(contentType, text, lastModified, version, now);
+			pages.put(key, page);
+			return page;
+		}
+	}
+
+	/**
+	 * Forget every page, for example because an action may have changed
+	 * state that the control center's versions do not track.
+	 */
+	public void clear() {
+		synchronized (pages) {
+			pages.clear();
+		}
+	}
+}
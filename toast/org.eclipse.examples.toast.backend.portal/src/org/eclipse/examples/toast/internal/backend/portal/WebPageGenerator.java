@@ -69,9 +69,36 @@ public class WebPageGenerator {
 		return buffer.toString();
 	}
 
+	public static String escape(String text) {
+		StringBuffer buffer = new StringBuffer(text.length() + 16);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '<')
+				buffer.append("&lt;");
+			else if (c == '>')
+				buffer.append("&gt;");
+			else if (c == '&')
+				buffer.append("&amp;");
+			else if (c == '"')
+				buffer.append("&quot;");
+			else
+				buffer.append(c);
+		}
+		return buffer.toString();
+	}
+
+	public static void writeSearchForm(StringBuffer buffer) {
+		buffer.append("\t\t<form action=\"" + servletAlias + "\" method=\"get\">\n");
+		buffer.append("\t\t\t<input type=\"hidden\" name=\"" + IPortalConstants.ACTION_PARAMETER + "\" value=\"" + IPortalConstants.BROWSE_ACTION + "\"/>\n");
+		buffer.append("\t\t\t<input type=\"text\" name=\"" + IPortalConstants.SEARCH_PARAMETER + "\"/>\n");
+		buffer.append("\t\t\t<input type=\"submit\" value=\"Find vehicles\"/>\n");
+		buffer.append("\t\t</form>\n");
+	}
+
 	public void generateRoot(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		StringBuffer buffer = new StringBuffer(2048);
 		writeHeader(buffer, "Toast Vehicle Management Portal");
+		writeSearchForm(buffer);
 		buffer.append("<p>Choose a vehicle to manage:</p>\n");
 		buffer.append("<ul>\n");
 		Collection vehicles = center.getVehicles();
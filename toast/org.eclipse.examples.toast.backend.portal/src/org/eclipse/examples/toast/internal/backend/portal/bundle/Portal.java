@@ -13,9 +13,9 @@ package org.eclipse.examples.toast.internal.backend.portal.bundle;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -29,25 +29,38 @@ import org.eclipse.examples.toast.core.PropertyManager;
 import org.eclipse.examples.toast.core.UrlBuilder;
 import org.eclipse.examples.toast.internal.backend.portal.IPortalConstants;
 import org.eclipse.examples.toast.internal.backend.portal.PortalServlet;
+import org.eclipse.examples.toast.internal.backend.portal.ResponseCache;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.http.HttpService;
 
 public class Portal implements IActionLookup {
+	/*
+	 * An action service, got from the framework while at least one request
+	 * is using it. Requests for actions that declare themselves thread safe
+	 * run side by side; those for other actions take turns.
+	 */
 	private class PortalAction implements IPortalAction {
 		private ServiceReference reference;
+		private boolean threadSafe;
+		private Object executeLock = new Object();
 		private IPortalAction action = null;
+		private int users;
 
 		PortalAction(ServiceReference reference) {
 			this.reference = reference;
+			this.threadSafe = "true".equals(getProperty(IPortalAction.THREAD_SAFE_PROPERTY)); //$NON-NLS-1$
 		}
 
 		IPortalAction acquireService() {
 			synchronized (this) {
+				if (action == null) {
+					BundleContext context = getBundleContext();
+					action = (IPortalAction) context.getService(reference);
+				}
 				if (action != null)
-					return action;
-				BundleContext context = getBundleContext();
-				return action = (IPortalAction) context.getService(reference);
+					users++;
+				return action;
 			}
 		}
 
@@ -66,8 +79,11 @@ public class Portal implements IActionLookup {
 
 		boolean releaseService() {
 			synchronized (this) {
-				if (action == null)
+				if (action == null || users == 0)
 					return false; // No service to unget.
+				// Other requests are still running the action.
+				if (--users > 0)
+					return false;
 				BundleContext bundleContext = getBundleContext();
 				try {
 					return bundleContext.ungetService(reference);
@@ -78,16 +94,28 @@ public class Portal implements IActionLookup {
 		}
 
 		public void execute(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			if (threadSafe) {
+				getAction().execute(request, response);
+				return;
+			}
+			synchronized (executeLock) {
+				getAction().execute(request, response);
+			}
+		}
+
+		private IPortalAction getAction() throws IOException {
 			synchronized (this) {
 				if (action == null)
 					throw new IOException("Action has been invalidated: " + getActionId(reference));
-				action.execute(request, response);
+				return action;
 			}
 		}
 	}
 
 	private BundleContext context;
-	private Map actions = new HashMap();
+	// Replaced, never changed, so requests read it without locking.
+	private volatile SortedMap actions = new TreeMap();
+	private ResponseCache cache = new ResponseCache();
 	private String servletAlias;
 	private String imagesAlias;
 	private IControlCenter center;
@@ -103,7 +131,7 @@ public class Portal implements IActionLookup {
 
 	protected void activate(BundleContext context) {
 		this.context = context;
-		HttpServlet servlet = new PortalServlet(center, this);
+		HttpServlet servlet = new PortalServlet(center, this, cache);
 		String servletRoot = PropertyManager.getProperty(ICoreConstants.BACK_END_URL_PROPERTY, ICoreConstants.BACK_END_URL_DEFAULT);
 		UrlBuilder urlBuilder = new UrlBuilder(servletRoot);
 		try {
@@ -131,17 +159,24 @@ public class Portal implements IActionLookup {
 			return;
 		}
 		synchronized (this) {
-			PortalAction data = new PortalAction(reference);
-			actions.put(id, data);
+			SortedMap result = new TreeMap(actions);
+			result.put(id, new PortalAction(reference));
+			actions = result;
 		}
+		// Cached pages link to the actions that were there when they were made.
+		cache.clear();
 	}
 
 	public void removeAction(ServiceReference reference) {
+		Object id = getActionId(reference);
+		if (id == null)
+			return;
 		synchronized (this) {
-			Object id = getActionId(reference);
-			if (id != null)
-				actions.remove(id);
+			SortedMap result = new TreeMap(actions);
+			result.remove(id);
+			actions = result;
 		}
+		cache.clear();
 	}
 
 	private Object getActionId(ServiceReference reference) {
@@ -149,14 +184,14 @@ public class Portal implements IActionLookup {
 	}
 
 	public IPortalAction acquire(String id) {
-		synchronized (this) {
-			PortalAction result = (PortalAction) actions.get(id);
-			if (result == null)
-				return null;
-			// acquire to trigger the get
-			IPortalAction acquired = result.acquireService();
-			return acquired == null ? null : result;
-		}
+		if (id == null)
+			return null;
+		PortalAction result = (PortalAction) actions.get(id);
+		if (result == null)
+			return null;
+		// acquire to trigger the get
+		IPortalAction acquired = result.acquireService();
+		return acquired == null ? null : result;
 	}
 
 	public void release(String id, IPortalAction action) {
@@ -164,31 +199,33 @@ public class Portal implements IActionLookup {
 	}
 
 	public String getActionProperty(String id, String key) {
-		synchronized (this) {
-			PortalAction result = (PortalAction) actions.get(id);
-			if (result == null)
-				return null;
-			return result.getProperty(key);
-		}
+		if (id == null)
+			return null;
+		PortalAction result = (PortalAction) actions.get(id);
+		if (result == null)
+			return null;
+		return result.getProperty(key);
 	}
 
+	/*
+	 * The actions starting with the id sort together, so only they are
+	 * visited, found with a tree lookup rather than a scan of every action.
+	 */
 	public Collection getAvailable(String id) {
 		Collection result = new TreeSet();
-		synchronized (this) {
-			for (Iterator i = actions.keySet().iterator(); i.hasNext();) {
-				String key = (String) i.next();
-				if (key.startsWith(id)) {
-					int j = id.length();
-					if (key.length() > j && key.charAt(j) == '/')
-						j++;
-					if (j == key.length())
-						continue;
-					int k = key.indexOf("/", j);
-					if (k < 0)
-						k = key.length();
-					result.add(key.substring(0, k));
-				}
-			}
+		for (Iterator i = actions.tailMap(id).keySet().iterator(); i.hasNext();) {
+			String key = (String) i.next();
+			if (!key.startsWith(id))
+				break;
+			int j = id.length();
+			if (key.length() > j && key.charAt(j) == '/')
+				j++;
+			if (j == key.length())
+				continue;
+			int k = key.indexOf("/", j);
+			if (k < 0)
+				k = key.length();
+			result.add(key.substring(0, k));
 		}
 		return result;
 	}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2009 EclipseSource Inc. and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 and Eclipse Distribution License v1.0
+ * which accompanies this distribution. The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     EclipseSource Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.rap;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.rwt.graphics.Graphics;
+import org.eclipse.swt.graphics.Image;
+
+/**
+ * Driver photos shared by every session. A photo is fetched and decoded once,
+ * in a job rather than on a UI thread, scaled down to fit the view and kept
+ * as PNG bytes. The most recently used photos are kept up to
+ * <code>maxBytes</code> in total and <code>maxEntries</code> in number. A URI
+ * that is not an image is remembered as having no photo, so it is not fetched
+ * again either; one that could not be read is only remembered that way for
+ * <code>FAILURE_TIME_TO_LIVE</code> milliseconds, and then tried again.
+ * Sessions asking for a photo that is already being fetched wait for the same
+ * fetch.
+ */
+final class DriverPhotoCache {
+	private static final int PHOTO_SIZE = 128;
+	private static final int MAX_BYTES = 4 * 1024 * 1024;
+	private static final int MAX_ENTRIES = 2048;
+	private static final long FAILURE_TIME_TO_LIVE = 60 * 1000;
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int READ_TIMEOUT = 5000;
+	private static final DriverPhotoCache DEFAULT = new DriverPhotoCache(PHOTO_SIZE, PHOTO_SIZE, MAX_BYTES, MAX_ENTRIES);
+
+	private final int width;
+	private final int height;
+	private final int maxBytes;
+	private final int maxEntries;
+	private final Map photos;
+	private final Map loading;
+	private int size;
+
+	/**
+	 * Told when a photo has been fetched. Called on the job's thread.
+	 */
+	interface Callback {
+		void loaded(Photo photo);
+	}
+
+	/**
+	 * A scaled driver photo, or the lack of one.
+	 */
+	static final class Photo {
+		private final String path;
+		private final byte[] data;
+		private final long expires;
+
+		Photo(String path, byte[] data, long expires) {
+			super();
+			this.path = path;
+			this.data = data;
+			this.expires = expires;
+		}
+
+		/**
+		 * Answer the photo as an image, or <code>null</code> if the driver
+		 * has none. Must be called on a UI thread. The image is shared
+		 * through the RWT resource manager, so only the first session to
+		 * ask for it registers the bytes.
+		 */
+		Image getImage() {
+			if (data == null)
+				return null;
+			return Graphics.getImage(path, new ByteArrayInputStream(data));
+		}
+
+		int getSize() {
+			return data == null ? 0 : data.length;
+		}
+
+		boolean isExpired(long now) {
+			return expires != 0 && now >= expires;
+		}
+	}
+
+	static DriverPhotoCache getDefault() {
+		return DEFAULT;
+	}
+
+	DriverPhotoCache(int width, int height, int maxBytes, int maxEntries) {
+		super();
+		this.width = width;
+		this.height = height;
+		this.maxBytes = maxBytes;
+		this.maxEntries = maxEntries;
+		this.photos = new LinkedHashMap(64, 0.75f, true);
+		this.loading = new HashMap();
+	}
+
+	/**
+	 * Answer the cached photo for the given URI, or <code>null</code> if it
+	 * has not been fetched yet.
+	 */
+	Photo get(URI uri) {
+		synchronized (photos) {
+			return getCurrent(uri.toASCIIString());
+		}
+	}
+
+	/**
+	 * Fetch the photo for the given URI unless it is cached, and hand it to
+	 * the callback once it is there. The callback is called on the caller's
+	 * thread if the photo is cached, and on a job's thread otherwise.
+	 */
+	void load(final URI uri, Callback callback) {
+		final String key = uri.toASCIIString();
+		Photo photo;
+		synchronized (photos) {
+			photo = getCurrent(key);
+			if (photo == null) {
+				List callbacks = (List) loading.get(key);
+				if (callbacks != null) {
+					callbacks.add(callback);
+					return;
+				}
+				callbacks = new ArrayList(2);
+				callbacks.add(callback);
+				loading.put(key, callbacks);
+			}
+		}
+		if (photo != null) {
+			callback.loaded(photo);
+			return;
+		}
+		Job job = new Job("Loading driver photo") {
+			protected IStatus run(IProgressMonitor monitor) {
+				byte[] data = null;
+				// Unless the fetch completes, the lack of a photo is only kept
+				// for a while.
+				long expires = System.currentTimeMillis() + FAILURE_TIME_TO_LIVE;
+				try {
+					data = fetch(uri);
+					expires = 0;
+				} catch (IOException e) {
+					LogUtility.logWarning(DriverPhotoCache.this, "Unable to read driver photo " + key, e);
+				} finally {
+					// Even a failed fetch must release the sessions waiting on it.
+					release(key, new Photo(key, data, expires));
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	private void release(String key, Photo result) {
+		List callbacks;
+		synchronized (photos) {
+			put(key, result);
+			callbacks = (List) loading.remove(key);
+		}
+		for (Iterator i = callbacks.iterator(); i.hasNext();)
+			((Callback) i.next()).loaded(result);
+	}
+
+	/*
+	 * Answer the photo cached under the key, dropping it if it has expired.
+	 */
+	private Photo getCurrent(String key) {
+		Photo photo = (Photo) photos.get(key);
+		if (photo == null || !photo.isExpired(System.currentTimeMillis()))
+			return photo;
+		photos.remove(key);
+		size -= photo.getSize();
+		return null;
+	}
+
+	private void put(String key, Photo photo) {
+		Photo old = (Photo) photos.put(key, photo);
+		if (old != null)
+			size -= old.getSize();
+		size += photo.getSize();
+		Iterator i = photos.values().iterator();
+		while ((size > maxBytes || photos.size() > maxEntries) && i.hasNext()) {
+			Photo eldest = (Photo) i.next();
+			if (eldest == photo)
+				break;
+			size -= eldest.getSize();
+			i.remove();
+		}
+	}
+
+	/*
+	 * Answer the scaled photo as PNG bytes, or null if the URI does not lead
+	 * to an image.
+	 */
+	private byte[] fetch(URI uri) throws IOException {
+		try {
+			BufferedImage image;
+			// A photo server that stops answering must not hold a fetch job
+			// forever; the failure is cached like any other.
+			URLConnection connection = uri.toURL().openConnection();
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			InputStream in = connection.getInputStream();
+			try {
+				image = ImageIO.read(in);
+			} finally {
+				in.close();
+			}
+			if (image == null)
+				return null;
+			ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024);
+			ImageIO.write(scale(image), "png", out); //$NON-NLS-1$
+			return out.toByteArray();
+		} catch (IllegalArgumentException e) {
+			// The URI is not absolute, so it never leads to an image.
+			return null;
+		}
+	}
+
+	private BufferedImage scale(BufferedImage image) {
+		double ratio = Math.min((double) width / image.getWidth(), (double) height / image.getHeight());
+		if (ratio >= 1)
+			return image;
+		int scaledWidth = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+		int scaledHeight = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+		BufferedImage result = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = result.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+		} finally {
+			graphics.dispose();
+		}
+		return result;
+	}
+}
@@ -11,8 +11,11 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.backend.rap;
 
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
 import org.eclipse.examples.toast.backend.data.ITrackedLocation;
 import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.examples.toast.core.tracking.ITrackingCenter;
+import org.eclipse.examples.toast.internal.backend.rap.bundle.Component;
 import org.eclipse.examples.toast.rap.gmaps.GMap;
 import org.eclipse.examples.toast.rap.gmaps.GMap.Location;
 import org.eclipse.examples.toast.rap.gmaps.GMap.Marker;
@@ -21,6 +24,7 @@ import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.ISelectionListener;
 import org.eclipse.ui.ISelectionService;
 import org.eclipse.ui.IWorkbenchPart;
@@ -30,7 +34,10 @@ import org.eclipse.ui.part.ViewPart;
 public class MapsView extends ViewPart {
 
 	public static final String ID = "org.eclipse.examples.toast.backend.rap.mapview"; //$NON-NLS-1$
+	private static final int MAX_UPDATES_PER_FRAME = 200;
 	private GMap map;
+	private IVehicle[] markedVehicles = new IVehicle[0];
+	private VehicleUpdater vehicleUpdater;
 
 	/*
 	 * (non-Javadoc)
@@ -43,6 +50,13 @@ public class MapsView extends ViewPart {
 		map = new GMap(parent, SWT.NONE);
 		map.setCenter(new Location("5001 Great America Pkwy, Santa Clara, CA 95054")); //$NON-NLS-1$
 		createSelectionListener();
+		subscribeToVehicles();
+	}
+
+	public void dispose() {
+		if (vehicleUpdater != null)
+			vehicleUpdater.unsubscribe();
+		super.dispose();
 	}
 
 	/*
@@ -65,26 +79,78 @@ public class MapsView extends ViewPart {
 					IStructuredSelection sselection = (IStructuredSelection) selection;
 					IVehicle firstVehicle = (IVehicle) sselection.getFirstElement();
 					if (firstVehicle != null) {
-						ITrackedLocation location = firstVehicle.getCurrentLocation();
+						ITrackedLocation location = getLocation(firstVehicle);
 						double lat = location.getLatitude() / 100000.0;
 						double lon = location.getLongitude() / 100000.0;
 						map.setCenter(new Location(lat, lon));
 					}
 					if (!sselection.isEmpty()) {
 						Object[] selected = sselection.toArray();
-						Marker[] markers = new Marker[selected.length];
-						for (int i = 0; i < selected.length; i++) {
-							IVehicle vehicle = (IVehicle) selected[i];
-							ITrackedLocation currentLocation = vehicle.getCurrentLocation();
-							double lat = currentLocation.getLatitude() / 100000.0;
-							double lon = currentLocation.getLongitude() / 100000.0;
-							markers[i] = new Marker(new Location(lat, lon), null /*vehicle.getName()*/);
-						}
-						map.setMarkers(markers);
+						markedVehicles = new IVehicle[selected.length];
+						System.arraycopy(selected, 0, markedVehicles, 0, selected.length);
+						showMarkers();
 					}
 				}
 			}
 		});
 	}
 
+	private void subscribeToVehicles() {
+		IControlCenter controlCenter = Component.getControlCenter();
+		if (controlCenter == null)
+			return;
+		Display display = getSite().getShell().getDisplay();
+		vehicleUpdater = new VehicleUpdater(display, ID + ".vehicles@" + System.identityHashCode(this), MAX_UPDATES_PER_FRAME) { //$NON-NLS-1$
+			protected void apply(IVehicle[] changed) {
+				updateMarkers(changed);
+			}
+		};
+		vehicleUpdater.subscribe(controlCenter);
+	}
+
+	/*
+	 * Only the selected vehicles have markers, so most changes pass straight
+	 * through; the markers are only sent again when one of them has moved.
+	 */
+	private void updateMarkers(IVehicle[] changed) {
+		if (map.isDisposed() || markedVehicles.length == 0)
+			return;
+		boolean moved = false;
+		for (int i = 0; i < changed.length; i++) {
+			for (int j = 0; j < markedVehicles.length; j++) {
+				if (markedVehicles[j].getName().equals(changed[i].getName())) {
+					markedVehicles[j] = changed[i];
+					moved = true;
+				}
+			}
+		}
+		if (moved)
+			showMarkers();
+	}
+
+	private void showMarkers() {
+		Marker[] markers = new Marker[markedVehicles.length];
+		for (int i = 0; i < markedVehicles.length; i++) {
+			ITrackedLocation currentLocation = getLocation(markedVehicles[i]);
+			double lat = currentLocation.getLatitude() / 100000.0;
+			double lon = currentLocation.getLongitude() / 100000.0;
+			markers[i] = new Marker(markedVehicles[i].getName(), new Location(lat, lon), null);
+		}
+		map.setMarkers(markers);
+	}
+
+	/*
+	 * Vehicles using adaptive sampling stay silent while they move as
+	 * predicted, so show where the tracking center reckons they are now.
+	 */
+	private ITrackedLocation getLocation(IVehicle vehicle) {
+		ITrackingCenter trackingCenter = Component.getTrackingCenter();
+		if (trackingCenter != null) {
+			ITrackedLocation location = trackingCenter.getCurrentLocation(vehicle.getName());
+			if (location != null)
+				return location;
+		}
+		return vehicle.getCurrentLocation();
+	}
+
 }
@@ -11,24 +11,29 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.backend.rap;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
+import org.eclipse.examples.toast.backend.controlcenter.IData;
 import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.examples.toast.core.emergency.EmergencyIncident;
+import org.eclipse.examples.toast.core.emergency.IEmergencyCenter;
+import org.eclipse.examples.toast.core.emergency.IEmergencyListener;
 import org.eclipse.jface.action.IStatusLineManager;
 import org.eclipse.jface.layout.TableColumnLayout;
-import org.eclipse.jface.viewers.ArrayContentProvider;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnWeightData;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
-import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerCell;
-import org.eclipse.jface.viewers.ViewerComparator;
-import org.eclipse.jface.viewers.ViewerFilter;
+import org.eclipse.rwt.lifecycle.UICallBack;
 import org.eclipse.rwt.lifecycle.WidgetUtil;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -39,6 +44,7 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
@@ -51,14 +57,23 @@ public class SearchView extends ViewPart {
 
 	private static final int COL_VEHICLE_ID = 0;
 	private static final int COL_DRIVER_NAME = 1;
+	private static final int MAX_UPDATES_PER_FRAME = 200;
+	private static final long FILTER_DELAY = 300;
 
 	public static final String ID = "org.eclipse.examples.toast.backend.rap.searchView"; //$NON-NLS-1$
 
 	private Text filterText;
 	private TableViewer viewer;
 	private CellLabelProvider labelProvider = new VehicleLabelProvider();
-	private VehicleFilter viewerFilter = new VehicleFilter();
+	private VehicleContentProvider contentProvider;
+	private VehicleUpdater vehicleUpdater;
+	private Job pendingFilter;
+	private String filterCallBackId;
+	private IEmergencyCenter subscribedCenter;
+	private IEmergencyListener emergencyListener;
+	private String callBackId;
 	public static IControlCenter controlCenter;
+	public static IEmergencyCenter emergencyCenter;
 
 	static final class VehicleLabelProvider extends CellLabelProvider {
 
@@ -81,66 +96,6 @@ public class SearchView extends ViewPart {
 		}
 	}
 
-	static final class VehicleComparator extends ViewerComparator implements Comparator {
-
-		private final boolean ascending;
-		private final int property;
-
-		public VehicleComparator(final int property, final boolean ascending) {
-			this.property = property;
-			this.ascending = ascending;
-		}
-
-		public int compare(final Viewer viewer, final Object object1, final Object object2) {
-			return compare(object1, object2);
-		}
-
-		public boolean isSorterProperty(final Object elem, final String releventProperty) {
-			return true;
-		}
-
-		public int compare(final Object object1, final Object object2) {
-			IVehicle vehicle1 = (IVehicle) object1;
-			IVehicle vehicle2 = (IVehicle) object2;
-			int result = 0;
-			if (property == COL_VEHICLE_ID) {
-				result = vehicle1.getName().compareTo(vehicle2.getName());
-			} else if (property == COL_DRIVER_NAME) {
-				result = vehicle1.getDriver().getLastName().compareTo(vehicle2.getDriver().getLastName());
-			}
-			if (!ascending) {
-				result = result * -1;
-			}
-			return result;
-		}
-	}
-
-	static final class VehicleFilter extends ViewerFilter {
-
-		private String text;
-
-		public void setText(final String string) {
-			this.text = string.toLowerCase();
-		}
-
-		public boolean select(final Viewer viewer, final Object parentElement, final Object element) {
-			boolean result = true;
-			IVehicle vehicle = (IVehicle) element;
-			if (text != null && text.length() > 0) {
-				result = false;
-				String vid = vehicle.getName().toLowerCase();
-				result |= vid.indexOf(text) != -1;
-				String driverName = (vehicle.getDriver().getLastName() + ", " + vehicle.getDriver().getFirstName()).toLowerCase(); //$NON-NLS-1$
-				result |= driverName.indexOf(text) != -1;
-			}
-			return result;
-		}
-
-		public boolean isFilterProperty(final Object element, final String prop) {
-			return true;
-		}
-	}
-
 	public void createPartControl(final Composite parent) {
 		GridLayout mainLayout = new GridLayout();
 		mainLayout.marginHeight = 0;
@@ -153,13 +108,11 @@ public class SearchView extends ViewPart {
 		}
 		Composite resizer = new Composite(parent, SWT.NONE);
 		resizer.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 2, 1));
-		viewer = new TableViewer(resizer, SWT.MULTI);
+		viewer = new TableViewer(resizer, SWT.MULTI | SWT.VIRTUAL);
 		viewer.setUseHashlookup(true);
-		viewer.setContentProvider(new ArrayContentProvider());
 		createVehicleIdColumn();
 		createDriverNameColumn();
 		viewer.setLabelProvider(labelProvider);
-		viewer.addFilter(viewerFilter);
 		Table table = viewer.getTable();
 		TableColumnLayout tableLayout = new TableColumnLayout();
 		tableLayout.setColumnData(table.getColumn(COL_VEHICLE_ID), new ColumnWeightData(50));
@@ -170,18 +123,145 @@ public class SearchView extends ViewPart {
 		getSite().setSelectionProvider(viewer);
 		// TODO need to fix this to listen for the control center coming around and 
 		// then set the input when it arrives.
-		if (controlCenter != null)
-			viewer.setInput(controlCenter.getVehicles());
-		// TODO [rst] hard coded dummy text to fill status bar
-		String message = "Tue, Oct 27 2009,  7:21 am: " + " Vehicle: CA-SAN FRANCISCO-10 reports emergency at 37,7897, -122.3942";
-		IStatusLineManager statusLineMgr = getViewSite().getActionBars().getStatusLineManager();
-		statusLineMgr.setMessage(message);
+		if (controlCenter != null) {
+			contentProvider = new VehicleContentProvider(controlCenter);
+			viewer.setContentProvider(contentProvider);
+			viewer.setInput(controlCenter);
+			contentProvider.reset();
+		}
+		subscribeToVehicles();
+		subscribeToEmergencies();
 	}
 
 	public void setFocus() {
 		filterText.setFocus();
 	}
 
+	public void dispose() {
+		if (vehicleUpdater != null)
+			vehicleUpdater.unsubscribe();
+		if (pendingFilter != null) {
+			pendingFilter.cancel();
+			pendingFilter = null;
+			UICallBack.deactivate(filterCallBackId);
+		}
+		if (subscribedCenter != null) {
+			subscribedCenter.removeListener(emergencyListener);
+			subscribedCenter = null;
+			UICallBack.deactivate(callBackId);
+		}
+		super.dispose();
+	}
+
+	private void subscribeToVehicles() {
+		if (contentProvider == null)
+			return;
+		Display display = getSite().getShell().getDisplay();
+		vehicleUpdater = new VehicleUpdater(display, ID + ".vehicles@" + System.identityHashCode(this), MAX_UPDATES_PER_FRAME) { //$NON-NLS-1$
+			protected void apply(IVehicle[] changed) {
+				if (!viewer.getControl().isDisposed())
+					contentProvider.update(changed);
+			}
+		};
+		vehicleUpdater.subscribe(controlCenter);
+	}
+
+	/*
+	 * Typing only restarts the delay. Once the user pauses, the search runs
+	 * in a job against the control center's index and the table is reset with
+	 * the result on the UI thread. Each search is a job of its own, so one
+	 * that fails is logged without affecting later searches or other sessions.
+	 */
+	private void scheduleFilter(final String text) {
+		if (contentProvider == null)
+			return;
+		if (pendingFilter != null) {
+			pendingFilter.cancel();
+		} else {
+			filterCallBackId = ID + ".filter@" + System.identityHashCode(this); //$NON-NLS-1$
+			UICallBack.activate(filterCallBackId);
+		}
+		final Display display = viewer.getControl().getDisplay();
+		final IControlCenter center = controlCenter;
+		final int sort = contentProvider.getSort();
+		final boolean ascending = contentProvider.isAscending();
+		pendingFilter = new Job("Filtering vehicles") {
+			protected IStatus run(IProgressMonitor monitor) {
+				final Job job = this;
+				String[] found = null;
+				IStatus result = Status.OK_STATUS;
+				try {
+					if (text.length() > 0)
+						found = center.findVehicles(text, sort, ascending);
+				} catch (RuntimeException e) {
+					result = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to filter vehicles by " + text, e);
+				}
+				final boolean failed = !result.isOK();
+				final String[] names = found;
+				try {
+					display.asyncExec(new Runnable() {
+						public void run() {
+							// A later keystroke has replaced this search.
+							if (pendingFilter != job)
+								return;
+							pendingFilter = null;
+							UICallBack.deactivate(filterCallBackId);
+							if (!failed && !viewer.getControl().isDisposed())
+								contentProvider.setFilter(text, names, sort, ascending);
+						}
+					});
+				} catch (SWTException e) {
+					// The session has gone.
+				}
+				return result;
+			}
+		};
+		pendingFilter.setSystem(true);
+		pendingFilter.schedule(FILTER_DELAY);
+	}
+
+	/**
+	 * Show the latest emergency in the status line and keep it current. The
+	 * emergency center reports incidents on its own threads, so each one is
+	 * handed to this session's display, and the UI callback pushes it to the
+	 * browser without waiting for the user to do something.
+	 */
+	private void subscribeToEmergencies() {
+		IEmergencyCenter center = emergencyCenter;
+		if (center == null)
+			return;
+		showEmergency(center.getLatestIncident());
+		final Display display = getSite().getShell().getDisplay();
+		callBackId = ID + '@' + System.identityHashCode(this);
+		UICallBack.activate(callBackId);
+		emergencyListener = new IEmergencyListener() {
+			public void emergencyReported(final EmergencyIncident incident) {
+				try {
+					display.asyncExec(new Runnable() {
+						public void run() {
+							showEmergency(incident);
+						}
+					});
+				} catch (SWTException e) {
+					// The session has gone; dispose() will unsubscribe.
+				}
+			}
+		};
+		center.addListener(emergencyListener);
+		subscribedCenter = center;
+	}
+
+	private void showEmergency(EmergencyIncident incident) {
+		if (incident == null || viewer.getControl().isDisposed())
+			return;
+		SimpleDateFormat format = new SimpleDateFormat("EEE, MMM d yyyy, h:mm a"); //$NON-NLS-1$
+		String lat = String.valueOf(incident.getLatitude() / 100000.0);
+		String lon = String.valueOf(incident.getLongitude() / 100000.0);
+		String message = format.format(new Date(incident.getTime())) + ": Vehicle: " + incident.getId() + " reports emergency at " + lat + ", " + lon;
+		IStatusLineManager statusLineMgr = getViewSite().getActionBars().getStatusLineManager();
+		statusLineMgr.setMessage(message);
+	}
+
 	private Control createFilterComposite(final Composite parent) {
 		Composite composite = new Composite(parent, SWT.NONE);
 		composite.setLayout(LayoutUtil.createGridLayout(3, false, 5, 2));
@@ -194,8 +274,7 @@ public class SearchView extends ViewPart {
 
 			public void modifyText(final ModifyEvent event) {
 				Text text = (Text) event.widget;
-				viewerFilter.setText(text.getText());
-				viewer.refresh();
+				scheduleFilter(text.getText());
 			}
 		});
 		Button clearButton = new Button(composite, SWT.PUSH);
@@ -222,7 +301,7 @@ public class SearchView extends ViewPart {
 
 			public void widgetSelected(final SelectionEvent event) {
 				int sortDirection = updateSortDirection((TableColumn) event.widget);
-				sort(viewer, COL_VEHICLE_ID, sortDirection == SWT.DOWN);
+				sort(IData.SORT_BY_NAME, sortDirection == SWT.DOWN);
 			}
 		});
 		return result;
@@ -239,7 +318,7 @@ public class SearchView extends ViewPart {
 
 			public void widgetSelected(final SelectionEvent event) {
 				int sortDirection = updateSortDirection((TableColumn) event.widget);
-				sort(viewer, COL_DRIVER_NAME, sortDirection == SWT.DOWN);
+				sort(IData.SORT_BY_DRIVER, sortDirection == SWT.DOWN);
 			}
 		});
 		return result;
@@ -267,11 +346,8 @@ public class SearchView extends ViewPart {
 		return table.getSortDirection();
 	}
 
-	private static void sort(final TableViewer viewer, final int property, final boolean ascending) {
-		List input = (List) viewer.getInput();
-		if (input == null)
-			return;
-		Collections.sort(input, new VehicleComparator(property, ascending));
-		viewer.refresh();
+	private void sort(final int sort, final boolean ascending) {
+		if (contentProvider != null)
+			contentProvider.setSort(sort, ascending);
 	}
 }
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2009 EclipseSource Inc. and others. All rights reserved.
+ * This program and the accompanying materials are made available under the 
+ * terms of the Eclipse Public License v1.0 and Eclipse Distribution License v1.0 
+ * which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     EclipseSource Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.rap;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
+import org.eclipse.examples.toast.backend.controlcenter.IData;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+
+/**
+ * Feeds a virtual table from the control center a page at a time, so only
+ * the rows the user scrolls to are fetched. Without a filter the pages come
+ * from the control center's sorted, paged query; with one, the control
+ * center's search index answers the matching names, already sorted, and the
+ * vehicles on a page are looked up by name. The most recently used pages
+ * are kept.
+ */
+class VehicleContentProvider implements ILazyContentProvider {
+	private static final int PAGE_SIZE = 50;
+	private static final int MAX_PAGES = 40;
+
+	private final IControlCenter controlCenter;
+	private final Map pages;
+	private final Map rows;
+	private TableViewer viewer;
+	private int sort = IData.SORT_BY_NAME;
+	private boolean ascending = true;
+	private String filter = ""; //$NON-NLS-1$
+	private String[] matches;
+	private long rosterVersion;
+
+	VehicleContentProvider(IControlCenter controlCenter) {
+		super();
+		this.controlCenter = controlCenter;
+		this.rows = new HashMap();
+		this.pages = new LinkedHashMap(MAX_PAGES * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if (size() <= MAX_PAGES)
+					return false;
+				forget((IVehicle[]) eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		this.viewer = (TableViewer) viewer;
+	}
+
+	public void dispose() {
+		pages.clear();
+		rows.clear();
+	}
+
+	public void updateElement(int index) {
+		IVehicle[] page = getPage(index / PAGE_SIZE);
+		int offset = index % PAGE_SIZE;
+		if (offset < page.length && page[offset] != null)
+			viewer.replace(page[offset], index);
+	}
+
+	int getSort() {
+		return sort;
+	}
+
+	boolean isAscending() {
+		return ascending;
+	}
+
+	void setSort(int sort, boolean ascending) {
+		this.sort = sort;
+		this.ascending = ascending;
+		if (matches != null)
+			matches = controlCenter.findVehicles(filter, sort, ascending);
+		reset();
+	}
+
+	/**
+	 * Show only the vehicles matching <code>text</code>. The caller may have
+	 * already searched for them, off the UI thread, in the given order.
+	 */
+	void setFilter(String text, String[] names, int namesSort, boolean namesAscending) {
+		filter = text;
+		if (text.length() == 0)
+			matches = null;
+		else if (names != null && namesSort == sort && namesAscending == ascending)
+			matches = names;
+		else
+			matches = controlCenter.findVehicles(text, sort, ascending);
+		reset();
+	}
+
+	/**
+	 * Show the new state of any of the given vehicles whose rows are loaded.
+	 * A vehicle without a loaded row is usually on a page that has not been
+	 * fetched, but it may also be new or gone; in that case the roster
+	 * version has moved on and the table is reset to show it.
+	 */
+	void update(IVehicle[] changed) {
+		boolean unknown = false;
+		for (int i = 0; i < changed.length; i++) {
+			Integer row = (Integer) rows.get(changed[i].getName());
+			if (row == null) {
+				unknown = true;
+				continue;
+			}
+			int index = row.intValue();
+			IVehicle[] page = (IVehicle[]) pages.get(new Integer(index / PAGE_SIZE));
+			if (page != null)
+				page[index % PAGE_SIZE] = changed[i];
+			viewer.replace(changed[i], index);
+		}
+		if (unknown && controlCenter.getRosterVersion() != rosterVersion) {
+			if (matches != null)
+				matches = controlCenter.findVehicles(filter, sort, ascending);
+			reset();
+		}
+	}
+
+	void reset() {
+		pages.clear();
+		rows.clear();
+		rosterVersion = controlCenter.getRosterVersion();
+		int count = matches == null ? controlCenter.getVehicleCount() : matches.length;
+		viewer.setItemCount(count);
+		viewer.refresh();
+	}
+
+	private IVehicle[] getPage(int number) {
+		Integer key = new Integer(number);
+		IVehicle[] page = (IVehicle[]) pages.get(key);
+		if (page != null)
+			return page;
+		int offset = number * PAGE_SIZE;
+		if (matches == null) {
+			List vehicles = controlCenter.getVehicles(sort, ascending, offset, PAGE_SIZE);
+			page = (IVehicle[]) vehicles.toArray(new IVehicle[vehicles.size()]);
+		} else {
+			int length = Math.max(0, Math.min(PAGE_SIZE, matches.length - offset));
+			page = new IVehicle[length];
+			for (int i = 0; i < length; i++)
+				page[i] = controlCenter.getVehicle(matches[offset + i]);
+		}
+		pages.put(key, page);
+		for (int i = 0; i < page.length; i++) {
+			if (page[i] != null)
+				rows.put(page[i].getName(), new Integer(offset + i));
+		}
+		return page;
+	}
+
+	private void forget(IVehicle[] page) {
+		for (int i = 0; i < page.length; i++) {
+			if (page[i] != null)
+				rows.remove(page[i].getName());
+		}
+	}
+}
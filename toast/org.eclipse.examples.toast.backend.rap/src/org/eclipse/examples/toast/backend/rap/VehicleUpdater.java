@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2009 EclipseSource Inc. and others. All rights reserved.
+ * This program and the accompanying materials are made available under the 
+ * terms of the Eclipse Public License v1.0 and Eclipse Distribution License v1.0 
+ * which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     EclipseSource Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.backend.rap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenterListener;
+import org.eclipse.examples.toast.backend.data.IVehicle;
+import org.eclipse.rwt.lifecycle.UICallBack;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Hands vehicle changes from the control center to a view. Changes arrive on
+ * the control center's thread and are held, latest per vehicle, until the
+ * view's display can take them. At most one batch is queued on the display
+ * at a time and each batch holds at most <code>maxPerFrame</code> vehicles,
+ * so a busy fleet cannot swamp a session; the rest follow in later batches.
+ * While subscribed, the UI callback lets the changes reach the browser
+ * without the user doing anything.
+ */
+abstract class VehicleUpdater implements IControlCenterListener {
+	private final Display display;
+	private final int maxPerFrame;
+	private final String callBackId;
+	private final Map pending;
+	private final Runnable flush;
+	private boolean scheduled;
+	private IControlCenter center;
+
+	VehicleUpdater(Display display, String callBackId, int maxPerFrame) {
+		super();
+		this.display = display;
+		this.callBackId = callBackId;
+		this.maxPerFrame = maxPerFrame;
+		this.pending = new LinkedHashMap();
+		this.flush = new Runnable() {
+			public void run() {
+				flush();
+			}
+		};
+	}
+
+	/**
+	 * Start listening to the given control center. Must be called on the UI
+	 * thread.
+	 */
+	void subscribe(IControlCenter value) {
+		if (center != null || value == null)
+			return;
+		center = value;
+		UICallBack.activate(callBackId);
+		center.addListener(this);
+	}
+
+	/**
+	 * Stop listening. Must be called on the UI thread.
+	 */
+	void unsubscribe() {
+		if (center == null)
+			return;
+		center.removeListener(this);
+		center = null;
+		UICallBack.deactivate(callBackId);
+		synchronized (pending) {
+			pending.clear();
+		}
+	}
+
+	public void vehiclesChanged(IVehicle[] vehicles) {
+		synchronized (pending) {
+			for (int i = 0; i < vehicles.length; i++)
+				pending.put(vehicles[i].getName(), vehicles[i]);
+			if (scheduled)
+				return;
+			scheduled = true;
+		}
+		schedule();
+	}
+
+	/**
+	 * Apply a batch of changed vehicles to the view. Called on the UI thread;
+	 * implementations must check that their widgets are still there.
+	 */
+	protected abstract void apply(IVehicle[] vehicles);
+
+	private void schedule() {
+		try {
+			display.asyncExec(flush);
+		} catch (SWTException e) {
+			// The session has gone; the view will unsubscribe as it is disposed.
+			synchronized (pending) {
+				pending.clear();
+				scheduled = false;
+			}
+		}
+	}
+
+	private void flush() {
+		IVehicle[] batch;
+		boolean more;
+		synchronized (pending) {
+			batch = new IVehicle[Math.min(pending.size(), maxPerFrame)];
+			Iterator i = pending.values().iterator();
+			for (int j = 0; j < batch.length; j++) {
+				batch[j] = (IVehicle) i.next();
+				i.remove();
+			}
+			more = !pending.isEmpty();
+			scheduled = more;
+		}
+		if (batch.length > 0)
+			apply(batch);
+		if (more)
+			schedule();
+	}
+}
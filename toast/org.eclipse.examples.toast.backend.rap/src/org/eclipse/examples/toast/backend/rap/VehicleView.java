@@ -11,8 +11,6 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.backend.rap;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import org.eclipse.examples.toast.backend.data.IAddress;
 import org.eclipse.examples.toast.backend.data.IDriver;
@@ -24,8 +22,10 @@ import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.rwt.graphics.Graphics;
+import org.eclipse.rwt.lifecycle.UICallBack;
 import org.eclipse.rwt.lifecycle.WidgetUtil;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Image;
@@ -34,6 +34,7 @@ import org.eclipse.swt.layout.RowLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.ui.ISelectionListener;
@@ -56,6 +57,9 @@ public class VehicleView extends ViewPart {
 	private Label locationLabel;
 	private Label headingLabel;
 	private Button editProfileButton;
+	private URI photoUri;
+	private int pendingPhotos;
+	private String photoCallBackId;
 
 	public void createPartControl(final Composite parent) {
 		this.parent = parent;
@@ -77,6 +81,14 @@ public class VehicleView extends ViewPart {
 		// TODO Auto-generated method stub
 	}
 
+	public void dispose() {
+		if (pendingPhotos > 0) {
+			pendingPhotos = 0;
+			UICallBack.deactivate(photoCallBackId);
+		}
+		super.dispose();
+	}
+
 	private Control createDriverGroup(final Composite parent) {
 		Group group = new Group(parent, SWT.NONE);
 		group.setText("Driver");
@@ -176,11 +188,7 @@ public class VehicleView extends ViewPart {
 	private void setVehicle(final IVehicle value) {
 		vehicle = value;
 		IDriver driver = vehicle.getDriver();
-		Image image = getDriverImage(driver.getImage());
-		if (image != null)
-			photoLabel.setImage(image);
-		else
-			photoLabel.setImage(DEFAULT_IMAGE);
+		showDriverImage(driver.getImage());
 		nameLabel.setText(driver.getFirstName() + " " + driver.getLastName());
 		IAddress address = driver.getAddress();
 		addressLabel.setText(address.getCity());
@@ -196,23 +204,50 @@ public class VehicleView extends ViewPart {
 		parent.layout();
 	}
 
-	private Image getDriverImage(URI imageUrl) {
-		if (imageUrl == null)
-			return null;
-		InputStream in = null;
-		// TODO need to update this to cache the images
-		try {
-			try {
-				in = imageUrl.toURL().openStream();
-				return Graphics.getImage(imageUrl.toASCIIString(), in);
-			} finally {
-				if (in != null)
-					in.close();
-			}
-		} catch (IOException e) {
-			// TODO log here
+	/*
+	 * Show the driver's photo from the shared cache. A photo that is not
+	 * cached yet is fetched in the background while the default image is
+	 * shown, and the UI callback pushes it to the browser once it arrives,
+	 * unless another vehicle has been selected in the meantime.
+	 */
+	private void showDriverImage(final URI imageUri) {
+		photoUri = imageUri;
+		DriverPhotoCache.Photo photo = imageUri == null ? null : DriverPhotoCache.getDefault().get(imageUri);
+		if (imageUri == null || photo != null) {
+			setDriverImage(photo);
+			return;
+		}
+		photoLabel.setImage(DEFAULT_IMAGE);
+		if (pendingPhotos++ == 0) {
+			photoCallBackId = ID + ".photo@" + System.identityHashCode(this); //$NON-NLS-1$
+			UICallBack.activate(photoCallBackId);
 		}
-		return null;
+		final Display display = parent.getDisplay();
+		DriverPhotoCache.getDefault().load(imageUri, new DriverPhotoCache.Callback() {
+			public void loaded(final DriverPhotoCache.Photo loaded) {
+				try {
+					display.asyncExec(new Runnable() {
+						public void run() {
+							if (pendingPhotos == 0 || photoLabel.isDisposed())
+								return;
+							if (--pendingPhotos == 0)
+								UICallBack.deactivate(photoCallBackId);
+							if (imageUri.equals(photoUri)) {
+								setDriverImage(loaded);
+								photoLabel.getParent().layout();
+							}
+						}
+					});
+				} catch (SWTException e) {
+					// The session has gone.
+				}
+			}
+		});
+	}
+
+	private void setDriverImage(DriverPhotoCache.Photo photo) {
+		Image image = photo == null ? null : photo.getImage();
+		photoLabel.setImage(image != null ? image : DEFAULT_IMAGE);
 	}
 
 	private static String getDirection(final int heading) {
@@ -14,11 +14,14 @@ package org.eclipse.examples.toast.internal.backend.rap.bundle;
 import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
 import org.eclipse.examples.toast.backend.provisioning.IProvisioner;
 import org.eclipse.examples.toast.backend.rap.SearchView;
+import org.eclipse.examples.toast.core.emergency.IEmergencyCenter;
+import org.eclipse.examples.toast.core.tracking.ITrackingCenter;
 
 public class Component {
 
 	private static IProvisioner provisioner;
 	private static IControlCenter controlCenter;
+	private static volatile ITrackingCenter trackingCenter;
 
 	public static IControlCenter getControlCenter() {
 		return controlCenter;
@@ -29,6 +32,28 @@ public class Component {
 		controlCenter = value;
 	}
 
+	public void setEmergencyCenter(IEmergencyCenter value) {
+		SearchView.emergencyCenter = value;
+	}
+
+	public void clearEmergencyCenter(IEmergencyCenter value) {
+		if (SearchView.emergencyCenter == value)
+			SearchView.emergencyCenter = null;
+	}
+
+	public static ITrackingCenter getTrackingCenter() {
+		return trackingCenter;
+	}
+
+	public void setTrackingCenter(ITrackingCenter value) {
+		trackingCenter = value;
+	}
+
+	public void clearTrackingCenter(ITrackingCenter value) {
+		if (trackingCenter == value)
+			trackingCenter = null;
+	}
+
 	public static IProvisioner getProvisioner() {
 		return provisioner;
 	}
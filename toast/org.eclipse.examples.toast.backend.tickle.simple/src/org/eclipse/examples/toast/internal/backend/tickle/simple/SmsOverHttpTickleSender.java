@@ -15,19 +15,81 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.PropertyManager;
 import org.eclipse.examples.toast.core.UrlBuilder;
 import org.eclipse.examples.toast.core.discovery.IDiscovery;
 import org.eclipse.examples.toast.core.tickle.IHttpTickleConstants;
 import org.eclipse.examples.toast.core.tickle.ITickleSender;
+import org.eclipse.examples.toast.core.tickle.TickleResult;
 
 public class SmsOverHttpTickleSender implements ITickleSender {
+	private static final String THREADS_PROPERTY = "toast.tickle.threads"; //$NON-NLS-1$
+	private static final String CONNECT_TIMEOUT_PROPERTY = "toast.tickle.connect.timeout"; //$NON-NLS-1$
+	private static final String READ_TIMEOUT_PROPERTY = "toast.tickle.read.timeout"; //$NON-NLS-1$
+	private static final String ATTEMPTS_PROPERTY = "toast.tickle.attempts"; //$NON-NLS-1$
+	private static final String BACKOFF_PROPERTY = "toast.tickle.backoff"; //$NON-NLS-1$
+	private static final String TARGET_INTERVAL_PROPERTY = "toast.tickle.target.interval"; //$NON-NLS-1$
+	private static final String TIMEOUT_PROPERTY = "toast.tickle.timeout"; //$NON-NLS-1$
+	private static final int MAX_TRACKED_TARGETS = 1024;
+
+	private enum Outcome {
+		SUCCEEDED, FAILED, UNKNOWN
+	}
 
 	IDiscovery discovery;
+	private ExecutorService executor;
+	private int connectTimeout;
+	private int readTimeout;
+	private int attempts;
+	private long backoff;
+	private long targetInterval;
+	private long timeout;
+	// The earliest time each target may be tickled again, keyed by host and port.
+	private final Map<String, Long> nextTickleTimes = new HashMap<String, Long>();
 
 	public SmsOverHttpTickleSender() {
 	}
 
+	protected void activate() {
+		connectTimeout = getIntProperty(CONNECT_TIMEOUT_PROPERTY, 5000);
+		readTimeout = getIntProperty(READ_TIMEOUT_PROPERTY, 5000);
+		attempts = Math.max(1, getIntProperty(ATTEMPTS_PROPERTY, 3));
+		backoff = getIntProperty(BACKOFF_PROPERTY, 500);
+		targetInterval = getIntProperty(TARGET_INTERVAL_PROPERTY, 250);
+		timeout = getIntProperty(TIMEOUT_PROPERTY, 60000);
+		int threads = Math.max(1, getIntProperty(THREADS_PROPERTY, 8));
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count;
+
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Toast tickle sender " + count++); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	protected void deactivate() {
+		executor.shutdownNow();
+		executor = null;
+	}
+
 	protected void bind(IDiscovery value) {
 		discovery = value;
 	}
@@ -45,26 +107,143 @@ public class SmsOverHttpTickleSender implements ITickleSender {
 	}
 
 	public void tickle(String id) {
+		send(id);
+	}
+
+	public TickleResult tickle(Collection ids) {
+		long start = System.currentTimeMillis();
+		List<String> targets = new ArrayList<String>(ids.size());
+		List<Callable<Outcome>> tasks = new ArrayList<Callable<Outcome>>(ids.size());
+		for (Iterator i = ids.iterator(); i.hasNext();) {
+			final String id = (String) i.next();
+			targets.add(id);
+			tasks.add(new Callable<Outcome>() {
+				public Outcome call() {
+					return send(id);
+				}
+			});
+		}
+		TickleResult result = new TickleResult();
+		List<Future<Outcome>> futures;
+		try {
+			// Anything not finished within the time limit is cancelled.
+			futures = executor.invokeAll(tasks, timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures = new ArrayList<Future<Outcome>>();
+		}
+		for (int i = 0; i < targets.size(); i++) {
+			String id = targets.get(i);
+			Outcome outcome = Outcome.FAILED;
+			if (i < futures.size()) {
+				try {
+					outcome = futures.get(i).get();
+				} catch (CancellationException e) {
+					LogUtility.logError(this, "Gave up tickling " + id + " after " + timeout + "ms");
+				} catch (ExecutionException e) {
+					LogUtility.logError(this, "Unable to tickle " + id, e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (outcome == Outcome.SUCCEEDED)
+				result.addSucceeded(id);
+			else if (outcome == Outcome.UNKNOWN)
+				result.addUnknown(id);
+			else
+				result.addFailed(id);
+		}
+		result.setElapsed(System.currentTimeMillis() - start);
+		LogUtility.logInfo(this, "Tickled " + ids.size() + " vehicles: " + result);
+		return result;
+	}
+
+	private Outcome send(String id) {
 		String location = discovery.lookup(id);
 		if (location == null) {
 			LogUtility.logInfo(this, "Unable to tickle " + id + ".  Location unknown");
-			return;
+			return Outcome.UNKNOWN;
 		}
+		URL url;
 		try {
-			InputStream replyStream = null;
-			int result;
+			url = createTickleUrl(location);
+		} catch (MalformedURLException e) {
+			LogUtility.logError(this, "Unable to tickle " + id + " at " + location + ": " + e.getMessage());
+			return Outcome.FAILED;
+		}
+		long delay = backoff;
+		for (int attempt = 1; attempt <= attempts; attempt++) {
 			try {
-				URL url = createTickleUrl(location);
-				replyStream = url.openStream();
-				result = replyStream.read();
-			} finally {
-				if (replyStream != null)
-					replyStream.close();
-			}
-			if (IHttpTickleConstants.TICKLE_ACK_REPLY != result)
+				waitForTarget(url.getAuthority());
+				int result = sendTickle(url);
+				if (IHttpTickleConstants.TICKLE_ACK_REPLY == result)
+					return Outcome.SUCCEEDED;
 				LogUtility.logError(this, "Unable to tickle " + id + " at " + location + ": " + result);
-		} catch (IOException e) {
-			LogUtility.logError(this, "Unable to tickle " + id + " at " + location + ": " + e.getMessage());
+			} catch (IOException e) {
+				LogUtility.logError(this, "Unable to tickle " + id + " at " + location + " (attempt " + attempt + " of " + attempts + "): " + e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return Outcome.FAILED;
+			}
+			if (attempt < attempts) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return Outcome.FAILED;
+				}
+				delay *= 2;
+			}
+		}
+		return Outcome.FAILED;
+	}
+
+	private int sendTickle(URL url) throws IOException {
+		InputStream replyStream = null;
+		try {
+			URLConnection connection = url.openConnection();
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			replyStream = connection.getInputStream();
+			return replyStream.read();
+		} finally {
+			if (replyStream != null)
+				replyStream.close();
+		}
+	}
+
+	/*
+	 * Hold off until the target may be tickled again, reserving the next slot
+	 * for this caller so that concurrent callers queue up behind each other.
+	 */
+	private void waitForTarget(String target) throws InterruptedException {
+		long wait;
+		synchronized (nextTickleTimes) {
+			long now = System.currentTimeMillis();
+			if (nextTickleTimes.size() > MAX_TRACKED_TARGETS) {
+				for (Iterator<Long> i = nextTickleTimes.values().iterator(); i.hasNext();) {
+					if (i.next().longValue() <= now)
+						i.remove();
+				}
+			}
+			Long next = nextTickleTimes.get(target);
+			long slot = next == null ? now : Math.max(now, next.longValue());
+			nextTickleTimes.put(target, Long.valueOf(slot + targetInterval));
+			wait = slot - now;
+		}
+		if (wait > 0)
+			Thread.sleep(wait);
+	}
+
+	private int getIntProperty(String name, int defaultValue) {
+		String value = PropertyManager.getProperty(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			LogUtility.logWarning(this, "Invalid " + name + ": " + value);
+			return defaultValue;
 		}
 	}
 }
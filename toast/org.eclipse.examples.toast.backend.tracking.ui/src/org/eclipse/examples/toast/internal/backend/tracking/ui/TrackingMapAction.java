@@ -13,57 +13,168 @@ package org.eclipse.examples.toast.internal.backend.tracking.ui;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenterListener;
 import org.eclipse.examples.toast.backend.data.ITrackedLocation;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 import org.eclipse.examples.toast.backend.portal.spi.IPortalAction;
 import org.eclipse.examples.toast.core.ICoreConstants;
 import org.eclipse.examples.toast.core.UrlBuilder;
 
-public class TrackingMapAction implements IPortalAction {
+/**
+ * Shows a vehicle on a map of Washington DC. The page is sent once; a script
+ * then polls this action with the <code>since</code> parameter, and gets
+ * back as JSON only the markers that have moved since the version it last
+ * saw. Markers are projected onto the map as the control center reports
+ * changes, not per request, so a poll that finds nothing new costs a map
+ * lookup.
+ */
+public class TrackingMapAction implements IPortalAction, IControlCenterListener {
 	private static final String MAP = "dcmap.gif";
+	private static final String CONTENT_TYPE_JSON = "application/json"; //$NON-NLS-1$
+	private static final int POLL_INTERVAL = 5000;
+
+	// The corners of dcmap.gif, in hundred-thousandths of a degree and in pixels.
+	private static final int ORIGIN_LATITUDE = 3892995;
+	private static final int CORNER_LATITUDE = 3886020;
+	private static final int ORIGIN_Y = 7;
+	private static final int CORNER_Y = 553;
+	private static final int ORIGIN_LONGITUDE = -7708380;
+	private static final int CORNER_LONGITUDE = -7698765;
+	private static final int ORIGIN_X = 3;
+	private static final int CORNER_X = 595;
+
+	private static final class Marker {
+		final String id;
+		final int version;
+		final int x;
+		final int y;
+
+		Marker(String id, int version, int x, int y) {
+			super();
+			this.id = id;
+			this.version = version;
+			this.x = x;
+			this.y = y;
+		}
+
+		boolean isVisible() {
+			return x >= 0;
+		}
+
+		boolean isAt(int otherX, int otherY) {
+			return x == otherX && y == otherY;
+		}
+	}
 
 	private IControlCenter center;
+	private final Map markers = new HashMap();
+	private int version = 1;
 
 	protected void setControlCenter(IControlCenter value) {
 		center = value;
+		center.addListener(this);
 	}
 
 	protected void clearControlCenter(IControlCenter value) {
+		value.removeListener(this);
 		center = null;
+		synchronized (markers) {
+			markers.clear();
+		}
 	}
 
 	public void execute(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		generateTrackingMap(request, response);
+		String since = request.getParameter(IPortalConstants.SINCE_PARAMETER);
+		if (since == null)
+			generateTrackingMap(request, response);
+		else
+			generatePositions(request, response, since);
+	}
+
+	public void vehiclesChanged(IVehicle[] vehicles) {
+		synchronized (markers) {
+			int next = version + 1;
+			boolean moved = false;
+			for (int i = 0; i < vehicles.length; i++) {
+				String id = vehicles[i].getName();
+				Marker old = (Marker) markers.get(id);
+				Marker marker = createMarker(id, vehicles[i].getCurrentLocation(), next);
+				if (old != null && old.isAt(marker.x, marker.y))
+					continue;
+				markers.put(id, marker);
+				moved = true;
+			}
+			if (moved)
+				version = next;
+		}
 	}
 
 	private void generateTrackingMap(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		String id = request.getParameter(ICoreConstants.ID_PARAMETER);
-		StringBuffer buffer = new StringBuffer(2048);
-		buffer.append("<html>\n");
-		buffer.append("\t<meta http-equiv=\"refresh\" content=\"5\">\n");
-		buffer.append("\t<body>\n");
+		// Read the version first; a move made while the page is written is
+		// then picked up by the first poll.
+		int current = getVersion();
+		Marker marker = getMarker(id);
 		UrlBuilder urlBuilder = new UrlBuilder(WebPageGenerator.servletAlias);
 		urlBuilder.appendPath(IPortalConstants.RESOURCE_IMAGES_ALIAS);
 		String resourcesAlias = urlBuilder.getPath();
 		urlBuilder.appendPath(MAP);
-		buffer.append("\t\t<div style=\"background-image:url('" + urlBuilder.getPath() + "'); width:595px; height:553px\">\n");
+		String mapPath = urlBuilder.getPath();
+		UrlBuilder pollBuilder = new UrlBuilder(WebPageGenerator.servletAlias);
+		pollBuilder.addParameter(IPortalConstants.ACTION_PARAMETER, IPortalConstants.TRACKING_MAP_ACTION);
+		if (id != null)
+			pollBuilder.addParameter(ICoreConstants.ID_PARAMETER, id);
 
-		IVehicle vehicle = center.getVehicle(id);
-		ITrackedLocation loc = null;
-		if (vehicle != null && vehicle.getCurrentLocation() != null)
-			loc = vehicle.getCurrentLocation();
-		if (loc != null) {
-			String location = resourcesAlias + "/1.gif";
-			int lon = convertLongitude(loc.getLongitude());
-			int lat = convertLatitude(loc.getLatitude());
-			buffer.append("\t\t\t<img src=\"" + location + "\" style=\"left:" + lon + "px; top:" + lat + "px; position:absolute\">\n");
-		}
+		StringBuffer buffer = new StringBuffer(2048);
+		buffer.append("<html>\n");
+		buffer.append("\t<head>\n");
+		buffer.append("\t\t<script type=\"text/javascript\">\n");
+		buffer.append("\t\t\tvar version = " + current + ";\n");
+		buffer.append("\t\t\tfunction poll() {\n");
+		buffer.append("\t\t\t\tvar request = window.XMLHttpRequest ? new XMLHttpRequest() : new ActiveXObject(\"Microsoft.XMLHTTP\");\n");
+		buffer.append("\t\t\t\trequest.onreadystatechange = function() {\n");
+		buffer.append("\t\t\t\t\tif (request.readyState != 4)\n");
+		buffer.append("\t\t\t\t\t\treturn;\n");
+		buffer.append("\t\t\t\t\tif (request.status == 200)\n");
+		buffer.append("\t\t\t\t\t\tupdate(eval(\"(\" + request.responseText + \")\"));\n");
+		buffer.append("\t\t\t\t\tsetTimeout(poll, " + POLL_INTERVAL + ");\n");
+		buffer.append("\t\t\t\t};\n");
+		buffer.append("\t\t\t\trequest.open(\"GET\", \"" + escapeScript(pollBuilder.toString()) + "&" + IPortalConstants.SINCE_PARAMETER + "=\" + version, true);\n");
+		buffer.append("\t\t\t\trequest.send(null);\n");
+		buffer.append("\t\t\t}\n");
+		buffer.append("\t\t\tfunction update(data) {\n");
+		buffer.append("\t\t\t\tversion = data.version;\n");
+		buffer.append("\t\t\t\tfor (var i = 0; i < data.markers.length; i++) {\n");
+		buffer.append("\t\t\t\t\tvar marker = data.markers[i];\n");
+		buffer.append("\t\t\t\t\tvar image = document.getElementById(\"marker\");\n");
+		buffer.append("\t\t\t\t\tvar visible = marker.x >= 0;\n");
+		buffer.append("\t\t\t\t\tif (visible) {\n");
+		buffer.append("\t\t\t\t\t\timage.style.left = marker.x + \"px\";\n");
+		buffer.append("\t\t\t\t\t\timage.style.top = marker.y + \"px\";\n");
+		buffer.append("\t\t\t\t\t}\n");
+		buffer.append("\t\t\t\t\timage.style.display = visible ? \"\" : \"none\";\n");
+		buffer.append("\t\t\t\t\tdocument.getElementById(\"empty\").style.display = visible ? \"none\" : \"\";\n");
+		buffer.append("\t\t\t\t}\n");
+		buffer.append("\t\t\t}\n");
+		buffer.append("\t\t</script>\n");
+		buffer.append("\t</head>\n");
+		buffer.append("\t<body onload=\"setTimeout(poll, " + POLL_INTERVAL + ")\">\n");
+		buffer.append("\t\t<div style=\"background-image:url('" + mapPath + "'); width:595px; height:553px\">\n");
+		boolean visible = marker != null && marker.isVisible();
+		String location = resourcesAlias + "/1.gif";
+		String position = visible ? "left:" + marker.x + "px; top:" + marker.y + "px; " : "display:none; ";
+		buffer.append("\t\t\t<img id=\"marker\" src=\"" + location + "\" style=\"" + position + "position:absolute\">\n");
 		buffer.append("\t\t</div>\n");
-		if (loc == null)
-			buffer.append("\t\t<i>No tracking history...</i><br/>\n");
+		buffer.append("\t\t<i id=\"empty\"" + (visible ? " style=\"display:none\"" : "") + ">No tracking history...<br/></i>\n");
 		buffer.append("\t</body>\n");
 		buffer.append("</html>\n");
 		String text = buffer.toString();
@@ -71,25 +182,130 @@ public class TrackingMapAction implements IPortalAction {
 		writer.print(text);
 	}
 
-	private int convertLatitude(int tudValue) {
-		int originTud = 3892995;
-		int cornerTud = 3886020;
-		int rangeTud = cornerTud - originTud;
-		int deltaTud = tudValue - originTud;
-		int origin = 7;
-		int corner = 553;
-		int range = corner - origin;
-		return (deltaTud * range + rangeTud / 2) / rangeTud + origin;
+	/*
+	 * Answer {"version":n,"markers":[{"id":...,"x":...,"y":...},...]} with
+	 * the markers that moved after the given version, for the vehicle named
+	 * by the id parameter or, without one, for the whole fleet. A marker
+	 * with negative coordinates has no location to show. A client that
+	 * sends 0, or a version from before a restart, gets every marker.
+	 */
+	private void generatePositions(HttpServletRequest request, HttpServletResponse response, String since) throws IOException {
+		String id = request.getParameter(ICoreConstants.ID_PARAMETER);
+		int known;
+		try {
+			known = Integer.parseInt(since);
+		} catch (NumberFormatException e) {
+			known = 0;
+		}
+		int current;
+		List changed = new ArrayList();
+		synchronized (markers) {
+			current = version;
+			if (known < 0 || known > current)
+				known = 0;
+			if (known > 0) {
+				if (id != null) {
+					Marker marker = (Marker) markers.get(id);
+					if (marker != null && marker.version > known)
+						changed.add(marker);
+				} else {
+					for (Iterator i = markers.values().iterator(); i.hasNext();) {
+						Marker marker = (Marker) i.next();
+						if (marker.version > known)
+							changed.add(marker);
+					}
+				}
+			}
+		}
+		if (known == 0) {
+			if (id != null) {
+				Marker marker = getMarker(id);
+				if (marker != null)
+					changed.add(marker);
+			} else {
+				Collection vehicles = center.getVehicles();
+				for (Iterator i = vehicles.iterator(); i.hasNext();) {
+					IVehicle vehicle = (IVehicle) i.next();
+					changed.add(createMarker(vehicle.getName(), vehicle.getCurrentLocation(), current));
+				}
+			}
+		}
+
+		StringBuffer buffer = new StringBuffer(64 + changed.size() * 48);
+		buffer.append("{\"version\":");
+		buffer.append(current);
+		buffer.append(",\"markers\":[");
+		for (int i = 0; i < changed.size(); i++) {
+			Marker marker = (Marker) changed.get(i);
+			if (i > 0)
+				buffer.append(',');
+			buffer.append("{\"id\":\"");
+			buffer.append(escapeScript(marker.id));
+			buffer.append("\",\"x\":");
+			buffer.append(marker.x);
+			buffer.append(",\"y\":");
+			buffer.append(marker.y);
+			buffer.append('}');
+		}
+		buffer.append("]}");
+		response.setContentType(CONTENT_TYPE_JSON);
+		response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+		PrintWriter writer = response.getWriter();
+		writer.print(buffer.toString());
 	}
 
-	private int convertLongitude(int tudValue) {
-		int originTud = -7708380;
-		int cornerTud = -7698765;
+	private int getVersion() {
+		synchronized (markers) {
+			return version;
+		}
+	}
+
+	/*
+	 * Answer the vehicle's marker, projecting its current location if it has
+	 * not moved since this action started listening.
+	 */
+	private Marker getMarker(String id) {
+		if (id == null)
+			return null;
+		synchronized (markers) {
+			Marker marker = (Marker) markers.get(id);
+			if (marker != null)
+				return marker;
+		}
+		IVehicle vehicle = center.getVehicle(id);
+		if (vehicle == null)
+			return null;
+		return createMarker(id, vehicle.getCurrentLocation(), 0);
+	}
+
+	private static Marker createMarker(String id, ITrackedLocation location, int version) {
+		if (location == null)
+			return new Marker(id, version, -1, -1);
+		int x = project(location.getLongitude(), ORIGIN_LONGITUDE, CORNER_LONGITUDE, ORIGIN_X, CORNER_X);
+		int y = project(location.getLatitude(), ORIGIN_LATITUDE, CORNER_LATITUDE, ORIGIN_Y, CORNER_Y);
+		return new Marker(id, version, x, y);
+	}
+
+	private static int project(int tudValue, int originTud, int cornerTud, int origin, int corner) {
 		int rangeTud = cornerTud - originTud;
 		int deltaTud = tudValue - originTud;
-		int origin = 3;
-		int corner = 595;
 		int range = corner - origin;
 		return (deltaTud * range + rangeTud / 2) / rangeTud + origin;
 	}
+
+	private static String escapeScript(String text) {
+		StringBuffer buffer = new StringBuffer(text.length() + 8);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+				buffer.append('\\').append(c);
+			else if (c == '<')
+				buffer.append("\\u003c");
+			else if (c < ' ')
+				buffer.append(' ');
+			else
+				buffer.append(c);
+		}
+		return buffer.toString();
+	}
 }
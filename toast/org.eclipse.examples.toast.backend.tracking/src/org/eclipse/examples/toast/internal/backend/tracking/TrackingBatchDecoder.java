@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.tracking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.eclipse.examples.toast.core.tracking.ITrackingConstants;
+
+/**
+ * Decodes batch tracking frames (see {@link ITrackingConstants#BATCH_FUNCTION})
+ * into parallel primitive arrays. A decoder owns its buffers and reuses them
+ * from one frame to the next, so it must be confined to a single thread.
+ */
+public class TrackingBatchDecoder {
+	private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+	private static final int INITIAL_FRAME_LENGTH = 4096;
+	private static final int INITIAL_RECORDS = 64;
+
+	private byte[] buffer;
+	private int length;
+	private int position;
+
+	private String[] ids;
+	private int[] latitudes;
+	private int[] longitudes;
+	private int[] headings;
+	private int[] speeds;
+	private long[] times;
+
+	public TrackingBatchDecoder() {
+		super();
+		buffer = new byte[INITIAL_FRAME_LENGTH];
+		allocateRecords(INITIAL_RECORDS);
+	}
+
+	/**
+	 * Read a complete frame from the given stream, replacing the previous one.
+	 * The content length is a hint only and may be -1 when it is unknown.
+	 */
+	public void read(InputStream in, int contentLength) throws IOException {
+		if (contentLength > MAX_FRAME_LENGTH)
+			throw new IOException("Tracking batch too large: " + contentLength);
+		if (contentLength > buffer.length)
+			buffer = new byte[contentLength];
+		length = 0;
+		position = 0;
+		int count;
+		while ((count = in.read(buffer, length, buffer.length - length)) != -1) {
+			length += count;
+			if (length == buffer.length) {
+				if (length == contentLength)
+					break;
+				growBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Decode the frame last read, returning the number of records now held in
+	 * the arrays answered by the accessors.
+	 */
+	public int decode() throws IOException {
+		byte format = readByte();
+		if (format != ITrackingConstants.BATCH_FORMAT_ABSOLUTE && format != ITrackingConstants.BATCH_FORMAT_DELTA)
+			throw new IOException("Unsupported tracking batch format: " + format);
+		int count = readInt();
+		if (count < 0 || count > ITrackingConstants.MAX_BATCH_RECORDS)
+			throw new IOException("Illegal tracking batch record count: " + count);
+		if (count > ids.length)
+			allocateRecords(count);
+		if (format == ITrackingConstants.BATCH_FORMAT_DELTA)
+			decodeDelta(count);
+		else
+			decodeAbsolute(count);
+		return count;
+	}
+
+	public String[] getIds() {
+		return ids;
+	}
+
+	public int[] getLatitudes() {
+		return latitudes;
+	}
+
+	public int[] getLongitudes() {
+		return longitudes;
+	}
+
+	public int[] getHeadings() {
+		return headings;
+	}
+
+	public int[] getSpeeds() {
+		return speeds;
+	}
+
+	public long[] getTimes() {
+		return times;
+	}
+
+	// Private
+	private void decodeAbsolute(int count) throws IOException {
+		int lastIdOffset = -1;
+		int lastIdLength = -1;
+		for (int i = 0; i < count; i++) {
+			int idLength = readShort();
+			int idOffset = position;
+			skip(idLength);
+			// Batches usually carry many fixes for the same vehicle, so only
+			// create a new id string when it differs from the previous one.
+			if (i > 0 && idLength == lastIdLength && regionsEqual(idOffset, lastIdOffset, idLength))
+				ids[i] = ids[i - 1];
+			else
+				ids[i] = new String(buffer, idOffset, idLength, "UTF-8"); //$NON-NLS-1$
+			lastIdOffset = idOffset;
+			lastIdLength = idLength;
+			latitudes[i] = readInt();
+			longitudes[i] = readInt();
+			headings[i] = readShort();
+			speeds[i] = readShort();
+			times[i] = readLong();
+		}
+	}
+
+	private void decodeDelta(int count) throws IOException {
+		int idLength = readVarint();
+		int idOffset = position;
+		skip(idLength);
+		String id = new String(buffer, idOffset, idLength, "UTF-8"); //$NON-NLS-1$
+		for (int i = 0; i < count; i++) {
+			ids[i] = id;
+			latitudes[i] = readSignedVarint();
+			longitudes[i] = readSignedVarint();
+			headings[i] = readSignedVarint();
+			speeds[i] = readSignedVarint();
+			times[i] = readSignedVarlong();
+			if (i > 0) {
+				latitudes[i] += latitudes[i - 1];
+				longitudes[i] += longitudes[i - 1];
+				headings[i] += headings[i - 1];
+				speeds[i] += speeds[i - 1];
+				times[i] += times[i - 1];
+			}
+		}
+	}
+
+	private void allocateRecords(int count) {
+		ids = new String[count];
+		latitudes = new int[count];
+		longitudes = new int[count];
+		headings = new int[count];
+		speeds = new int[count];
+		times = new long[count];
+	}
+
+	private void growBuffer() throws IOException {
+		if (buffer.length >= MAX_FRAME_LENGTH)
+			throw new IOException("Tracking batch too large");
+		byte[] larger = new byte[Math.min(buffer.length * 2, MAX_FRAME_LENGTH)];
+		System.arraycopy(buffer, 0, larger, 0, length);
+		buffer = larger;
+	}
+
+	private boolean regionsEqual(int offset1, int offset2, int count) {
+		for (int i = 0; i < count; i++) {
+			if (buffer[offset1 + i] != buffer[offset2 + i])
+				return false;
+		}
+		return true;
+	}
+
+	private void skip(int count) throws IOException {
+		if (count < 0 || position + count > length)
+			throw new IOException("Truncated tracking batch");
+		position += count;
+	}
+
+	private byte readByte() throws IOException {
+		skip(1);
+		return buffer[position - 1];
+	}
+
+	private int readShort() throws IOException {
+		skip(2);
+		return (short) (((buffer[position - 2] & 0xFF) << 8) | (buffer[position - 1] & 0xFF));
+	}
+
+	private int readInt() throws IOException {
+		skip(4);
+		int i = position - 4;
+		return ((buffer[i] & 0xFF) << 24) | ((buffer[i + 1] & 0xFF) << 16) | ((buffer[i + 2] & 0xFF) << 8) | (buffer[i + 3] & 0xFF);
+	}
+
+	private int readSignedVarint() throws IOException {
+		int value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private int readVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = readByte();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("Malformed varint in tracking batch");
+	}
+
+	private long readSignedVarlong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return (value >>> 1) ^ -(value & 1);
+		}
+		throw new IOException("Malformed varint in tracking batch");
+	}
+
+	private long readLong() throws IOException {
+		long high = readInt() & 0xFFFFFFFFL;
+		long low = readInt() & 0xFFFFFFFFL;
+		return (high << 32) | low;
+	}
+}
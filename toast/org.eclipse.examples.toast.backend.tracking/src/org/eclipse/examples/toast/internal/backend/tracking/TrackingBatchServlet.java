@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.tracking;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.examples.toast.core.ICoreConstants;
+import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.tracking.ITrackingCenter;
+
+public class TrackingBatchServlet extends HttpServlet {
+	private ITrackingCenter center;
+	private ThreadLocal decoders;
+
+	public TrackingBatchServlet(ITrackingCenter center) {
+		this.center = center;
+		decoders = new ThreadLocal() {
+			protected Object initialValue() {
+				return new TrackingBatchDecoder();
+			}
+		};
+	}
+
+	// Overridden
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		TrackingBatchDecoder decoder = (TrackingBatchDecoder) decoders.get();
+		int count;
+		try {
+			decoder.read(request.getInputStream(), request.getContentLength());
+			count = decoder.decode();
+		} catch (IOException e) {
+			LogUtility.logWarning(this, "Rejected tracking batch: " + e.getMessage());
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		center.postTrackingLocations(decoder.getIds(), decoder.getLatitudes(), decoder.getLongitudes(), decoder.getHeadings(), decoder.getSpeeds(), decoder.getTimes(), count);
+
+		response.setContentType(ICoreConstants.CONTENT_TYPE_PLAIN);
+		PrintWriter writer = response.getWriter();
+		writer.print("OK");
+	}
+}
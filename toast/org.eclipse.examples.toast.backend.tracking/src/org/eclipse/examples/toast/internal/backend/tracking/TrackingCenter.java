@@ -11,54 +11,243 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.internal.backend.tracking;
 
+import java.util.Iterator;
+import org.eclipse.examples.toast.backend.controlcenter.IControlCenter;
 import org.eclipse.examples.toast.backend.controlcenter.IData;
+import org.eclipse.examples.toast.backend.controlcenter.IDataListener;
+import org.eclipse.examples.toast.backend.controlcenter.IVehicleLocator;
 import org.eclipse.examples.toast.backend.data.IToastBackEndDataFactory;
 import org.eclipse.examples.toast.backend.data.ITrackedLocation;
 import org.eclipse.examples.toast.backend.data.IVehicle;
 import org.eclipse.examples.toast.backend.data.internal.TrackedLocation;
 import org.eclipse.examples.toast.backend.data.internal.Vehicle;
+import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.PropertyManager;
+import org.eclipse.examples.toast.core.tracking.DeadReckoning;
 import org.eclipse.examples.toast.core.tracking.ITrackingCenter;
+import org.eclipse.examples.toast.core.tracking.ITrackingConstants;
 
-public class TrackingCenter implements ITrackingCenter {
+public class TrackingCenter implements ITrackingCenter, IVehicleLocator {
+	private static final String GRID_CELL_PROPERTY = "toast.tracking.grid.cell"; //$NON-NLS-1$
+	private static final int GRID_CELL_DEFAULT = 1000;
 
 	private IData data;
+	private volatile IControlCenter controlCenter;
+	private TrackingHistory history;
+	private VehicleGrid grid;
+	private long predictionLimit;
+	private IDataListener dataListener;
 
 	public TrackingCenter() {
 		super();
+		// Fixes arrive through this center, but vehicles are removed through
+		// the data, so follow the data to keep the grid and the history free
+		// of them.
+		dataListener = new IDataListener() {
+			public void vehicleChanged(IVehicle vehicle) {
+				// Locations are indexed and recorded as they are posted.
+			}
+
+			public void vehicleRemoved(String name) {
+				grid.remove(name);
+				history.remove(name);
+			}
+		};
 	}
 
 	public void setData(IData value) {
 		data = value;
 	}
 
+	public void setControlCenter(IControlCenter value) {
+		controlCenter = value;
+	}
+
+	public void clearControlCenter(IControlCenter value) {
+		if (controlCenter == value)
+			controlCenter = null;
+	}
+
 	public void startup() {
+		history = new TrackingHistory(getHistoryDepth());
+		grid = new VehicleGrid(getGridCellSize());
+		predictionLimit = getTrackingDelay() * 1000L;
+		// Vehicles that have not reported since the last restart are still
+		// found at the location that was last saved for them.
+		for (Iterator i = data.getVehicles().iterator(); i.hasNext();) {
+			IVehicle vehicle = (IVehicle) i.next();
+			ITrackedLocation location = vehicle.getCurrentLocation();
+			if (location != null)
+				grid.update(vehicle.getName(), location.getLatitude(), location.getLongitude());
+		}
+		data.addListener(dataListener);
 	}
 
 	public void shutdown() {
+		data.removeListener(dataListener);
+		history.clear();
 	}
 
 	public void postTrackingLocation(String id, int latitude, int longitude, int heading, int speed) {
 		IVehicle vehicle = data.getVehicle(id);
 		if (vehicle == null)
 			return;
-		TrackedLocation location = createLocation(latitude, longitude, heading, speed);
+		TrackedLocation location = createLocation(latitude, longitude, heading, speed, System.currentTimeMillis());
 		System.out.println("Location reported");
 		System.out.println(location);
 		((Vehicle) vehicle).setCurrentLocation(location);
+		history.record(id, latitude, longitude, heading, speed, location.getTime());
+		grid.update(id, latitude, longitude);
+		update(vehicle);
+	}
+
+	public void postTrackingLocations(String[] ids, int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times, int count) {
+		String lastId = null;
+		IVehicle vehicle = null;
+		boolean changed = false;
+		for (int i = 0; i < count; i++) {
+			String id = ids[i];
+			if (lastId == null || !lastId.equals(id)) {
+				// Save each run of fixes for a vehicle once, with its latest fix.
+				if (changed)
+					update(vehicle);
+				vehicle = data.getVehicle(id);
+				lastId = id;
+				changed = false;
+			}
+			if (vehicle == null)
+				continue;
+			// Batched fixes may arrive late or out of order, never move a
+			// vehicle back to an older position.
+			ITrackedLocation current = vehicle.getCurrentLocation();
+			if (current != null && current.getTime() > times[i])
+				continue;
+			TrackedLocation location = createLocation(latitudes[i], longitudes[i], headings[i], speeds[i], times[i]);
+			((Vehicle) vehicle).setCurrentLocation(location);
+			history.record(id, latitudes[i], longitudes[i], headings[i], speeds[i], times[i]);
+			grid.update(id, latitudes[i], longitudes[i]);
+			changed = true;
+		}
+		if (changed)
+			update(vehicle);
 	}
 
-	private TrackedLocation createLocation(int latitude, int longitude, int heading, int speed) {
+	private void update(IVehicle vehicle) {
+		data.update(vehicle);
+		IControlCenter center = controlCenter;
+		if (center != null)
+			center.vehicleChanged(vehicle);
+	}
+
+	private TrackedLocation createLocation(int latitude, int longitude, int heading, int speed, long time) {
 		TrackedLocation location = (TrackedLocation) IToastBackEndDataFactory.eINSTANCE.createTrackedLocation();
 		location.setHeading(heading);
 		location.setLatitude(latitude);
 		location.setLongitude(longitude);
 		location.setSpeed(speed);
-		location.setTime(System.currentTimeMillis());
+		location.setTime(time);
 		return location;
 	}
 
 	public ITrackedLocation[] getTrackedLocations(String id) {
-		// TODO Auto-generated method stub
-		return null;
+		int depth = history.getDepth();
+		int[] latitudes = new int[depth];
+		int[] longitudes = new int[depth];
+		int[] headings = new int[depth];
+		int[] speeds = new int[depth];
+		long[] times = new long[depth];
+		int count = history.copy(id, latitudes, longitudes, headings, speeds, times);
+		ITrackedLocation[] locations = new ITrackedLocation[count];
+		for (int i = 0; i < count; i++)
+			locations[i] = createLocation(latitudes[i], longitudes[i], headings[i], speeds[i], times[i]);
+		return locations;
+	}
+
+	public ITrackedLocation getCurrentLocation(String id) {
+		IVehicle vehicle = data.getVehicle(id);
+		if (vehicle == null)
+			return null;
+		ITrackedLocation fix = vehicle.getCurrentLocation();
+		if (fix == null)
+			return null;
+		long elapsed = getPredictionTime(fix.getSpeed(), fix.getTime(), System.currentTimeMillis());
+		if (elapsed <= 0)
+			return fix;
+		return predict(fix.getLatitude(), fix.getLongitude(), fix.getHeading(), fix.getSpeed(), fix.getTime(), elapsed);
+	}
+
+	/*
+	 * Answer how far ahead of a fix to predict, or 0 if the fix stands as it
+	 * is. A client reports at least once per tracking delay, so a vehicle that
+	 * has been silent for longer is more likely offline than still moving; it
+	 * is left where the prediction had it at the end of that delay.
+	 */
+	private long getPredictionTime(int speed, long time, long now) {
+		if (speed <= 0)
+			return 0;
+		return Math.max(0, Math.min(now - time, predictionLimit));
+	}
+
+	private TrackedLocation predict(int latitude, int longitude, int heading, int speed, long time, long elapsed) {
+		int predictedLatitude = DeadReckoning.predictLatitude(latitude, heading, speed, elapsed);
+		int predictedLongitude = DeadReckoning.predictLongitude(latitude, longitude, heading, speed, elapsed);
+		return createLocation(predictedLatitude, predictedLongitude, heading, speed, time + elapsed);
+	}
+
+	public String[] findWithin(int latitude, int longitude, int radius) {
+		return grid.findWithin(latitude, longitude, radius);
+	}
+
+	public String[] findNearest(int latitude, int longitude, int count) {
+		return grid.findNearest(latitude, longitude, count);
+	}
+
+	public String[] findInside(int south, int west, int north, int east) {
+		return grid.findInside(south, west, north, east);
+	}
+
+	private int getGridCellSize() {
+		String value = PropertyManager.getProperty(GRID_CELL_PROPERTY);
+		if (value == null)
+			return GRID_CELL_DEFAULT;
+		try {
+			int size = Integer.parseInt(value.trim());
+			if (size > 0)
+				return size;
+		} catch (NumberFormatException e) {
+			// Fall through to the default.
+		}
+		LogUtility.logWarning(this, "Invalid " + GRID_CELL_PROPERTY + ": " + value);
+		return GRID_CELL_DEFAULT;
+	}
+
+	private int getTrackingDelay() {
+		String value = PropertyManager.getProperty(ITrackingConstants.TRACKING_DELAY_PROPERTY);
+		if (value == null)
+			return ITrackingConstants.TRACKING_DELAY_DEFAULT;
+		try {
+			int delay = Integer.parseInt(value.trim());
+			if (delay > 0)
+				return delay;
+		} catch (NumberFormatException e) {
+			// Fall through to the default.
+		}
+		LogUtility.logWarning(this, "Invalid tracking delay " + value + ", using " + ITrackingConstants.TRACKING_DELAY_DEFAULT);
+		return ITrackingConstants.TRACKING_DELAY_DEFAULT;
+	}
+
+	private int getHistoryDepth() {
+		String value = PropertyManager.getProperty(ITrackingConstants.TRACKING_HISTORY_PROPERTY);
+		if (value == null)
+			return ITrackingConstants.MAX_TRACKING_HISTORY;
+		try {
+			int depth = Integer.parseInt(value.trim());
+			if (depth > 0)
+				return depth;
+		} catch (NumberFormatException e) {
+			// Fall through to the default.
+		}
+		LogUtility.logWarning(this, "Invalid tracking history depth " + value + ", using " + ITrackingConstants.MAX_TRACKING_HISTORY);
+		return ITrackingConstants.MAX_TRACKING_HISTORY;
 	}
 }
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.tracking;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Recent tracking fixes for each vehicle, kept in memory. Each vehicle owns a
+ * fixed-size ring of primitive columns so that recording a fix allocates
+ * nothing once the ring exists, and reading the history never goes near the
+ * persistent store.
+ */
+public class TrackingHistory {
+	private int depth;
+	private Map rings;
+
+	public TrackingHistory(int depth) {
+		super();
+		if (depth < 1)
+			throw new IllegalArgumentException("depth must be at least 1"); //$NON-NLS-1$
+		this.depth = depth;
+		rings = new HashMap(101);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void record(String id, int latitude, int longitude, int heading, int speed, long time) {
+		getRing(id).add(latitude, longitude, heading, speed, time);
+	}
+
+	/**
+	 * Answer the number of fixes held for the vehicle and copy them, oldest
+	 * first, into the given arrays, each of which must hold at least
+	 * <code>getDepth()</code> elements.
+	 */
+	public int copy(String id, int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times) {
+		Ring ring;
+		synchronized (rings) {
+			ring = (Ring) rings.get(id);
+		}
+		if (ring == null)
+			return 0;
+		return ring.copy(latitudes, longitudes, headings, speeds, times);
+	}
+
+	public void remove(String id) {
+		synchronized (rings) {
+			rings.remove(id);
+		}
+	}
+
+	public void clear() {
+		synchronized (rings) {
+			rings.clear();
+		}
+	}
+
+	private Ring getRing(String id) {
+		synchronized (rings) {
+			Ring ring = (Ring) rings.get(id);
+			if (ring == null) {
+				ring = new Ring(depth);
+				rings.put(id, ring);
+			}
+			return ring;
+		}
+	}
+
+	private static class Ring {
+		private int[] latitudes;
+		private int[] longitudes;
+		private int[] headings;
+		private int[] speeds;
+		private long[] times;
+		private int next;
+		private int size;
+
+		Ring(int depth) {
+			latitudes = new int[depth];
+			longitudes = new int[depth];
+			headings = new int[depth];
+			speeds = new int[depth];
+			times = new long[depth];
+		}
+
+		synchronized void add(int latitude, int longitude, int heading, int speed, long time) {
+			latitudes[next] = latitude;
+			longitudes[next] = longitude;
+			headings[next] = heading;
+			speeds[next] = speed;
+			times[next] = time;
+			next = (next + 1) % times.length;
+			if (size < times.length)
+				size++;
+		}
+
+		synchronized int copy(int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times) {
+			int start = (next - size + this.times.length) % this.times.length;
+			for (int i = 0; i < size; i++) {
+				int index = (start + i) % this.times.length;
+				latitudes[i] = this.latitudes[index];
+				longitudes[i] = this.longitudes[index];
+				headings[i] = this.headings[index];
+				speeds[i] = this.speeds[index];
+				times[i] = this.times[index];
+			}
+			return size;
+		}
+	}
+}
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.backend.tracking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The latest location of each vehicle, bucketed into a grid of square cells
+ * so that radius, nearest and box queries only look at the cells around the
+ * area asked about. Updates for different vehicles run concurrently, and
+ * queries take no locks: each cell publishes its vehicles as an array that
+ * is replaced whenever a vehicle enters or leaves the cell. Locations are in
+ * hundred-thousandths of a degree; distances are in meters, measured on a
+ * flat projection that is accurate enough at city scale.
+ */
+public class VehicleGrid {
+	private static final double METERS_PER_UNIT = 1.1132;
+	private static final int FULL_CIRCLE = 36000000;
+	private static final int LOCK_STRIPES = 64;
+
+	private final int cellSize;
+	private final ConcurrentMap<String, Position> positions;
+	private final ConcurrentMap<Long, Cell> cells;
+	private final Object[] locks;
+
+	public VehicleGrid(int cellSize) {
+		super();
+		if (cellSize < 1)
+			throw new IllegalArgumentException("cellSize must be at least 1"); //$NON-NLS-1$
+		this.cellSize = cellSize;
+		positions = new ConcurrentHashMap<String, Position>(256);
+		cells = new ConcurrentHashMap<Long, Cell>(256);
+		locks = new Object[LOCK_STRIPES];
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+
+	public void update(String id, int latitude, int longitude) {
+		Position position = new Position(id, latitude, longitude, floor(latitude), floor(longitude));
+		// Fixes for one vehicle must move it between cells one at a time, or
+		// it could be left behind in a cell it has already left.
+		synchronized (locks[(id.hashCode() & Integer.MAX_VALUE) % locks.length]) {
+			Position old = positions.put(id, position);
+			if (old != null && (old.row != position.row || old.column != position.column))
+				removeFromCell(old);
+			addToCell(position);
+		}
+	}
+
+	public void remove(String id) {
+		synchronized (locks[(id.hashCode() & Integer.MAX_VALUE) % locks.length]) {
+			Position old = positions.remove(id);
+			if (old != null)
+				removeFromCell(old);
+		}
+	}
+
+	public int size() {
+		return positions.size();
+	}
+
+	public String[] findWithin(int latitude, int longitude, int radius) {
+		double scale = getLongitudeScale(latitude);
+		int latitudeSpan = (int) Math.ceil(radius / METERS_PER_UNIT);
+		int longitudeSpan = (int) Math.min(FULL_CIRCLE / 2, Math.ceil(latitudeSpan / scale));
+		List<Match> matches = new ArrayList<Match>();
+		for (Position position : findInsideBox(latitude - latitudeSpan, longitude - longitudeSpan, latitude + latitudeSpan, longitude + longitudeSpan)) {
+			double distance = distance(position, latitude, longitude, scale);
+			if (distance <= radius)
+				matches.add(new Match(position, distance));
+		}
+		return toSortedIds(matches, matches.size());
+	}
+
+	public String[] findNearest(int latitude, int longitude, int count) {
+		if (count <= 0)
+			return new String[0];
+		double scale = getLongitudeScale(latitude);
+		int row = floor(latitude);
+		int column = floor(longitude);
+		List<Match> matches = new ArrayList<Match>();
+		for (int ring = 0;; ring++) {
+			long side = 2L * ring + 1;
+			if (side * side > 4L * cells.size()) {
+				// The rings now cover more cells than are occupied, so it is
+				// cheaper to look at every occupied cell.
+				matches.clear();
+				for (Cell cell : cells.values())
+					addMatches(cell, latitude, longitude, scale, matches);
+				break;
+			}
+			for (int i = -ring; i <= ring; i++) {
+				addMatches(row - ring, column + i, latitude, longitude, scale, matches);
+				if (ring > 0)
+					addMatches(row + ring, column + i, latitude, longitude, scale, matches);
+			}
+			for (int i = 1 - ring; i < ring; i++) {
+				addMatches(row + i, column - ring, latitude, longitude, scale, matches);
+				addMatches(row + i, column + ring, latitude, longitude, scale, matches);
+			}
+			// Anything in a cell outside this ring is at least a ring of cells away.
+			if (matches.size() >= count) {
+				double reach = ring * cellSize * METERS_PER_UNIT * Math.min(1, scale);
+				Match[] sorted = matches.toArray(new Match[matches.size()]);
+				Arrays.sort(sorted);
+				if (sorted[count - 1].distance <= reach)
+					return toIds(sorted, count);
+			}
+		}
+		return toSortedIds(matches, count);
+	}
+
+	public String[] findInside(int south, int west, int north, int east) {
+		List<Position> found;
+		if (west <= east) {
+			found = findInsideBox(south, west, north, east);
+		} else {
+			found = findInsideBox(south, west, north, FULL_CIRCLE / 2);
+			found.addAll(findInsideBox(south, -FULL_CIRCLE / 2, north, east));
+		}
+		String[] ids = new String[found.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = found.get(i).id;
+		return ids;
+	}
+
+	private List<Position> findInsideBox(int south, int west, int north, int east) {
+		List<Position> found = new ArrayList<Position>();
+		int firstRow = floor(south);
+		int lastRow = floor(north);
+		int firstColumn = floor(west);
+		int lastColumn = floor(east);
+		long area = ((long) lastRow - firstRow + 1) * ((long) lastColumn - firstColumn + 1);
+		if (area > cells.size()) {
+			for (Cell cell : cells.values()) {
+				if (cell.row >= firstRow && cell.row <= lastRow && cell.column >= firstColumn && cell.column <= lastColumn)
+					addInside(cell, south, west, north, east, found);
+			}
+			return found;
+		}
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				Cell cell = cells.get(key(row, column));
+				if (cell != null)
+					addInside(cell, south, west, north, east, found);
+			}
+		}
+		return found;
+	}
+
+	private void addInside(Cell cell, int south, int west, int north, int east, List<Position> found) {
+		Position[] members = cell.members;
+		for (int i = 0; i < members.length; i++) {
+			Position position = members[i];
+			if (position.latitude >= south && position.latitude <= north && position.longitude >= west && position.longitude <= east)
+				found.add(position);
+		}
+	}
+
+	private void addMatches(int row, int column, int latitude, int longitude, double scale, List<Match> matches) {
+		Cell cell = cells.get(key(row, column));
+		if (cell != null)
+			addMatches(cell, latitude, longitude, scale, matches);
+	}
+
+	private void addMatches(Cell cell, int latitude, int longitude, double scale, List<Match> matches) {
+		Position[] members = cell.members;
+		for (int i = 0; i < members.length; i++)
+			matches.add(new Match(members[i], distance(members[i], latitude, longitude, scale)));
+	}
+
+	private void addToCell(Position position) {
+		Long key = key(position.row, position.column);
+		while (true) {
+			Cell cell = cells.get(key);
+			if (cell == null) {
+				Cell created = new Cell(position.row, position.column);
+				cell = cells.putIfAbsent(key, created);
+				if (cell == null)
+					cell = created;
+			}
+			if (cell.put(position))
+				return;
+			// The cell emptied and was dropped from the map; make a new one.
+		}
+	}
+
+	private void removeFromCell(Position position) {
+		Long key = key(position.row, position.column);
+		Cell cell = cells.get(key);
+		if (cell != null && cell.remove(position.id))
+			cells.remove(key, cell);
+	}
+
+	private int floor(int value) {
+		// Round down rather than towards zero, so no cell straddles zero.
+		int cell = value / cellSize;
+		return value < 0 && cell * cellSize != value ? cell - 1 : cell;
+	}
+
+	private static Long key(int row, int column) {
+		return Long.valueOf(((long) row << 32) | (column & 0xFFFFFFFFL));
+	}
+
+	private static double getLongitudeScale(int latitude) {
+		return Math.max(0.01, Math.cos(Math.toRadians(latitude / 100000.0)));
+	}
+
+	private static double distance(Position position, int latitude, int longitude, double scale) {
+		double dy = position.latitude - latitude;
+		double dx = (position.longitude - longitude) * scale;
+		return Math.sqrt(dx * dx + dy * dy) * METERS_PER_UNIT;
+	}
+
+	private static String[] toSortedIds(List<Match> matches, int count) {
+		Match[] sorted = matches.toArray(new Match[matches.size()]);
+		Arrays.sort(sorted);
+		return toIds(sorted, Math.min(count, sorted.length));
+	}
+
+	private static String[] toIds(Match[] matches, int count) {
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++)
+			ids[i] = matches[i].position.id;
+		return ids;
+	}
+
+	private static class Position {
+		final String id;
+		final int latitude;
+		final int longitude;
+		final int row;
+		final int column;
+
+		Position(String id, int latitude, int longitude, int row, int column) {
+			this.id = id;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.row = row;
+			this.column = column;
+		}
+	}
+
+	/**
+	 * The vehicles in one cell. Readers use whatever array is current; a
+	 * vehicle moving within the cell replaces its element in place, which is
+	 * safe to read without a lock because positions are immutable.
+	 */
+	private static class Cell {
+		final int row;
+		final int column;
+		volatile Position[] members = new Position[0];
+		private boolean dropped;
+
+		Cell(int row, int column) {
+			this.row = row;
+			this.column = column;
+		}
+
+		synchronized boolean put(Position position) {
+			if (dropped)
+				return false;
+			Position[] current = members;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].id.equals(position.id)) {
+					current[i] = position;
+					return true;
+				}
+			}
+			Position[] grown = new Position[current.length + 1];
+			System.arraycopy(current, 0, grown, 0, current.length);
+			grown[current.length] = position;
+			members = grown;
+			return true;
+		}
+
+		/**
+		 * Remove the vehicle, answering whether the cell is now empty and so
+		 * should be dropped from the grid.
+		 */
+		synchronized boolean remove(String id) {
+			Position[] current = members;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].id.equals(id)) {
+					Position[] shrunk = new Position[current.length - 1];
+					System.arraycopy(current, 0, shrunk, 0, i);
+					System.arraycopy(current, i + 1, shrunk, i, shrunk.length - i);
+					members = shrunk;
+					dropped = shrunk.length == 0;
+					return dropped;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class Match implements Comparable<Match> {
+		final Position position;
+		final double distance;
+
+		Match(Position position, double distance) {
+			this.position = position;
+			this.distance = distance;
+		}
+
+		public int compareTo(Match other) {
+			return Double.compare(distance, other.distance);
+		}
+	}
+}
@@ -18,11 +18,13 @@ import org.eclipse.examples.toast.core.PropertyManager;
 import org.eclipse.examples.toast.core.UrlBuilder;
 import org.eclipse.examples.toast.core.tracking.ITrackingCenter;
 import org.eclipse.examples.toast.core.tracking.ITrackingConstants;
+import org.eclipse.examples.toast.internal.backend.tracking.TrackingBatchServlet;
 import org.eclipse.examples.toast.internal.backend.tracking.TrackingServlet;
 import org.osgi.service.http.HttpService;
 
 public class Component {
 	private String servletAlias;
+	private String batchServletAlias;
 	private HttpService http;
 	private ITrackingCenter center;
 
@@ -44,6 +46,11 @@ public class Component {
 			HttpServlet servlet = new TrackingServlet(center);
 			http.registerServlet(servletAlias, servlet, null, null);
 			LogUtility.logDebug(this, "Registered TrackingServlet at " + servletAlias);
+
+			urlBuilder.appendPath(ITrackingConstants.BATCH_FUNCTION);
+			batchServletAlias = urlBuilder.getPath();
+			http.registerServlet(batchServletAlias, new TrackingBatchServlet(center), null, null);
+			LogUtility.logDebug(this, "Registered TrackingBatchServlet at " + batchServletAlias);
 		} catch (Exception e) {
 			LogUtility.logError(this, "Error registering servlet with HttpService", e);
 		}
@@ -51,5 +58,7 @@ public class Component {
 
 	protected void shutdown() {
 		http.unregister(servletAlias);
+		if (batchServletAlias != null)
+			http.unregister(batchServletAlias);
 	}
 }
@@ -17,4 +17,16 @@ public interface IEmergencyMonitor {
 	public void removeListener(IEmergencyMonitorListener listener);
 
 	public void emergency();
+
+	/**
+	 * Answer the number of emergencies not yet acknowledged by the back end.
+	 */
+	public int getPendingCount();
+
+	/**
+	 * Answer how long, in milliseconds, the back end took to acknowledge the
+	 * last emergency delivered, measured from when it happened, or -1 if none
+	 * has been acknowledged.
+	 */
+	public long getTimeToAcknowledge();
 }
@@ -12,6 +12,7 @@
 package org.eclipse.examples.toast.internal.client.emergency;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -30,22 +31,47 @@ import org.eclipse.examples.toast.core.PropertyManager;
 import org.eclipse.examples.toast.core.channel.sender.ChannelMessage;
 import org.eclipse.examples.toast.core.channel.sender.IChannel;
 import org.eclipse.examples.toast.core.emergency.IEmergencyConstants;
+import org.eclipse.examples.toast.core.tracking.ITrackingHistory;
 import org.eclipse.examples.toast.dev.airbag.IAirbag;
 import org.eclipse.examples.toast.dev.airbag.IAirbagListener;
 import org.eclipse.examples.toast.dev.gps.IGps;
 
+/**
+ * Reports emergencies to the back end. An emergency is recorded, along with
+ * the most recent tracking fixes, in a file of pending emergencies before it
+ * is sent, and is sent as an urgent message until the back end acknowledges
+ * it, backing off exponentially between attempts. Pending emergencies are
+ * delivered in order, including any left over from before a restart.
+ */
 public class EmergencyMonitor implements IAirbagListener, IEmergencyMonitor {
+	private static final String PENDING_FILE_PROPERTY = "toast.emergency.pending.file"; //$NON-NLS-1$
+	private static final String HISTORY_PROPERTY = "toast.emergency.history"; //$NON-NLS-1$
+	private static final int HISTORY_DEFAULT = 10;
+	private static final String RETRY_INITIAL_PROPERTY = "toast.emergency.retry.initial"; //$NON-NLS-1$
+	private static final int RETRY_INITIAL_DEFAULT = 1000;
+	private static final String RETRY_MAXIMUM_PROPERTY = "toast.emergency.retry.maximum"; //$NON-NLS-1$
+	private static final int RETRY_MAXIMUM_DEFAULT = 60000;
+
 	private IAirbag airbag;
 	private IChannel channel;
 	private IGps gps;
+	private ITrackingHistory history;
 	private final String id;
 	private Job job;
 	private List listeners;
+	private PendingEmergencies pending;
+	private ChannelMessage message;
+	private int historySize;
+	private long retryInitial;
+	private long retryMaximum;
+	private int attempts;
+	private long timeToAcknowledge;
 
 	public EmergencyMonitor() {
 		super();
 		listeners = new ArrayList(3);
 		id = PropertyManager.getProperty(ICoreConstants.ID_PROPERTY, ICoreConstants.ID_DEFAULT);
+		timeToAcknowledge = -1;
 	}
 
 	public void addListener(IEmergencyMonitorListener listener) {
@@ -55,11 +81,19 @@ public class EmergencyMonitor implements IAirbagListener, IEmergencyMonitor {
 	}
 
 	public void deployed() {
-		startJob();
+		recordEmergency();
 	}
 
 	public void emergency() {
-		startJob();
+		recordEmergency();
+	}
+
+	public int getPendingCount() {
+		return pending == null ? 0 : pending.size();
+	}
+
+	public synchronized long getTimeToAcknowledge() {
+		return timeToAcknowledge;
 	}
 
 	private void notifyFailed(Exception e) {
@@ -95,36 +129,93 @@ public class EmergencyMonitor implements IAirbagListener, IEmergencyMonitor {
 		}
 	}
 
-	private void runEmergencyProcess() {
-		notifyStarted();
+	private void recordEmergency() {
+		long time = System.currentTimeMillis();
 		int latitude = gps.getLatitude();
 		int longitude = gps.getLongitude();
 		int heading = gps.getHeading();
 		int speed = gps.getSpeed();
-		ChannelMessage message = new ChannelMessage(IEmergencyConstants.EMERGENCY_FUNCTION);
-		message.addParameter(ICoreConstants.ID_PARAMETER, id);
-		message.addParameter(IEmergencyConstants.LATITUDE_PARAMETER, latitude);
-		message.addParameter(IEmergencyConstants.LONGITUDE_PARAMETER, longitude);
-		message.addParameter(IEmergencyConstants.HEADING_PARAMETER, heading);
-		message.addParameter(IEmergencyConstants.SPEED_PARAMETER, speed);
-		InputStream stream = null;
-		try {
+		pending.add(new PendingEmergencies.Emergency(time, latitude, longitude, heading, speed, getHistory()));
+		notifyStarted();
+		startJob();
+	}
+
+	private String getHistory() {
+		ITrackingHistory current = history;
+		if (current == null || historySize <= 0)
+			return null;
+		int[] latitudes = new int[historySize];
+		int[] longitudes = new int[historySize];
+		int[] headings = new int[historySize];
+		int[] speeds = new int[historySize];
+		long[] times = new long[historySize];
+		int count = current.copyRecentFixes(latitudes, longitudes, headings, speeds, times);
+		if (count == 0)
+			return null;
+		StringBuffer buffer = new StringBuffer(count * 40);
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				buffer.append(';');
+			buffer.append(latitudes[i]).append(',');
+			buffer.append(longitudes[i]).append(',');
+			buffer.append(headings[i]).append(',');
+			buffer.append(speeds[i]).append(',');
+			buffer.append(times[i]);
+		}
+		return buffer.toString();
+	}
+
+	/*
+	 * Deliver the pending emergencies, oldest first. Answer the delay before
+	 * the next attempt, or -1 if there is nothing left to deliver.
+	 */
+	private long runEmergencyProcess(IProgressMonitor monitor) {
+		PendingEmergencies.Emergency emergency;
+		while (!monitor.isCanceled() && (emergency = pending.peek()) != null) {
+			message.reset();
+			message.addParameter(ICoreConstants.ID_PARAMETER, id);
+			message.addParameter(IEmergencyConstants.LATITUDE_PARAMETER, emergency.latitude);
+			message.addParameter(IEmergencyConstants.LONGITUDE_PARAMETER, emergency.longitude);
+			message.addParameter(IEmergencyConstants.HEADING_PARAMETER, emergency.heading);
+			message.addParameter(IEmergencyConstants.SPEED_PARAMETER, emergency.speed);
+			message.addParameter(IEmergencyConstants.TIME_PARAMETER, Long.toString(emergency.time));
+			if (emergency.history != null)
+				message.addParameter(IEmergencyConstants.HISTORY_PARAMETER, emergency.history);
+			String reply;
 			try {
-				stream = channel.send(message);
-				InputStreamReader reader = new InputStreamReader(stream);
-				BufferedReader buffer = new BufferedReader(reader);
-				String reply = buffer.readLine();
-				notifySucceeded(reply);
-				LogUtility.logDebug(this, "Received reply: " + reply);
-			} finally {
-				if (stream != null)
-					stream.close();
+				reply = send(message);
+			} catch (IOException e) {
+				attempts++;
+				long delay = Math.min(retryInitial << Math.min(attempts - 1, 20), retryMaximum);
+				LogUtility.logDebug(this, "Unable to send to back end, retrying in " + delay + " ms: ", e);
+				notifyFailed(e);
+				return delay;
+			}
+			long elapsed = System.currentTimeMillis() - emergency.time;
+			pending.remove(emergency);
+			attempts = 0;
+			synchronized (this) {
+				timeToAcknowledge = elapsed;
 			}
-		} catch (IOException e) {
-			notifyFailed(e);
-			LogUtility.logDebug(this, "Unable to send to back end: ", e);
+			LogUtility.logInfo(this, "Emergency acknowledged after " + elapsed + " ms: " + reply);
+			notifySucceeded(reply);
+		}
+		return -1;
+	}
+
+	private String send(ChannelMessage message) throws IOException {
+		InputStream stream = null;
+		try {
+			stream = channel.send(message);
+			InputStreamReader reader = new InputStreamReader(stream);
+			BufferedReader buffer = new BufferedReader(reader);
+			String reply = buffer.readLine();
+			LogUtility.logDebug(this, "Received reply: " + reply);
+			return reply;
+		} finally {
+			if (stream != null)
+				stream.close();
 		}
-		job = null;
 	}
 
 	public void setAirbag(IAirbag value) {
@@ -139,37 +230,75 @@ public class EmergencyMonitor implements IAirbagListener, IEmergencyMonitor {
 		gps = value;
 	}
 
+	public void setTrackingHistory(ITrackingHistory value) {
+		history = value;
+	}
+
+	public void clearTrackingHistory(ITrackingHistory value) {
+		if (history == value)
+			history = null;
+	}
+
 	public void shutdown() {
 		stopJob();
 		airbag.removeListener(this);
 	}
 
-	private void startJob() {
-		if (job != null) {
-			return;
+	private synchronized void startJob() {
+		if (job == null) {
+			job = new Job("EmergencyMonitor") {
+				protected IStatus run(IProgressMonitor monitor) {
+					long delay = runEmergencyProcess(monitor);
+					if (delay >= 0 && !monitor.isCanceled())
+						schedule(delay);
+					return Status.OK_STATUS;
+				}
+			};
 		}
-		job = new Job("EmergencyMonitor") {
-			protected IStatus run(IProgressMonitor monitor) {
-				runEmergencyProcess();
-				return Status.OK_STATUS;
-			}
-		};
+		// Run now, even if the job is waiting to retry.
 		job.schedule();
+		job.wakeUp();
 	}
 
 	public void startup() {
+		historySize = getIntProperty(HISTORY_PROPERTY, HISTORY_DEFAULT);
+		retryInitial = Math.max(1, getIntProperty(RETRY_INITIAL_PROPERTY, RETRY_INITIAL_DEFAULT));
+		retryMaximum = Math.max(retryInitial, getIntProperty(RETRY_MAXIMUM_PROPERTY, RETRY_MAXIMUM_DEFAULT));
+		String location = PropertyManager.getProperty(PENDING_FILE_PROPERTY, "emergency-" + id + ".pending"); //$NON-NLS-1$ //$NON-NLS-2$
+		pending = new PendingEmergencies(new File(location));
+		pending.load();
+		message = new ChannelMessage(IEmergencyConstants.EMERGENCY_FUNCTION);
+		message.setUrgent(true);
 		airbag.addListener(this);
+		if (pending.size() > 0)
+			startJob();
 	}
 
 	private void stopJob() {
-		if (job != null) {
-			job.cancel();
+		Job current;
+		synchronized (this) {
+			current = job;
+			job = null;
+		}
+		if (current != null) {
+			current.cancel();
 			try {
-				job.join();
+				current.join();
 			} catch (InterruptedException e) {
 				// shutting down, ok to ignore
 			}
-			job = null;
+		}
+	}
+
+	private int getIntProperty(String name, int defaultValue) {
+		String value = PropertyManager.getProperty(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			LogUtility.logWarning(this, "Invalid value for " + name + ": " + value);
+			return defaultValue;
 		}
 	}
 }
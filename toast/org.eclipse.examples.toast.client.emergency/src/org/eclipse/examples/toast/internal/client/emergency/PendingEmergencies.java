@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.client.emergency;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.eclipse.examples.toast.core.LogUtility;
+
+/**
+ * The emergencies that have not yet been acknowledged by the back end, oldest
+ * first. The list is written to a file whenever it changes, so that an
+ * emergency survives a restart of the client until it has been delivered.
+ */
+public class PendingEmergencies {
+	private static final String COUNT_KEY = "count"; //$NON-NLS-1$
+	private static final String PREFIX = "emergency."; //$NON-NLS-1$
+	private static final String TIME_KEY = ".time"; //$NON-NLS-1$
+	private static final String LATITUDE_KEY = ".latitude"; //$NON-NLS-1$
+	private static final String LONGITUDE_KEY = ".longitude"; //$NON-NLS-1$
+	private static final String HEADING_KEY = ".heading"; //$NON-NLS-1$
+	private static final String SPEED_KEY = ".speed"; //$NON-NLS-1$
+	private static final String HISTORY_KEY = ".history"; //$NON-NLS-1$
+
+	public static class Emergency {
+		final long time;
+		final int latitude;
+		final int longitude;
+		final int heading;
+		final int speed;
+		final String history;
+
+		public Emergency(long time, int latitude, int longitude, int heading, int speed, String history) {
+			super();
+			this.time = time;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.heading = heading;
+			this.speed = speed;
+			this.history = history;
+		}
+	}
+
+	private File file;
+	private List emergencies;
+
+	public PendingEmergencies(File file) {
+		super();
+		this.file = file;
+		emergencies = new ArrayList(3);
+	}
+
+	public synchronized void load() {
+		emergencies.clear();
+		if (!file.exists())
+			return;
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			int count = Integer.parseInt(properties.getProperty(COUNT_KEY, "0"));
+			for (int i = 0; i < count; i++) {
+				String prefix = PREFIX + i;
+				long time = Long.parseLong(properties.getProperty(prefix + TIME_KEY));
+				int latitude = Integer.parseInt(properties.getProperty(prefix + LATITUDE_KEY));
+				int longitude = Integer.parseInt(properties.getProperty(prefix + LONGITUDE_KEY));
+				int heading = Integer.parseInt(properties.getProperty(prefix + HEADING_KEY));
+				int speed = Integer.parseInt(properties.getProperty(prefix + SPEED_KEY));
+				String history = properties.getProperty(prefix + HISTORY_KEY);
+				emergencies.add(new Emergency(time, latitude, longitude, heading, speed, history));
+			}
+		} catch (IOException e) {
+			LogUtility.logError(this, "Unable to read pending emergencies from " + file, e);
+		} catch (RuntimeException e) {
+			// A malformed entry; keep the emergencies read so far.
+			LogUtility.logError(this, "Invalid pending emergencies in " + file, e);
+		}
+		if (!emergencies.isEmpty())
+			LogUtility.logInfo(this, emergencies.size() + " emergencies still to be delivered");
+	}
+
+	public synchronized void add(Emergency emergency) {
+		emergencies.add(emergency);
+		save();
+	}
+
+	public synchronized Emergency peek() {
+		return emergencies.isEmpty() ? null : (Emergency) emergencies.get(0);
+	}
+
+	public synchronized void remove(Emergency emergency) {
+		if (emergencies.remove(emergency))
+			save();
+	}
+
+	public synchronized int size() {
+		return emergencies.size();
+	}
+
+	// Private
+	private void save() {
+		Properties properties = new Properties();
+		properties.setProperty(COUNT_KEY, Integer.toString(emergencies.size()));
+		for (int i = 0; i < emergencies.size(); i++) {
+			Emergency emergency = (Emergency) emergencies.get(i);
+			String prefix = PREFIX + i;
+			properties.setProperty(prefix + TIME_KEY, Long.toString(emergency.time));
+			properties.setProperty(prefix + LATITUDE_KEY, Integer.toString(emergency.latitude));
+			properties.setProperty(prefix + LONGITUDE_KEY, Integer.toString(emergency.longitude));
+			properties.setProperty(prefix + HEADING_KEY, Integer.toString(emergency.heading));
+			properties.setProperty(prefix + SPEED_KEY, Integer.toString(emergency.speed));
+			if (emergency.history != null)
+				properties.setProperty(prefix + HISTORY_KEY, emergency.history);
+		}
+		// Write a new file and then replace the old one, so that a crash while
+		// saving cannot lose the emergencies already recorded.
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		File temporary = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+		try {
+			FileOutputStream out = new FileOutputStream(temporary);
+			try {
+				properties.store(out, "Toast pending emergencies"); //$NON-NLS-1$
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			if (!temporary.renameTo(file)) {
+				file.delete();
+				if (!temporary.renameTo(file))
+					throw new IOException("Unable to rename " + temporary + " to " + file);
+			}
+		} catch (IOException e) {
+			LogUtility.logError(this, "Unable to save pending emergencies to " + file, e);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.client.tracking;
+
+import org.eclipse.examples.toast.core.tracking.DeadReckoning;
+
+/**
+ * Decides which GPS samples are worth reporting. A sample is reported when
+ * the vehicle is at least a threshold distance from where the last report
+ * predicts it to be (see {@link DeadReckoning}) or, while moving, has turned
+ * through at least a threshold angle since the last report. Reports
+ * are never closer together than the minimum interval and never further
+ * apart than the maximum interval, so a parked vehicle still reports
+ * periodically and a fast, twisting one does not flood the back end.
+ */
+public class AdaptiveSampler {
+	private long minimumInterval;
+	private long maximumInterval;
+	private long distanceSquared;
+	private int headingThreshold;
+	private boolean reported;
+	private int lastLatitude;
+	private int lastLongitude;
+	private int lastHeading;
+	private int lastSpeed;
+	private long lastTime;
+	private long samples;
+	private long reports;
+
+	/**
+	 * @param minimumInterval the shortest time between reports, in
+	 * milliseconds
+	 * @param maximumInterval the longest time between reports, in milliseconds
+	 * @param distance the distance, in TUD, the vehicle must stray from its
+	 * predicted position to be reported
+	 * @param headingThreshold the change in heading, in degrees, that is
+	 * reported at once
+	 */
+	public AdaptiveSampler(long minimumInterval, long maximumInterval, int distance, int headingThreshold) {
+		super();
+		this.minimumInterval = minimumInterval;
+		this.maximumInterval = Math.max(minimumInterval, maximumInterval);
+		this.distanceSquared = (long) distance * distance;
+		this.headingThreshold = headingThreshold;
+	}
+
+	/**
+	 * Answer whether the sample should be reported, remembering it as the
+	 * last report if so.
+	 */
+	public synchronized boolean sample(int latitude, int longitude, int heading, int speed, long time) {
+		samples++;
+		if (!shouldReport(latitude, longitude, heading, speed, time))
+			return false;
+		reported = true;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastHeading = heading;
+		lastSpeed = speed;
+		lastTime = time;
+		reports++;
+		return true;
+	}
+
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	public synchronized long getReports() {
+		return reports;
+	}
+
+	public long getMinimumInterval() {
+		return minimumInterval;
+	}
+
+	// Private
+	private boolean shouldReport(int latitude, int longitude, int heading, int speed, long time) {
+		if (!reported)
+			return true;
+		long elapsed = time - lastTime;
+		if (elapsed < 0)
+			return true; // the clock went backwards, start afresh
+		if (elapsed < minimumInterval)
+			return false;
+		if (elapsed >= maximumInterval)
+			return true;
+		// A parked vehicle's heading is noise, so only turns while moving count.
+		if (speed > 0 && getHeadingChange(heading) >= headingThreshold)
+			return true;
+		int predictedLatitude = DeadReckoning.predictLatitude(lastLatitude, lastHeading, lastSpeed, elapsed);
+		int predictedLongitude = DeadReckoning.predictLongitude(lastLatitude, lastLongitude, lastHeading, lastSpeed, elapsed);
+		return DeadReckoning.getDistanceSquared(predictedLatitude, predictedLongitude, latitude, longitude) >= distanceSquared;
+	}
+
+	private int getHeadingChange(int heading) {
+		int change = Math.abs(heading - lastHeading) % 360;
+		return change > 180 ? 360 - change : change;
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.client.tracking;
+
+import org.eclipse.examples.toast.core.tracking.ITrackingHistory;
+
+/**
+ * A small in-memory ring of the most recent fixes.
+ */
+public class RecentFixes implements ITrackingHistory {
+	private int[] latitudes;
+	private int[] longitudes;
+	private int[] headings;
+	private int[] speeds;
+	private long[] times;
+	private int next;
+	private int size;
+
+	public RecentFixes(int capacity) {
+		super();
+		latitudes = new int[capacity];
+		longitudes = new int[capacity];
+		headings = new int[capacity];
+		speeds = new int[capacity];
+		times = new long[capacity];
+	}
+
+	public synchronized void record(int latitude, int longitude, int heading, int speed, long time) {
+		latitudes[next] = latitude;
+		longitudes[next] = longitude;
+		headings[next] = heading;
+		speeds[next] = speed;
+		times[next] = time;
+		next = (next + 1) % latitudes.length;
+		if (size < latitudes.length)
+			size++;
+	}
+
+	public synchronized int copyRecentFixes(int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times) {
+		int count = Math.min(size, latitudes.length);
+		int start = next - count;
+		if (start < 0)
+			start += this.latitudes.length;
+		for (int i = 0; i < count; i++) {
+			int index = (start + i) % this.latitudes.length;
+			latitudes[i] = this.latitudes[index];
+			longitudes[i] = this.longitudes[index];
+			headings[i] = this.headings[index];
+			speeds[i] = this.speeds[index];
+			times[i] = this.times[index];
+		}
+		return count;
+	}
+}
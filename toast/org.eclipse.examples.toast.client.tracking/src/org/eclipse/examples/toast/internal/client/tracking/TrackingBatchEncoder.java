@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.client.tracking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.eclipse.examples.toast.core.tracking.ITrackingConstants;
+
+/**
+ * Encodes a vehicle's fixes into a batch frame, in either the absolute or the
+ * delta format described in {@link ITrackingConstants}. The encoder owns a
+ * single buffer large enough for its maximum batch and is reused from batch
+ * to batch.
+ */
+public class TrackingBatchEncoder {
+	private static final int FRAME_HEADER_SIZE = 5;
+	private static final int COUNT_OFFSET = 1;
+	private static final int MAX_VARINT_SIZE = 5;
+	private static final int MAX_VARLONG_SIZE = 10;
+
+	private byte format;
+	private byte[] id;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+	private int maximum;
+	private int count;
+	private int lastLatitude;
+	private int lastLongitude;
+	private int lastHeading;
+	private int lastSpeed;
+	private long lastTime;
+
+	public TrackingBatchEncoder(String id, int maximum, byte format) throws IOException {
+		super();
+		if (maximum <= 0 || maximum > ITrackingConstants.MAX_BATCH_RECORDS)
+			throw new IllegalArgumentException("maximum must be between 1 and " + ITrackingConstants.MAX_BATCH_RECORDS);
+		if (format != ITrackingConstants.BATCH_FORMAT_ABSOLUTE && format != ITrackingConstants.BATCH_FORMAT_DELTA)
+			throw new IllegalArgumentException("Unsupported tracking batch format: " + format);
+		this.id = id.getBytes("UTF-8"); //$NON-NLS-1$
+		if (this.id.length > Short.MAX_VALUE)
+			throw new IllegalArgumentException("id is too long");
+		this.maximum = maximum;
+		this.format = format;
+		int size;
+		if (format == ITrackingConstants.BATCH_FORMAT_DELTA)
+			size = MAX_VARINT_SIZE + this.id.length + maximum * (4 * MAX_VARINT_SIZE + MAX_VARLONG_SIZE);
+		else
+			size = maximum * (2 + this.id.length + 4 + 4 + 2 + 2 + 8);
+		bytes = new byte[FRAME_HEADER_SIZE + size];
+		buffer = ByteBuffer.wrap(bytes);
+		reset();
+	}
+
+	public void reset() {
+		buffer.clear();
+		buffer.put(format);
+		buffer.putInt(0);
+		if (format == ITrackingConstants.BATCH_FORMAT_DELTA) {
+			putVarint(id.length);
+			buffer.put(id);
+		}
+		count = 0;
+	}
+
+	public void add(int latitude, int longitude, int heading, int speed, long time) {
+		if (count == maximum)
+			throw new IllegalStateException("batch is full");
+		if (format == ITrackingConstants.BATCH_FORMAT_DELTA)
+			addDelta(latitude, longitude, heading, speed, time);
+		else
+			addAbsolute(latitude, longitude, heading, speed, time);
+		count++;
+		buffer.putInt(COUNT_OFFSET, count);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getMaximum() {
+		return maximum;
+	}
+
+	public byte getFormat() {
+		return format;
+	}
+
+	/**
+	 * Answer the buffer holding the frame. Only the first
+	 * {@link #getLength()} bytes are valid.
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getLength() {
+		return buffer.position();
+	}
+
+	// Private
+	private void addAbsolute(int latitude, int longitude, int heading, int speed, long time) {
+		buffer.putShort((short) id.length);
+		buffer.put(id);
+		buffer.putInt(latitude);
+		buffer.putInt(longitude);
+		buffer.putShort((short) heading);
+		buffer.putShort((short) speed);
+		buffer.putLong(time);
+	}
+
+	private void addDelta(int latitude, int longitude, int heading, int speed, long time) {
+		// The first record of each frame is a key frame, so that every frame
+		// can be decoded on its own.
+		if (count == 0) {
+			putSignedVarint(latitude);
+			putSignedVarint(longitude);
+			putSignedVarint(heading);
+			putSignedVarint(speed);
+			putSignedVarlong(time);
+		} else {
+			putSignedVarint(latitude - lastLatitude);
+			putSignedVarint(longitude - lastLongitude);
+			putSignedVarint(heading - lastHeading);
+			putSignedVarint(speed - lastSpeed);
+			putSignedVarlong(time - lastTime);
+		}
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastHeading = heading;
+		lastSpeed = speed;
+		lastTime = time;
+	}
+
+	private void putSignedVarint(int value) {
+		// Zig-zag encoding keeps small negative values small.
+		putVarint((value << 1) ^ (value >> 31));
+	}
+
+	private void putVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void putSignedVarlong(long value) {
+		long encoded = (value << 1) ^ (value >> 63);
+		while ((encoded & ~0x7FL) != 0) {
+			buffer.put((byte) ((encoded & 0x7F) | 0x80));
+			encoded >>>= 7;
+		}
+		buffer.put((byte) encoded);
+	}
+}
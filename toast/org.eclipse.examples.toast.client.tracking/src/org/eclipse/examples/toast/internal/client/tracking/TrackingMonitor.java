@@ -11,10 +11,9 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.internal.client.tracking;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -25,17 +24,30 @@ import org.eclipse.examples.toast.core.PropertyManager;
 import org.eclipse.examples.toast.core.channel.sender.ChannelMessage;
 import org.eclipse.examples.toast.core.channel.sender.IChannel;
 import org.eclipse.examples.toast.core.tracking.ITrackingConstants;
+import org.eclipse.examples.toast.core.tracking.ITrackingHistory;
 import org.eclipse.examples.toast.dev.gps.IGps;
 
-public class TrackingMonitor {
+public class TrackingMonitor implements ITrackingHistory {
+	private static final int MAX_RECENT_FIXES = 32;
+
 	private IGps gps;
 	private IChannel channel;
 	private Job job;
 	private String id;
 	private int delay;
+	private long period;
+	private AdaptiveSampler sampler;
+	private RecentFixes recentFixes;
+	private TrackingOutbox outbox;
+	private TrackingBatchEncoder encoder;
+	private ChannelMessage message;
+	private ChannelMessage batchMessage;
+	private StringBuffer reply;
 
 	public TrackingMonitor() {
 		super();
+		recentFixes = new RecentFixes(MAX_RECENT_FIXES);
+		reply = new StringBuffer(16);
 	}
 
 	public void setGps(IGps value) {
@@ -55,12 +67,32 @@ public class TrackingMonitor {
 			delay = ITrackingConstants.TRACKING_DELAY_DEFAULT;
 		else
 			delay = Integer.parseInt(delaySpec);
-		LogUtility.logDebug(this, "Tracking every " + delay + " seconds");
+		if (PropertyManager.getBooleanProperty(ITrackingConstants.ADAPTIVE_PROPERTY)) {
+			int interval = Math.max(1, getIntProperty(ITrackingConstants.ADAPTIVE_INTERVAL_PROPERTY, ITrackingConstants.ADAPTIVE_INTERVAL_DEFAULT));
+			int distance = getIntProperty(ITrackingConstants.ADAPTIVE_DISTANCE_PROPERTY, ITrackingConstants.ADAPTIVE_DISTANCE_DEFAULT);
+			int heading = getIntProperty(ITrackingConstants.ADAPTIVE_HEADING_PROPERTY, ITrackingConstants.ADAPTIVE_HEADING_DEFAULT);
+			sampler = new AdaptiveSampler(interval, delay * 1000L, distance, heading);
+			period = interval;
+			LogUtility.logDebug(this, "Tracking adaptively every " + interval + " ms, at least every " + delay + " seconds");
+		} else {
+			sampler = null;
+			period = delay * 1000L;
+			LogUtility.logDebug(this, "Tracking every " + delay + " seconds");
+		}
+		message = new ChannelMessage(ITrackingConstants.TRACKING_FUNCTION);
+		openOutbox();
 		startJob();
 	}
 
+	public int copyRecentFixes(int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times) {
+		return recentFixes.copyRecentFixes(latitudes, longitudes, headings, speeds, times);
+	}
+
 	public void shutdown() {
 		stopJob();
+		closeOutbox();
+		if (sampler != null)
+			LogUtility.logDebug(this, "Reported " + sampler.getReports() + " of " + sampler.getSamples() + " samples");
 	}
 
 	// Private
@@ -69,14 +101,14 @@ public class TrackingMonitor {
 			return;
 		}
 		job = createJob();
-		job.schedule(delay * 1000);
+		job.schedule(period);
 	}
 
 	private Job createJob() {
 		return new Job(toString()) {
 			protected IStatus run(IProgressMonitor monitor) {
-				TrackingMonitor.this.runTrackingProcess();
-				schedule(delay * 1000);
+				TrackingMonitor.this.runTrackingProcess(monitor);
+				schedule(period);
 				return Status.OK_STATUS;
 			}
 		};
@@ -94,31 +126,128 @@ public class TrackingMonitor {
 		}
 	}
 
-	private void runTrackingProcess() {
+	private void openOutbox() {
+		String location = PropertyManager.getProperty(ITrackingConstants.OUTBOX_FILE_PROPERTY, "tracking-" + id + ".outbox"); //$NON-NLS-1$ //$NON-NLS-2$
+		int capacity = getIntProperty(ITrackingConstants.OUTBOX_CAPACITY_PROPERTY, ITrackingConstants.OUTBOX_CAPACITY_DEFAULT);
+		int retention = getIntProperty(ITrackingConstants.OUTBOX_RETENTION_PROPERTY, ITrackingConstants.OUTBOX_RETENTION_DEFAULT);
+		int batch = getIntProperty(ITrackingConstants.OUTBOX_BATCH_PROPERTY, ITrackingConstants.OUTBOX_BATCH_DEFAULT);
+		batch = Math.max(1, Math.min(batch, ITrackingConstants.MAX_BATCH_RECORDS));
+		try {
+			boolean delta = PropertyManager.getBooleanProperty(ITrackingConstants.OUTBOX_DELTA_PROPERTY, true);
+			encoder = new TrackingBatchEncoder(id, batch, delta ? ITrackingConstants.BATCH_FORMAT_DELTA : ITrackingConstants.BATCH_FORMAT_ABSOLUTE);
+			outbox = new TrackingOutbox(new File(location), capacity, retention * 1000L);
+		} catch (IOException e) {
+			LogUtility.logWarning(this, "Unable to open tracking outbox " + location + ", fixes will not be queued", e);
+			encoder = null;
+			outbox = null;
+			return;
+		}
+		batchMessage = new ChannelMessage(ITrackingConstants.TRACKING_FUNCTION + '/' + ITrackingConstants.BATCH_FUNCTION);
+	}
+
+	private void closeOutbox() {
+		if (outbox == null)
+			return;
+		outbox.close();
+		outbox = null;
+	}
+
+	private int getIntProperty(String name, int defaultValue) {
+		String value = PropertyManager.getProperty(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			LogUtility.logWarning(this, "Invalid value for " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private void runTrackingProcess(IProgressMonitor monitor) {
 		int latitude = gps.getLatitude();
 		int longitude = gps.getLongitude();
 		int heading = gps.getHeading();
 		int speed = gps.getSpeed();
-		ChannelMessage message = new ChannelMessage(ITrackingConstants.TRACKING_FUNCTION);
+		long now = System.currentTimeMillis();
+		recentFixes.record(latitude, longitude, heading, speed, now);
+		boolean report = sampler == null || sampler.sample(latitude, longitude, heading, speed, now);
+		if (outbox == null) {
+			if (report)
+				sendLocation(latitude, longitude, heading, speed);
+			return;
+		}
+		if (report)
+			outbox.append(latitude, longitude, heading, speed, now);
+		// Fixes queued while the back end was unreachable go out on the next
+		// tick, whether or not this one is reported.
+		sendOutbox(monitor);
+	}
+
+	/*
+	 * Send the queued fixes, oldest first, a batch at a time. A batch is only
+	 * removed from the outbox once the back end has acknowledged it, so if the
+	 * back end cannot be reached the fixes stay queued for the next run.
+	 */
+	private void sendOutbox(IProgressMonitor monitor) {
+		while (!monitor.isCanceled()) {
+			encoder.reset();
+			int count = outbox.peek(encoder, encoder.getMaximum(), System.currentTimeMillis());
+			if (count == 0)
+				return;
+			batchMessage.setContent(ITrackingConstants.CONTENT_TYPE_BATCH, encoder.getBytes(), encoder.getLength());
+			boolean accepted;
+			try {
+				accepted = send(batchMessage);
+			} catch (IOException e) {
+				LogUtility.logDebug(this, "Unable to send to back end, " + outbox.size() + " fixes queued: ", e);
+				return;
+			}
+			if (!accepted) {
+				LogUtility.logWarning(this, "Back end did not accept tracking batch: " + reply);
+				return;
+			}
+			outbox.remove(count);
+		}
+	}
+
+	private void sendLocation(int latitude, int longitude, int heading, int speed) {
+		message.reset();
 		message.addParameter(ICoreConstants.ID_PARAMETER, id);
 		message.addParameter(ITrackingConstants.LATITUDE_PARAMETER, latitude);
 		message.addParameter(ITrackingConstants.LONGITUDE_PARAMETER, longitude);
 		message.addParameter(ITrackingConstants.HEADING_PARAMETER, heading);
 		message.addParameter(ITrackingConstants.SPEED_PARAMETER, speed);
-		InputStream stream = null;
 		try {
-			try {
-				stream = channel.send(message);
-				InputStreamReader reader = new InputStreamReader(stream);
-				BufferedReader buffer = new BufferedReader(reader);
-				String reply = buffer.readLine();
-				LogUtility.logDebug(this, "Received reply: " + reply);
-			} finally {
-				if (stream != null)
-					stream.close();
-			}
+			send(message);
 		} catch (IOException e) {
 			LogUtility.logDebug(this, "Unable to send to back end: ", e);
 		}
 	}
+
+	/*
+	 * Send the message and answer whether the back end replied OK. The first
+	 * line of the reply is left in the reply buffer; it is read a byte at a
+	 * time into the buffer this monitor keeps, since it is plain ASCII and a
+	 * reader per send would be garbage on every fix.
+	 */
+	private boolean send(ChannelMessage message) throws IOException {
+		InputStream stream = null;
+		try {
+			stream = channel.send(message);
+			reply.setLength(0);
+			int c;
+			while ((c = stream.read()) != -1 && c != '\n')
+				reply.append((char) c);
+			int length = reply.length();
+			if (length > 0 && reply.charAt(length - 1) == '\r')
+				reply.setLength(length - 1);
+			if (LogUtility.isLoggingDebug())
+				LogUtility.logDebug(this, "Received reply: " + reply);
+			return reply.length() == 2 && reply.charAt(0) == 'O' && reply.charAt(1) == 'K';
+		} finally {
+			if (stream != null)
+				stream.close();
+		}
+	}
 }
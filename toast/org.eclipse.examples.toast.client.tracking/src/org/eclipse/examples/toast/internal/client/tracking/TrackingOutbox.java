@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.client.tracking;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.eclipse.examples.toast.core.LogUtility;
+
+/**
+ * A durable, fixed-capacity queue of tracking fixes waiting to be sent to the
+ * back end. Fixes are stored in a memory-mapped file as a ring of fixed-size
+ * records, so appending neither blocks on I/O nor allocates, and queued fixes
+ * survive a restart of the client. When the ring is full the oldest fix is
+ * overwritten, and fixes older than the retention period are discarded
+ * rather than sent. Fixes are always handed out in the order they were
+ * appended and are only removed once the caller has confirmed delivery.
+ */
+public class TrackingOutbox {
+	private static final int MAGIC = 0x544F4258; // "TOBX"
+	private static final int VERSION = 1;
+	// Header: magic (int), version (int), capacity (int), unused (int),
+	// head sequence (long), tail sequence (long).
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int HEAD_OFFSET = 16;
+	private static final int TAIL_OFFSET = 24;
+	private static final int HEADER_SIZE = 32;
+	// Record: latitude (int), longitude (int), heading (int), speed (int),
+	// time (long).
+	private static final int LATITUDE_OFFSET = 0;
+	private static final int LONGITUDE_OFFSET = 4;
+	private static final int HEADING_OFFSET = 8;
+	private static final int SPEED_OFFSET = 12;
+	private static final int TIME_OFFSET = 16;
+	private static final int RECORD_SIZE = 24;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int capacity;
+	private long retention;
+	private long head;
+	private long tail;
+	private long dropped;
+
+	/**
+	 * Open the outbox stored in the given file, creating it if necessary.
+	 * Fixes already queued in the file are kept as long as it was written with
+	 * the same capacity.
+	 * 
+	 * @param location the file holding the outbox
+	 * @param capacity the maximum number of queued fixes
+	 * @param retention how long, in milliseconds, a fix is worth sending; 0 to
+	 * keep fixes until they are sent or overwritten
+	 */
+	public TrackingOutbox(File location, int capacity, long retention) throws IOException {
+		super();
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.retention = retention;
+		File parent = location.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		file = new RandomAccessFile(location, "rw");
+		long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+		boolean existing = file.length() == size;
+		if (!existing)
+			file.setLength(size);
+		channel = file.getChannel();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		if (!existing || !load())
+			reset();
+		LogUtility.logDebug(this, "Opened " + location + " with " + size() + " queued fixes");
+	}
+
+	public synchronized void append(int latitude, int longitude, int heading, int speed, long time) {
+		if (tail - head == capacity) {
+			head++;
+			dropped++;
+			buffer.putLong(HEAD_OFFSET, head);
+		}
+		int position = getPosition(tail);
+		buffer.putInt(position + LATITUDE_OFFSET, latitude);
+		buffer.putInt(position + LONGITUDE_OFFSET, longitude);
+		buffer.putInt(position + HEADING_OFFSET, heading);
+		buffer.putInt(position + SPEED_OFFSET, speed);
+		buffer.putLong(position + TIME_OFFSET, time);
+		// Publish the record only once it is completely written.
+		tail++;
+		buffer.putLong(TAIL_OFFSET, tail);
+	}
+
+	/**
+	 * Add up to <code>max</code> of the oldest queued fixes to the encoder,
+	 * first discarding any that are past the retention period. The fixes stay
+	 * queued until {@link #remove(int)} is called.
+	 * 
+	 * @return the number of fixes added to the encoder
+	 */
+	public synchronized int peek(TrackingBatchEncoder encoder, int max, long now) {
+		expire(now);
+		int count = (int) Math.min(max, tail - head);
+		for (int i = 0; i < count; i++) {
+			int position = getPosition(head + i);
+			encoder.add(buffer.getInt(position + LATITUDE_OFFSET), buffer.getInt(position + LONGITUDE_OFFSET), buffer.getInt(position + HEADING_OFFSET), buffer.getInt(position + SPEED_OFFSET), buffer.getLong(position + TIME_OFFSET));
+		}
+		return count;
+	}
+
+	/**
+	 * Remove the oldest <code>count</code> fixes, typically once the back end
+	 * has acknowledged them.
+	 */
+	public synchronized void remove(int count) {
+		head += Math.min(count, tail - head);
+		buffer.putLong(HEAD_OFFSET, head);
+	}
+
+	public synchronized int size() {
+		return (int) (tail - head);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Answer the number of fixes that were overwritten or expired before they
+	 * could be sent.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Write the outbox through to the storage device.
+	 */
+	public synchronized void force() {
+		buffer.force();
+	}
+
+	public synchronized void close() {
+		if (channel == null)
+			return;
+		buffer.force();
+		try {
+			channel.close();
+			file.close();
+		} catch (IOException e) {
+			LogUtility.logWarning(this, "Unable to close tracking outbox", e);
+		}
+		channel = null;
+	}
+
+	// Private
+	private boolean load() {
+		if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION)
+			return false;
+		if (buffer.getInt(CAPACITY_OFFSET) != capacity)
+			return false;
+		long storedHead = buffer.getLong(HEAD_OFFSET);
+		long storedTail = buffer.getLong(TAIL_OFFSET);
+		if (storedHead < 0 || storedTail < storedHead || storedTail - storedHead > capacity)
+			return false;
+		head = storedHead;
+		tail = storedTail;
+		return true;
+	}
+
+	private void reset() {
+		head = 0;
+		tail = 0;
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		buffer.putInt(VERSION_OFFSET, VERSION);
+		buffer.putInt(CAPACITY_OFFSET, capacity);
+		buffer.putLong(HEAD_OFFSET, head);
+		buffer.putLong(TAIL_OFFSET, tail);
+	}
+
+	private void expire(long now) {
+		if (retention <= 0)
+			return;
+		long oldest = now - retention;
+		long start = head;
+		while (head < tail && buffer.getLong(getPosition(head) + TIME_OFFSET) < oldest)
+			head++;
+		if (head != start) {
+			dropped += head - start;
+			buffer.putLong(HEAD_OFFSET, head);
+		}
+	}
+
+	private int getPosition(long sequence) {
+		return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+	}
+}
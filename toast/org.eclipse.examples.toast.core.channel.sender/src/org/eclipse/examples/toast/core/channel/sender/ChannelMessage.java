@@ -11,51 +11,154 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.core.channel.sender;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 
+/**
+ * A message to the back end: a function and its parameters, and optionally a
+ * body. Parameters are held in parallel arrays, and <code>int</code> values
+ * are kept as <code>int</code>s until they are encoded, so a message that is
+ * {@link #reset() reset} and refilled for each send creates no garbage. A
+ * message is not thread safe.
+ */
 public class ChannelMessage {
+	private static final int INITIAL_PARAMETERS = 8;
+
 	private String function;
-	private Map parameters;
+	private boolean urgent;
+	private int count;
+	private String[] names;
+	private String[] values;
+	private int[] intValues;
+	private String contentType;
+	private byte[] content;
+	private int contentLength;
 
 	public ChannelMessage(String function) {
 		super();
 		this.function = function;
-		parameters = new HashMap(11);
+		names = new String[INITIAL_PARAMETERS];
+		values = new String[INITIAL_PARAMETERS];
+		intValues = new int[INITIAL_PARAMETERS];
+	}
+
+	/**
+	 * Remove the parameters and body, keeping the function and urgency, so
+	 * that the message can be reused.
+	 */
+	public void reset() {
+		for (int i = 0; i < count; i++) {
+			names[i] = null;
+			values[i] = null;
+		}
+		count = 0;
+		setContent(null, null, 0);
 	}
 
 	public String toString() {
 		StringBuffer buf = new StringBuffer(255);
 		buf.append("function: ");
 		buf.append(function);
-		Object[] keys = parameters.keySet().toArray();
+		if (urgent)
+			buf.append(" (urgent)");
+		String[] keys = new String[count];
+		System.arraycopy(names, 0, keys, 0, count);
 		Arrays.sort(keys);
 		for (int i = 0; i < keys.length; i++) {
-			Object key = keys[i];
-			Object value = parameters.get(key);
 			buf.append("\n\t");
-			buf.append(key);
+			buf.append(keys[i]);
 			buf.append(": ");
-			buf.append(value);
+			buf.append(valueForParameter(keys[i]));
+		}
+		if (content != null) {
+			buf.append("\n\tcontent: ");
+			buf.append(contentLength);
+			buf.append(" bytes of ");
+			buf.append(contentType);
 		}
 		return buf.toString();
 	}
 
 	public void addParameter(String parameter, int value) {
-		addParameter(parameter, Integer.toString(value));
+		int index = add(parameter);
+		values[index] = null;
+		intValues[index] = value;
 	}
 
 	public void addParameter(String parameter, String value) {
-		parameters.put(parameter, value);
+		if (value == null)
+			throw new IllegalArgumentException("value must not be null");
+		int index = add(parameter);
+		values[index] = value;
+	}
+
+	public int getParameterCount() {
+		return count;
+	}
+
+	public String getParameterName(int index) {
+		checkIndex(index);
+		return names[index];
+	}
+
+	/**
+	 * Answer whether the parameter at the given index was added as an
+	 * <code>int</code>, in which case {@link #getIntParameter(int)} answers
+	 * its value without creating a string.
+	 */
+	public boolean isIntParameter(int index) {
+		checkIndex(index);
+		return values[index] == null;
+	}
+
+	public int getIntParameter(int index) {
+		if (!isIntParameter(index))
+			throw new IllegalArgumentException("Not an int parameter: " + names[index]);
+		return intValues[index];
+	}
+
+	public String getParameterValue(int index) {
+		checkIndex(index);
+		String value = values[index];
+		return value == null ? Integer.toString(intValues[index]) : value;
+	}
+
+	/**
+	 * Give the message a body, which channels send as a POST. The first
+	 * <code>length</code> bytes of <code>content</code> are sent; the array is
+	 * not copied, so it must not change until the message has been sent.
+	 */
+	public void setContent(String type, byte[] content, int length) {
+		if (content != null && (length < 0 || length > content.length))
+			throw new IllegalArgumentException("length must be within content");
+		this.contentType = type;
+		this.content = content;
+		this.contentLength = content == null ? 0 : length;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public int getContentLength() {
+		return contentLength;
 	}
 
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((function == null) ? 0 : function.hashCode());
-		result = prime * result + ((parameters == null) ? 0 : parameters.hashCode());
+		// Like a map, the order in which parameters were added does not matter.
+		int parameters = 0;
+		for (int i = 0; i < count; i++)
+			parameters += names[i].hashCode() ^ getParameterValue(i).hashCode();
+		result = prime * result + parameters;
 		return result;
 	}
 
@@ -72,11 +175,24 @@ public class ChannelMessage {
 				return false;
 		} else if (!function.equals(other.function))
 			return false;
-		if (parameters == null) {
-			if (other.parameters != null)
+		if (count != other.count)
+			return false;
+		for (int i = 0; i < count; i++) {
+			int j = other.indexOf(names[i]);
+			if (j == -1)
 				return false;
-		} else if (!parameters.equals(other.parameters))
+			if (values[i] == null && other.values[j] == null) {
+				if (intValues[i] != other.intValues[j])
+					return false;
+			} else if (!getParameterValue(i).equals(other.getParameterValue(j)))
+				return false;
+		}
+		if (contentLength != other.contentLength)
 			return false;
+		for (int i = 0; i < contentLength; i++) {
+			if (content[i] != other.content[i])
+				return false;
+		}
 		return true;
 	}
 
@@ -84,11 +200,71 @@ public class ChannelMessage {
 		return function;
 	}
 
+	/**
+	 * Mark the message as urgent. This is only a hint, and an
+	 * <code>IChannel</code> is free to ignore it. The channels in this bundle
+	 * honor it by holding back routine messages, for a limited time, until the
+	 * urgent messages being sent have been answered. Neither gives urgent
+	 * messages a connection of their own: <code>UrlChannel</code> leaves
+	 * connections to <code>URLConnection</code>, and an urgent message on
+	 * <code>KeepAliveChannel</code> shares its pool.
+	 */
+	public void setUrgent(boolean value) {
+		urgent = value;
+	}
+
+	public boolean isUrgent() {
+		return urgent;
+	}
+
 	public Iterator getParametersIterator() {
-		return parameters.keySet().iterator();
+		List parameters = new ArrayList(count);
+		for (int i = 0; i < count; i++)
+			parameters.add(names[i]);
+		return parameters.iterator();
 	}
 
 	public String valueForParameter(String parameter) {
-		return (String) parameters.get(parameter);
+		int index = indexOf(parameter);
+		return index == -1 ? null : getParameterValue(index);
+	}
+
+	// Private
+	private int add(String parameter) {
+		if (parameter == null)
+			throw new IllegalArgumentException("parameter must not be null");
+		int index = indexOf(parameter);
+		if (index != -1)
+			return index;
+		if (count == names.length)
+			grow();
+		names[count] = parameter;
+		return count++;
+	}
+
+	private int indexOf(String parameter) {
+		for (int i = 0; i < count; i++) {
+			if (names[i].equals(parameter))
+				return i;
+		}
+		return -1;
+	}
+
+	private void grow() {
+		int capacity = names.length * 2;
+		String[] newNames = new String[capacity];
+		String[] newValues = new String[capacity];
+		int[] newIntValues = new int[capacity];
+		System.arraycopy(names, 0, newNames, 0, count);
+		System.arraycopy(values, 0, newValues, 0, count);
+		System.arraycopy(intValues, 0, newIntValues, 0, count);
+		names = newNames;
+		values = newValues;
+		intValues = newIntValues;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Parameter index " + index + " out of " + count);
 	}
 }
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.core.channel.sender;
+
+import java.util.Arrays;
+
+/**
+ * Running statistics for a channel: message rate, how often a message could
+ * reuse an open connection, and latency percentiles over the most recent
+ * messages.
+ */
+public class ChannelMetrics {
+	private static final int SAMPLE_COUNT = 1024;
+
+	private long started;
+	private long messages;
+	private long failures;
+	private long connects;
+	private long reuses;
+	private long[] latencies;
+	private int nextSample;
+	private int sampleCount;
+
+	public ChannelMetrics() {
+		super();
+		started = System.currentTimeMillis();
+		latencies = new long[SAMPLE_COUNT];
+	}
+
+	public synchronized void connected() {
+		connects++;
+	}
+
+	public synchronized void reused() {
+		reuses++;
+	}
+
+	public synchronized void sent(long latency) {
+		messages++;
+		latencies[nextSample] = latency;
+		nextSample = (nextSample + 1) % latencies.length;
+		if (sampleCount < latencies.length)
+			sampleCount++;
+	}
+
+	public synchronized void failed() {
+		failures++;
+	}
+
+	public synchronized long getMessages() {
+		return messages;
+	}
+
+	public synchronized long getFailures() {
+		return failures;
+	}
+
+	public synchronized double getMessagesPerSecond() {
+		long elapsed = System.currentTimeMillis() - started;
+		return elapsed <= 0 ? 0 : messages * 1000.0 / elapsed;
+	}
+
+	/**
+	 * Answer the fraction of connection uses that found an open connection.
+	 */
+	public synchronized double getReuseRate() {
+		long uses = connects + reuses;
+		return uses == 0 ? 0 : (double) reuses / uses;
+	}
+
+	/**
+	 * Answer the latency, in milliseconds, below which the given fraction of
+	 * recent messages completed, e.g. 0.99 for the 99th percentile.
+	 */
+	public synchronized long getLatencyPercentile(double fraction) {
+		if (sampleCount == 0)
+			return 0;
+		long[] sorted = new long[sampleCount];
+		System.arraycopy(latencies, 0, sorted, 0, sampleCount);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(fraction * sampleCount) - 1;
+		return sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+	}
+
+	public String toString() {
+		StringBuffer buffer = new StringBuffer(150);
+		synchronized (this) {
+			buffer.append("messages=");
+			buffer.append(messages);
+			buffer.append(", failures=");
+			buffer.append(failures);
+		}
+		buffer.append(", msgs/sec=");
+		buffer.append(Math.round(getMessagesPerSecond() * 10) / 10.0);
+		buffer.append(", reuse=");
+		buffer.append(Math.round(getReuseRate() * 100));
+		buffer.append("%, p50=");
+		buffer.append(getLatencyPercentile(0.5));
+		buffer.append("ms, p99=");
+		buffer.append(getLatencyPercentile(0.99));
+		buffer.append("ms");
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,518 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.core.channel.sender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.eclipse.examples.toast.core.ICoreConstants;
+import org.eclipse.examples.toast.core.LogUtility;
+import org.eclipse.examples.toast.core.PropertyManager;
+import org.eclipse.examples.toast.core.channel.sender.ChannelMessage;
+import org.eclipse.examples.toast.core.channel.sender.IChannel;
+
+/**
+ * An <code>IChannel</code> that talks HTTP/1.1 to the back end over
+ * persistent connections, so that a message does not pay for a new TCP
+ * connection (and name lookup) each time. Idle connections are pooled; by
+ * default one connection is kept per back end. The reply body is read fully
+ * before <code>send</code> returns so that the connection can be reused at
+ * once. It is read into a buffer kept per thread, so the stream answered by
+ * <code>send</code> is only good until the thread sends its next message.
+ */
+public class KeepAliveChannel implements IChannel {
+	private static final String CONNECT_TIMEOUT_PROPERTY = "toast.channel.connect.timeout"; //$NON-NLS-1$
+	private static final String READ_TIMEOUT_PROPERTY = "toast.channel.read.timeout"; //$NON-NLS-1$
+	private static final String IDLE_TIMEOUT_PROPERTY = "toast.channel.idle.timeout"; //$NON-NLS-1$
+	private static final String POOL_SIZE_PROPERTY = "toast.channel.pool.size"; //$NON-NLS-1$
+	private static final int METRICS_LOG_INTERVAL = 100;
+	private static final byte[] CRLF = {'\r', '\n'};
+
+	private String urlSpec;
+	private String host;
+	private int port;
+	private String path;
+	private String hostHeader;
+	private ThreadLocal encoders;
+	private ThreadLocal replies;
+	private int connectTimeout;
+	private int readTimeout;
+	private long idleTimeout;
+	private int poolSize;
+	private List idle;
+	private ChannelMetrics metrics;
+	private PriorityGate gate;
+
+	public KeepAliveChannel() {
+		super();
+		urlSpec = PropertyManager.getProperty(ICoreConstants.BACK_END_URL_PROPERTY, ICoreConstants.BACK_END_URL_DEFAULT);
+		parseUrlSpec();
+		encoders = new ThreadLocal() {
+			protected Object initialValue() {
+				return new MessageEncoder();
+			}
+		};
+		replies = new ThreadLocal() {
+			protected Object initialValue() {
+				return new Reply();
+			}
+		};
+		connectTimeout = getIntProperty(CONNECT_TIMEOUT_PROPERTY, 10000);
+		readTimeout = getIntProperty(READ_TIMEOUT_PROPERTY, 30000);
+		idleTimeout = getIntProperty(IDLE_TIMEOUT_PROPERTY, 15000);
+		poolSize = Math.max(1, getIntProperty(POOL_SIZE_PROPERTY, 1));
+		idle = new ArrayList(poolSize);
+		metrics = new ChannelMetrics();
+		gate = new PriorityGate(readTimeout);
+	}
+
+	protected void deactivate() {
+		synchronized (idle) {
+			for (Iterator i = idle.iterator(); i.hasNext();)
+				((Connection) i.next()).close();
+			idle.clear();
+		}
+		LogUtility.logDebug(this, "Channel closed: " + metrics);
+	}
+
+	public ChannelMetrics getMetrics() {
+		return metrics;
+	}
+
+	public InputStream send(ChannelMessage message) throws IOException {
+		if (LogUtility.isLoggingDebug())
+			LogUtility.logDebug(this, "Sending message: " + message);
+		gate.enter(message);
+		try {
+			return sendMessage(message);
+		} finally {
+			gate.exit(message);
+		}
+	}
+
+	private InputStream sendMessage(ChannelMessage message) throws IOException {
+		if (host == null)
+			throw new IOException("Unsupported back end URL: " + urlSpec);
+		MessageEncoder target = (MessageEncoder) encoders.get();
+		target.encode(path, message);
+		Reply reply = (Reply) replies.get();
+		long start = System.currentTimeMillis();
+		Connection connection = acquire();
+		try {
+			try {
+				connection.exchange(target, message, reply);
+			} catch (IOException e) {
+				// The back end may have dropped a pooled connection while it was
+				// idle; that is worth one retry on a fresh connection, but only
+				// if the request cannot have reached it already or sending it
+				// twice does no harm.
+				connection.close();
+				if (!connection.reused || (connection.written && message.getContent() != null))
+					throw e;
+				connection = open();
+				connection.exchange(target, message, reply);
+			}
+		} catch (IOException e) {
+			connection.close();
+			metrics.failed();
+			throw e;
+		}
+		int status = connection.status;
+		release(connection);
+		metrics.sent(System.currentTimeMillis() - start);
+		if (LogUtility.isLoggingDebug() && metrics.getMessages() % METRICS_LOG_INTERVAL == 0)
+			LogUtility.logDebug(this, "Channel metrics: " + metrics);
+		// Report errors the way URL.openStream() does.
+		if (status == 404)
+			throw new FileNotFoundException(getUrl(target));
+		if (status >= 400)
+			throw new IOException("Server returned HTTP response code: " + status + " for URL: " + getUrl(target));
+		return reply;
+	}
+
+	private void parseUrlSpec() {
+		// The back end does not change, so its URL is only parsed once.
+		URL url;
+		try {
+			url = new URL(urlSpec);
+		} catch (MalformedURLException e) {
+			LogUtility.logError(this, "Invalid back end URL: " + urlSpec, e);
+			return;
+		}
+		if (!"http".equals(url.getProtocol())) { //$NON-NLS-1$
+			LogUtility.logError(this, "Unsupported protocol: " + urlSpec);
+			return;
+		}
+		host = url.getHost();
+		port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		path = url.getPath();
+		if (path.endsWith("/"))
+			path = path.substring(0, path.length() - 1);
+		hostHeader = port == url.getDefaultPort() ? host : host + ':' + port;
+	}
+
+	private String getUrl(MessageEncoder target) {
+		return "http://" + hostHeader + target; //$NON-NLS-1$
+	}
+
+	private Connection acquire() throws IOException {
+		long now = System.currentTimeMillis();
+		synchronized (idle) {
+			while (!idle.isEmpty()) {
+				Connection connection = (Connection) idle.remove(idle.size() - 1);
+				if (now - connection.lastUsed < idleTimeout) {
+					connection.reused = true;
+					metrics.reused();
+					return connection;
+				}
+				connection.close();
+			}
+		}
+		return open();
+	}
+
+	private Connection open() throws IOException {
+		Connection connection = new Connection();
+		metrics.connected();
+		return connection;
+	}
+
+	private void release(Connection connection) {
+		if (!connection.keepAlive) {
+			connection.close();
+			return;
+		}
+		connection.lastUsed = System.currentTimeMillis();
+		synchronized (idle) {
+			if (idle.size() < poolSize) {
+				idle.add(connection);
+				return;
+			}
+		}
+		connection.close();
+	}
+
+	private int getIntProperty(String name, int defaultValue) {
+		String value = PropertyManager.getProperty(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			LogUtility.logWarning(this, "Invalid " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private class Connection {
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+		private char[] line = new char[80];
+		private int lineLength;
+		private byte[] digits = new byte[10];
+		boolean reused;
+		boolean written;
+		boolean keepAlive;
+		int status;
+		long lastUsed;
+
+		Connection() throws IOException {
+			socket = new Socket();
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setKeepAlive(true);
+				socket.connect(new InetSocketAddress(host, port), connectTimeout);
+				socket.setSoTimeout(readTimeout);
+				in = new BufferedInputStream(socket.getInputStream());
+				out = new BufferedOutputStream(new FilterOutputStream(socket.getOutputStream()) {
+					public void write(int b) throws IOException {
+						written = true;
+						out.write(b);
+					}
+
+					public void write(byte[] b, int off, int len) throws IOException {
+						written = true;
+						out.write(b, off, len);
+					}
+				});
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		void exchange(MessageEncoder target, ChannelMessage message, Reply reply) throws IOException {
+			written = false;
+			reply.clear();
+			writeRequest(target, message);
+			readResponse(reply);
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Nothing more to do with it.
+			}
+		}
+
+		private void writeRequest(MessageEncoder target, ChannelMessage message) throws IOException {
+			byte[] content = message.getContent();
+			writeAscii(content == null ? "GET " : "POST ");
+			out.write(target.getBytes(), 0, target.getLength());
+			writeAscii(" HTTP/1.1");
+			out.write(CRLF);
+			writeAscii("Host: ");
+			writeAscii(hostHeader);
+			out.write(CRLF);
+			writeAscii("Connection: keep-alive");
+			out.write(CRLF);
+			if (content != null) {
+				if (message.getContentType() != null) {
+					writeAscii("Content-Type: ");
+					writeAscii(message.getContentType());
+					out.write(CRLF);
+				}
+				writeAscii("Content-Length: ");
+				writeDecimal(message.getContentLength());
+				out.write(CRLF);
+			}
+			out.write(CRLF);
+			if (content != null)
+				out.write(content, 0, message.getContentLength());
+			out.flush();
+		}
+
+		/*
+		 * Read the status line and headers without making strings of them,
+		 * then the body into the reply.
+		 */
+		private void readResponse(Reply reply) throws IOException {
+			if (!readLine())
+				throw new EOFException("Connection closed by " + host + ":" + port);
+			status = parseStatus();
+			keepAlive = startsWith("HTTP/1.1"); //$NON-NLS-1$
+			int contentLength = -1;
+			boolean chunked = false;
+			while (true) {
+				if (!readLine())
+					throw new EOFException("Connection closed reading headers from " + host + ":" + port);
+				if (lineLength == 0)
+					break;
+				int colon = indexOf(':', 0);
+				if (colon == -1)
+					continue;
+				if (isHeader("Content-Length", colon)) //$NON-NLS-1$
+					contentLength = parseInt(colon + 1, lineLength, 10);
+				else if (isHeader("Transfer-Encoding", colon)) //$NON-NLS-1$
+					chunked = isValue("chunked", colon); //$NON-NLS-1$
+				else if (isHeader("Connection", colon)) //$NON-NLS-1$
+					keepAlive = !isValue("close", colon); //$NON-NLS-1$
+			}
+			if (status == 204 || status == 304)
+				return; // Neither ever has a body, whatever the headers say.
+			if (chunked)
+				readChunked(reply);
+			else if (contentLength >= 0)
+				reply.read(in, contentLength);
+			else if (keepAlive)
+				// A server keeping the connection open must delimit the body,
+				// so without a length there is none; reading to the end would
+				// only wait out the read timeout.
+				return;
+			else
+				reply.readToEnd(in); // The body runs to the end of the connection.
+		}
+
+		private int parseStatus() throws IOException {
+			int start = indexOf(' ', 0);
+			if (!startsWith("HTTP/") || start == -1 || lineLength < start + 4) //$NON-NLS-1$
+				throw new IOException("Invalid HTTP status line: " + getLine());
+			return parseInt(start + 1, start + 4, 10);
+		}
+
+		private void readChunked(Reply reply) throws IOException {
+			while (true) {
+				if (!readLine())
+					throw new EOFException("Connection closed reading chunk size");
+				int extension = indexOf(';', 0);
+				int size = parseInt(0, extension == -1 ? lineLength : extension, 16);
+				if (size == 0)
+					break;
+				reply.read(in, size);
+				readLine();
+			}
+			// Skip any trailers up to the blank line that ends the message.
+			while (readLine() && lineLength > 0) {
+				// Trailers are not used.
+			}
+		}
+
+		/*
+		 * Read a line into the line buffer, without its line end. Answer
+		 * false if the connection was closed before anything was read.
+		 */
+		private boolean readLine() throws IOException {
+			lineLength = 0;
+			int c;
+			while ((c = in.read()) != -1) {
+				if (c == '\n') {
+					if (lineLength > 0 && line[lineLength - 1] == '\r')
+						lineLength--;
+					return true;
+				}
+				if (lineLength == line.length) {
+					char[] grown = new char[line.length * 2];
+					System.arraycopy(line, 0, grown, 0, lineLength);
+					line = grown;
+				}
+				line[lineLength++] = (char) c;
+			}
+			return lineLength > 0;
+		}
+
+		private String getLine() {
+			return new String(line, 0, lineLength);
+		}
+
+		private int indexOf(char c, int from) {
+			for (int i = from; i < lineLength; i++)
+				if (line[i] == c)
+					return i;
+			return -1;
+		}
+
+		private boolean startsWith(String prefix) {
+			return lineLength >= prefix.length() && regionMatches(0, prefix);
+		}
+
+		private boolean isHeader(String name, int colon) {
+			int end = colon;
+			while (end > 0 && line[end - 1] <= ' ')
+				end--;
+			return end == name.length() && regionMatches(0, name);
+		}
+
+		private boolean isValue(String value, int colon) {
+			int start = colon + 1;
+			while (start < lineLength && line[start] <= ' ')
+				start++;
+			int end = lineLength;
+			while (end > start && line[end - 1] <= ' ')
+				end--;
+			return end - start == value.length() && regionMatches(start, value);
+		}
+
+		/*
+		 * Compare part of the line with an ASCII string, ignoring case.
+		 */
+		private boolean regionMatches(int offset, String value) {
+			for (int i = 0; i < value.length(); i++) {
+				char c = line[offset + i];
+				char d = value.charAt(i);
+				if (c != d && Character.toLowerCase(c) != Character.toLowerCase(d))
+					return false;
+			}
+			return true;
+		}
+
+		private int parseInt(int start, int end, int radix) throws IOException {
+			while (start < end && line[start] <= ' ')
+				start++;
+			while (end > start && line[end - 1] <= ' ')
+				end--;
+			if (start == end)
+				throw new IOException("Invalid number in HTTP response: " + getLine());
+			int value = 0;
+			for (int i = start; i < end; i++) {
+				int digit = Character.digit(line[i], radix);
+				if (digit == -1 || value > (Integer.MAX_VALUE - digit) / radix)
+					throw new IOException("Invalid number in HTTP response: " + getLine());
+				value = value * radix + digit;
+			}
+			return value;
+		}
+
+		private void writeDecimal(int value) throws IOException {
+			int count = 0;
+			do {
+				digits[count++] = (byte) ('0' + value % 10);
+				value /= 10;
+			} while (value != 0);
+			while (count > 0)
+				out.write(digits[--count]);
+		}
+
+		private void writeAscii(String value) throws IOException {
+			for (int i = 0; i < value.length(); i++)
+				out.write(value.charAt(i));
+		}
+	}
+
+	/**
+	 * A reply body, read into a buffer that is reused for the next reply.
+	 */
+	private static final class Reply extends ByteArrayInputStream {
+		Reply() {
+			super(new byte[256], 0, 0);
+		}
+
+		void clear() {
+			pos = 0;
+			mark = 0;
+			count = 0;
+		}
+
+		void read(InputStream in, int length) throws IOException {
+			ensureCapacity(count + length);
+			int end = count + length;
+			while (count < end) {
+				int read = in.read(buf, count, end - count);
+				if (read == -1)
+					throw new EOFException("Connection closed after " + (length - end + count) + " of " + length + " bytes");
+				count += read;
+			}
+		}
+
+		void readToEnd(InputStream in) throws IOException {
+			while (true) {
+				ensureCapacity(count + 1);
+				int read = in.read(buf, count, buf.length - count);
+				if (read == -1)
+					return;
+				count += read;
+			}
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity <= buf.length)
+				return;
+			byte[] grown = new byte[Math.max(capacity, buf.length * 2)];
+			System.arraycopy(buf, 0, grown, 0, count);
+			buf = grown;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.core.channel.sender;
+
+import org.eclipse.examples.toast.core.channel.sender.ChannelMessage;
+
+/**
+ * Encodes the request target of a message, that is the back end's path
+ * followed by the message's function and its parameters as a query, into a
+ * reusable buffer of ASCII bytes. Values are percent-encoded as UTF-8, and
+ * <code>int</code> values are written digit by digit, so encoding does not
+ * allocate once the buffer has grown to fit. An encoder is not thread safe.
+ */
+public class MessageEncoder {
+	private static final int INITIAL_CAPACITY = 256;
+	private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+	private byte[] buffer;
+	private int length;
+	private byte[] digits;
+
+	public MessageEncoder() {
+		super();
+		buffer = new byte[INITIAL_CAPACITY];
+		digits = new byte[11];
+	}
+
+	/**
+	 * Encode the message's request target.
+	 * 
+	 * @param path the back end's path, such as <code>/toast</code>, without a
+	 * trailing slash
+	 */
+	public void encode(String path, ChannelMessage message) {
+		length = 0;
+		appendAscii(path);
+		append('/');
+		appendEncoded(message.getFunction(), true);
+		int count = message.getParameterCount();
+		for (int i = 0; i < count; i++) {
+			append(i == 0 ? '?' : '&');
+			appendEncoded(message.getParameterName(i), false);
+			append('=');
+			if (message.isIntParameter(i))
+				appendInt(message.getIntParameter(i));
+			else
+				appendEncoded(message.getParameterValue(i), false);
+		}
+	}
+
+	public byte[] getBytes() {
+		return buffer;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public String toString() {
+		StringBuffer result = new StringBuffer(length);
+		for (int i = 0; i < length; i++)
+			result.append((char) buffer[i]);
+		return result.toString();
+	}
+
+	// Private
+	private void appendAscii(String value) {
+		for (int i = 0; i < value.length(); i++)
+			append(value.charAt(i));
+	}
+
+	private void appendEncoded(String value, boolean path) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (isUnreserved(c) || (path && c == '/')) {
+				append(c);
+			} else if (c < 0x80) {
+				appendEscaped(c);
+			} else if (c < 0x800) {
+				appendEscaped(0xC0 | (c >> 6));
+				appendEscaped(0x80 | (c & 0x3F));
+			} else if (c >= 0xD800 && c <= 0xDBFF && i + 1 < value.length()) {
+				int codePoint = 0x10000 + ((c - 0xD800) << 10) + (value.charAt(++i) - 0xDC00);
+				appendEscaped(0xF0 | (codePoint >> 18));
+				appendEscaped(0x80 | ((codePoint >> 12) & 0x3F));
+				appendEscaped(0x80 | ((codePoint >> 6) & 0x3F));
+				appendEscaped(0x80 | (codePoint & 0x3F));
+			} else {
+				appendEscaped(0xE0 | (c >> 12));
+				appendEscaped(0x80 | ((c >> 6) & 0x3F));
+				appendEscaped(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~';
+	}
+
+	private void appendEscaped(int b) {
+		append('%');
+		append(HEX[(b >> 4) & 0xF]);
+		append(HEX[b & 0xF]);
+	}
+
+	private void appendInt(int value) {
+		long remaining = value;
+		if (remaining < 0) {
+			append('-');
+			remaining = -remaining;
+		}
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + remaining % 10);
+			remaining /= 10;
+		} while (remaining != 0);
+		while (count > 0)
+			append(digits[--count]);
+	}
+
+	private void append(char c) {
+		append((byte) c);
+	}
+
+	private void append(byte b) {
+		if (length == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, length);
+			buffer = larger;
+		}
+		buffer[length++] = b;
+	}
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.internal.core.channel.sender;
+
+import java.io.InterruptedIOException;
+import org.eclipse.examples.toast.core.channel.sender.ChannelMessage;
+
+/**
+ * Lets urgent messages pre-empt routine ones. A routine message waits to be
+ * sent while any urgent message is being sent, up to a limit so that a
+ * stalled urgent send cannot stop routine traffic for good.
+ */
+public class PriorityGate {
+	private long maximumWait;
+	private int urgent;
+
+	public PriorityGate(long maximumWait) {
+		super();
+		this.maximumWait = maximumWait;
+	}
+
+	public synchronized void enter(ChannelMessage message) throws InterruptedIOException {
+		if (message.isUrgent()) {
+			urgent++;
+			return;
+		}
+		long end = System.currentTimeMillis() + maximumWait;
+		long remaining = maximumWait;
+		while (urgent > 0 && remaining > 0) {
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted waiting for urgent messages");
+			}
+			remaining = end - System.currentTimeMillis();
+		}
+	}
+
+	public synchronized void exit(ChannelMessage message) {
+		if (!message.isUrgent())
+			return;
+		urgent--;
+		if (urgent == 0)
+			notifyAll();
+	}
+}
@@ -13,41 +13,83 @@ package org.eclipse.examples.toast.internal.core.channel.sender;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Iterator;
 import org.eclipse.examples.toast.core.ICoreConstants;
 import org.eclipse.examples.toast.core.LogUtility;
 import org.eclipse.examples.toast.core.PropertyManager;
-import org.eclipse.examples.toast.core.UrlBuilder;
 import org.eclipse.examples.toast.core.channel.sender.ChannelMessage;
 import org.eclipse.examples.toast.core.channel.sender.IChannel;
 
 public class UrlChannel implements IChannel {
+	private static final long MAXIMUM_URGENT_WAIT = 30000;
+
 	private String urlSpec;
+	private URL base;
+	private String path;
+	private ThreadLocal encoders;
+	private PriorityGate gate;
 
 	public UrlChannel() {
 		super();
 		urlSpec = PropertyManager.getProperty(ICoreConstants.BACK_END_URL_PROPERTY, ICoreConstants.BACK_END_URL_DEFAULT);
+		try {
+			base = new URL(urlSpec);
+			path = base.getPath();
+			if (path.endsWith("/"))
+				path = path.substring(0, path.length() - 1);
+		} catch (MalformedURLException e) {
+			LogUtility.logError(this, "Invalid back end URL: " + urlSpec, e);
+		}
+		encoders = new ThreadLocal() {
+			protected Object initialValue() {
+				return new MessageEncoder();
+			}
+		};
+		gate = new PriorityGate(MAXIMUM_URGENT_WAIT);
 	}
 
 	public InputStream send(ChannelMessage message) throws IOException {
-		URL url = createUrl(urlSpec, message);
-		LogUtility.logDebug(this, "Sending message: " + message);
-		return url.openStream();
+		gate.enter(message);
+		try {
+			return sendMessage(message);
+		} finally {
+			gate.exit(message);
+		}
 	}
 
-	private URL createUrl(String urlSpec, ChannelMessage message) throws MalformedURLException {
-		UrlBuilder builder = new UrlBuilder(urlSpec);
-		builder.appendPath(message.getFunction());
-		for (Iterator i = message.getParametersIterator(); i.hasNext();) {
-			String parameter = (String) i.next();
-			String value = message.valueForParameter(parameter);
-			builder.addParameter(parameter, value);
+	private InputStream sendMessage(ChannelMessage message) throws IOException {
+		URL url = createUrl(message);
+		if (LogUtility.isLoggingDebug())
+			LogUtility.logDebug(this, "Sending message: " + message);
+		if (message.getContent() == null)
+			return url.openStream();
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		if (message.getContentType() != null)
+			connection.setRequestProperty("Content-Type", message.getContentType());
+		OutputStream out = connection.getOutputStream();
+		try {
+			out.write(message.getContent(), 0, message.getContentLength());
+		} finally {
+			out.close();
 		}
-		URL url = builder.toUrl();
-		String value = builder.toString();
-		LogUtility.logDebug(this, value);
+		return connection.getInputStream();
+	}
+
+	private URL createUrl(ChannelMessage message) throws MalformedURLException {
+		if (base == null)
+			throw new MalformedURLException("Invalid back end URL: " + urlSpec);
+		MessageEncoder target = (MessageEncoder) encoders.get();
+		target.encode(path, message);
+		// URLConnection needs a URL, so this channel cannot avoid creating one
+		// for each message; KeepAliveChannel writes the encoded target as is.
+		URL url = new URL(base, target.toString());
+		if (LogUtility.isLoggingDebug())
+			LogUtility.logDebug(this, url.toString());
 		return url;
 	}
 }
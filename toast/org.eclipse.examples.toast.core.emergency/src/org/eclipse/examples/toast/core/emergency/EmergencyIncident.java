@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.core.emergency;
+
+/**
+ * An emergency accepted by the emergency center. Incidents are numbered in
+ * the order they were accepted; repeated reports of the same emergency are
+ * folded into the first one and do not produce a new incident.
+ */
+public class EmergencyIncident {
+	private final long sequence;
+	private final String id;
+	private final int latitude;
+	private final int longitude;
+	private final int heading;
+	private final int speed;
+	private final long time;
+
+	public EmergencyIncident(long sequence, String id, int latitude, int longitude, int heading, int speed, long time) {
+		super();
+		this.sequence = sequence;
+		this.id = id;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.heading = heading;
+		this.speed = speed;
+		this.time = time;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getLatitude() {
+		return latitude;
+	}
+
+	public int getLongitude() {
+		return longitude;
+	}
+
+	public int getHeading() {
+		return heading;
+	}
+
+	public int getSpeed() {
+		return speed;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public String toString() {
+		StringBuffer buffer = new StringBuffer(64);
+		buffer.append('#');
+		buffer.append(sequence);
+		buffer.append(' ');
+		buffer.append(id);
+		buffer.append(" at "); //$NON-NLS-1$
+		buffer.append(latitude);
+		buffer.append(',');
+		buffer.append(longitude);
+		return buffer.toString();
+	}
+}
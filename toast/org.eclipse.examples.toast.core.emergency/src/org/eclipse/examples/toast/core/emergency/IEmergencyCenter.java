@@ -15,4 +15,20 @@ public interface IEmergencyCenter {
 
 	public abstract String emergency(String id, int latitude, int longitude, int heading, int speed);
 
+	/**
+	 * Report an emergency that happened at the given time, along with the
+	 * <code>count</code> fixes that led up to it, oldest first.
+	 */
+	public abstract String emergency(String id, int latitude, int longitude, int heading, int speed, long time, int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times, int count);
+
+	public abstract void addListener(IEmergencyListener listener);
+
+	public abstract void removeListener(IEmergencyListener listener);
+
+	/**
+	 * Answer the most recently accepted incident, or <code>null</code> if
+	 * there has not been one.
+	 */
+	public abstract EmergencyIncident getLatestIncident();
+
 }
\ No newline at end of file
@@ -17,4 +17,8 @@ public interface IEmergencyConstants {
 	public static final String LATITUDE_PARAMETER = "latitude";
 	public static final String LONGITUDE_PARAMETER = "longitude";
 	public static final String SPEED_PARAMETER = "speed";
+	public static final String TIME_PARAMETER = "time";
+	// The fixes leading up to the emergency, oldest first, as semicolon
+	// separated "latitude,longitude,heading,speed,time" entries.
+	public static final String HISTORY_PARAMETER = "history";
 }
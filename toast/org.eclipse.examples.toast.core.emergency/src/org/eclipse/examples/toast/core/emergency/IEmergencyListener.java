@@ -0,0 +1,24 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.core.emergency;
+
+public interface IEmergencyListener {
+
+	/**
+	 * Called once for each incident accepted by the emergency center. Calls
+	 * for the same vehicle arrive in order, but they never arrive on the
+	 * thread that reported the emergency, and listeners for different
+	 * vehicles may be called concurrently.
+	 */
+	public abstract void emergencyReported(EmergencyIncident incident);
+
+}
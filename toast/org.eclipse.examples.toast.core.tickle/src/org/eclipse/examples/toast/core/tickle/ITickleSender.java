@@ -11,6 +11,17 @@
  *******************************************************************************/
 package org.eclipse.examples.toast.core.tickle;
 
+import java.util.Collection;
+
 public interface ITickleSender {
 	public void tickle(String id);
+
+	/**
+	 * Tickle each of the vehicles with the given ids, several at a time, and
+	 * answer once all have been tried or the sender's overall time limit has
+	 * passed.
+	 * @param ids the ids of the vehicles to tickle.
+	 * @return the outcome for each vehicle.
+	 */
+	public TickleResult tickle(Collection ids);
 }
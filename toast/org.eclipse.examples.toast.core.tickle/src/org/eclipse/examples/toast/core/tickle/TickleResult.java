@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.core.tickle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of tickling a group of vehicles: which were tickled, which
+ * could not be reached and which had no known location.
+ */
+public class TickleResult {
+	private List succeeded;
+	private List failed;
+	private List unknown;
+	private long elapsed;
+
+	public TickleResult() {
+		super();
+		succeeded = new ArrayList();
+		failed = new ArrayList();
+		unknown = new ArrayList();
+	}
+
+	public void addSucceeded(String id) {
+		succeeded.add(id);
+	}
+
+	public void addFailed(String id) {
+		failed.add(id);
+	}
+
+	public void addUnknown(String id) {
+		unknown.add(id);
+	}
+
+	public void setElapsed(long value) {
+		elapsed = value;
+	}
+
+	public List getSucceeded() {
+		return Collections.unmodifiableList(succeeded);
+	}
+
+	public List getFailed() {
+		return Collections.unmodifiableList(failed);
+	}
+
+	public List getUnknown() {
+		return Collections.unmodifiableList(unknown);
+	}
+
+	/**
+	 * Answer the time, in milliseconds, taken to tickle the group.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	public int getCount() {
+		return succeeded.size() + failed.size() + unknown.size();
+	}
+
+	public boolean isOK() {
+		return failed.isEmpty() && unknown.isEmpty();
+	}
+
+	public String toString() {
+		return "TickleResult[succeeded=" + succeeded.size() + ", failed=" + failed.size() + ", unknown=" + unknown.size() + ", elapsed=" + elapsed + "ms]";
+	}
+}
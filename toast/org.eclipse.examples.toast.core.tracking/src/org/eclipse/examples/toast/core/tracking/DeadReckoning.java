@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.core.tracking;
+
+/**
+ * Predicts where a vehicle is from its last known fix, assuming it carried on
+ * at the same speed and heading. Locations are in TUD (hundred-thousandths of
+ * a degree), headings in degrees clockwise from north and speeds in km/h.
+ * A client need not report a fix that is close to its predicted position,
+ * since the back end can predict it too.
+ */
+public final class DeadReckoning {
+	private static final double METRES_PER_TUD = 1.1132; // of latitude
+	private static final double TUD_PER_DEGREE = 100000.0;
+
+	private DeadReckoning() {
+		super();
+	}
+
+	public static int predictLatitude(int latitude, int heading, int speed, long elapsed) {
+		double distance = getTravel(speed, elapsed);
+		return latitude + (int) Math.round(distance * Math.cos(Math.toRadians(heading)));
+	}
+
+	public static int predictLongitude(int latitude, int longitude, int heading, int speed, long elapsed) {
+		double distance = getTravel(speed, elapsed);
+		double scale = getLongitudeScale(latitude);
+		if (scale < 1e-6)
+			return longitude; // at a pole
+		return longitude + (int) Math.round(distance * Math.sin(Math.toRadians(heading)) / scale);
+	}
+
+	/**
+	 * Answer the square of the distance between two locations, measured in
+	 * TUD of latitude.
+	 */
+	public static long getDistanceSquared(int latitude1, int longitude1, int latitude2, int longitude2) {
+		long dLatitude = latitude2 - latitude1;
+		long dLongitude = Math.round((longitude2 - longitude1) * getLongitudeScale(latitude1));
+		return dLatitude * dLatitude + dLongitude * dLongitude;
+	}
+
+	// Private
+	private static double getTravel(int speed, long elapsed) {
+		// km/h * ms / 3600 is metres
+		return speed * (double) elapsed / 3600.0 / METRES_PER_TUD;
+	}
+
+	private static double getLongitudeScale(int latitude) {
+		// A degree of longitude shrinks with the cosine of the latitude.
+		return Math.cos(Math.toRadians(latitude / TUD_PER_DEGREE));
+	}
+}
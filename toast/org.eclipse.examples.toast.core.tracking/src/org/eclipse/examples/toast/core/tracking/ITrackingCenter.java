@@ -17,6 +17,26 @@ public interface ITrackingCenter {
 
 	public abstract void postTrackingLocation(String id, int latitude, int longitude, int heading, int speed);
 
+	/**
+	 * Post the first <code>count</code> fixes held in the given parallel arrays.
+	 * The arrays belong to the caller and may be reused once this method returns.
+	 */
+	public abstract void postTrackingLocations(String[] ids, int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times, int count);
+
+	/**
+	 * Answer the most recent fixes reported for the vehicle, oldest first. The
+	 * number kept per vehicle is set by <code>TRACKING_HISTORY_PROPERTY</code>.
+	 * Only reported fixes are answered; use {@link #getCurrentLocation(String)}
+	 * for where the vehicle is now.
+	 */
 	public abstract ITrackedLocation[] getTrackedLocations(String id);
 
+	/**
+	 * Answer where the vehicle is now, dead reckoned with {@link DeadReckoning}
+	 * from its last fix, or <code>null</code> if it has never reported a
+	 * location. Clients using adaptive sampling do not report fixes that this
+	 * predicts well, so maps should show this rather than the last fix.
+	 */
+	public abstract ITrackedLocation getCurrentLocation(String id);
+
 }
\ No newline at end of file
@@ -17,9 +17,43 @@ public interface ITrackingConstants {
 	public static final String LONGITUDE_PARAMETER = "longitude"; //$NON-NLS-1$
 	public static final String HEADING_PARAMETER = "heading"; //$NON-NLS-1$
 	public static final String SPEED_PARAMETER = "speed"; //$NON-NLS-1$
+	// Batch tracking, POSTed to TRACKING_FUNCTION/BATCH_FUNCTION. A frame is a
+	// format byte and a record count (int) followed by the records. In the
+	// absolute format each record is: id length (short), id (UTF-8),
+	// latitude (int), longitude (int), heading (short), speed (short) and
+	// time (long), all big-endian. In the delta format the records are for a
+	// single vehicle: the id length (varint) and id (UTF-8) come once, then
+	// the first record holds latitude, longitude, heading, speed and time and
+	// each later record the difference from the record before it, all as
+	// zig-zag encoded varints.
+	public static final String BATCH_FUNCTION = "batch"; //$NON-NLS-1$
+	public static final String CONTENT_TYPE_BATCH = "application/octet-stream"; //$NON-NLS-1$
+	public static final byte BATCH_FORMAT_ABSOLUTE = 1;
+	public static final byte BATCH_FORMAT_DELTA = 2;
+	public static final int MAX_BATCH_RECORDS = 4096;
 	public static final String TRACKING_LOCATION = "initial@reference:file:../../../../org.eclipse.examples.toast.client.tracking/";
 	public static final String TRACKING_PID = "org.eclipse.examples.toast.client.tracking";
 	public static final String TRACKING_DELAY_PROPERTY = "delay";
 	public static final int TRACKING_DELAY_DEFAULT = 10;
 	public static final int MAX_TRACKING_HISTORY = 4;
+	public static final String TRACKING_HISTORY_PROPERTY = "toast.tracking.history"; //$NON-NLS-1$
+	// The client's store-and-forward outbox of fixes not yet sent.
+	public static final String OUTBOX_FILE_PROPERTY = "toast.tracking.outbox.file"; //$NON-NLS-1$
+	public static final String OUTBOX_CAPACITY_PROPERTY = "toast.tracking.outbox.capacity"; //$NON-NLS-1$
+	public static final int OUTBOX_CAPACITY_DEFAULT = 8640;
+	public static final String OUTBOX_RETENTION_PROPERTY = "toast.tracking.outbox.retention"; //$NON-NLS-1$
+	public static final int OUTBOX_RETENTION_DEFAULT = 24 * 60 * 60;
+	public static final String OUTBOX_BATCH_PROPERTY = "toast.tracking.outbox.batch"; //$NON-NLS-1$
+	public static final int OUTBOX_BATCH_DEFAULT = 256;
+	public static final String OUTBOX_DELTA_PROPERTY = "toast.tracking.outbox.delta"; //$NON-NLS-1$
+	// Adaptive tracking, where the delay is the longest time between reports
+	// and the distance is how far a fix may stray from its dead-reckoned
+	// position before it is reported.
+	public static final String ADAPTIVE_PROPERTY = "toast.tracking.adaptive"; //$NON-NLS-1$
+	public static final String ADAPTIVE_INTERVAL_PROPERTY = "toast.tracking.adaptive.interval"; //$NON-NLS-1$
+	public static final int ADAPTIVE_INTERVAL_DEFAULT = 1000;
+	public static final String ADAPTIVE_DISTANCE_PROPERTY = "toast.tracking.adaptive.distance"; //$NON-NLS-1$
+	public static final int ADAPTIVE_DISTANCE_DEFAULT = 50;
+	public static final String ADAPTIVE_HEADING_PROPERTY = "toast.tracking.adaptive.heading"; //$NON-NLS-1$
+	public static final int ADAPTIVE_HEADING_DEFAULT = 15;
 }
@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Paul VanderLei, Simon Archer, Jeff McAffer and others. All 
+ * rights reserved. This program and the accompanying materials are made available 
+ * under the terms of the Eclipse Public License v1.0 and Eclipse Distribution License
+ * v1.0 which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     Paul VanderLei, Simon Archer, Jeff McAffer - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.core.tracking;
+
+/**
+ * The fixes a client has most recently taken, whether or not they were
+ * reported to the back end. Locations are in TUD, as elsewhere.
+ */
+public interface ITrackingHistory {
+	/**
+	 * Copy up to <code>latitudes.length</code> of the most recent fixes into
+	 * the given arrays, oldest first. All the arrays must be at least as long
+	 * as <code>latitudes</code>.
+	 * 
+	 * @return the number of fixes copied
+	 */
+	public int copyRecentFixes(int[] latitudes, int[] longitudes, int[] headings, int[] speeds, long[] times);
+}
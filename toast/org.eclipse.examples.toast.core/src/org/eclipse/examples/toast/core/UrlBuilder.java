@@ -73,9 +73,7 @@ public class UrlBuilder {
 	}
 
 	private void addParameter(UrlParameter parameter) {
-		synchronized (parameters) {
-			parameters.add(parameter);
-		}
+		parameters.add(parameter);
 	}
 
 	private void printOn(StringBuffer buffer) {
@@ -84,19 +82,17 @@ public class UrlBuilder {
 	}
 
 	private void printParametersOn(StringBuffer buffer) {
-		synchronized (parameters) {
-			boolean empty = parameters.isEmpty();
-			if (empty == true)
-				return;
-			buffer.append('?');
-			Iterator iterator = parameters.iterator();
-			while (iterator.hasNext() == true) {
-				UrlParameter parameter = (UrlParameter) iterator.next();
-				parameter.printOn(buffer);
-				boolean last = iterator.hasNext() == false;
-				if (last == false) {
-					buffer.append('&');
-				}
+		boolean empty = parameters.isEmpty();
+		if (empty == true)
+			return;
+		buffer.append('?');
+		Iterator iterator = parameters.iterator();
+		while (iterator.hasNext() == true) {
+			UrlParameter parameter = (UrlParameter) iterator.next();
+			parameter.printOn(buffer);
+			boolean last = iterator.hasNext() == false;
+			if (last == false) {
+				buffer.append('&');
 			}
 		}
 	}
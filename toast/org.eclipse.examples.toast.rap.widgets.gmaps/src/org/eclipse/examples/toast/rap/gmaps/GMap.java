@@ -17,11 +17,15 @@ import org.eclipse.swt.widgets.Layout;
 
 public class GMap extends Canvas {
 
+	public static final int DEFAULT_ZOOM = 13;
+
 	private Location center;
+	private int zoom;
 	private Marker[] markers;
 
 	public GMap(final Composite parent, final int style) {
 		super(parent, style);
+		this.zoom = DEFAULT_ZOOM;
 		this.markers = new Marker[0];
 	}
 
@@ -33,12 +37,26 @@ public class GMap extends Canvas {
 		this.center = center;
 	}
 
+	public int getZoom() {
+		return zoom;
+	}
+
+	public void setZoom(final int zoom) {
+		this.zoom = zoom;
+	}
+
 	public Marker[] getMarkers() {
 		Marker[] result = new Marker[markers.length];
 		System.arraycopy(markers, 0, result, 0, markers.length);
 		return result;
 	}
 
+	/**
+	 * Replace the markers shown on the map. Markers that keep their id from
+	 * one call to the next are moved on the client rather than recreated, and
+	 * markers that lie close together at the current zoom level are shown as
+	 * a single cluster marker.
+	 */
 	public void setMarkers(final Marker[] markers) {
 		Marker[] newMarkers = new Marker[markers.length];
 		System.arraycopy(markers, 0, newMarkers, 0, markers.length);
@@ -50,10 +68,21 @@ public class GMap extends Canvas {
 	}
 
 	public static class Marker {
+		public final String id;
 		public final Location location;
 		public final String html;
 
 		public Marker(final Location location, final String html) {
+			this(null, location, html);
+		}
+
+		/**
+		 * Create a marker with an id that identifies it across calls to
+		 * {@link GMap#setMarkers(Marker[])}, such as the name of the thing it
+		 * marks.
+		 */
+		public Marker(final String id, final Location location, final String html) {
+			this.id = id;
 			this.location = location;
 			this.html = html;
 		}
@@ -18,6 +18,8 @@ qx.Class.define( "org.eclipse.examples.toast.rap.gmaps.GMap", {
     this.setHtmlAttribute( "id", id );
     this._id = id;
     this._map = null;
+    this._markers = {};
+    this._zoom = 13;
     if( GBrowserIsCompatible() ) {
       this._geocoder = new GClientGeocoder();
       this.addEventListener( "changeHeight", this._doResize, this );
@@ -35,7 +37,7 @@ qx.Class.define( "org.eclipse.examples.toast.rap.gmaps.GMap", {
         this._map.addControl( new GMapTypeControl() );
         GEvent.bind( this._map, "click", this, this._doActivate );
         GEvent.bind( this._map, "moveend", this, this._onMapMove );
-        this._map.setCenter( new GLatLng( 37.4419, -122.1419 ), 13 );
+        this._map.setCenter( new GLatLng( 37.4419, -122.1419 ), this._zoom );
       }
     },
 
@@ -77,15 +79,33 @@ qx.Class.define( "org.eclipse.examples.toast.rap.gmaps.GMap", {
       }
     },
 
-    addMarker : function( address, html ) {
+    setZoom : function( zoom ) {
+      this._zoom = zoom;
+      if( GBrowserIsCompatible() && this._map != null ) {
+        this._map.setZoom( zoom );
+      }
+    },
+
+    /*
+     * id identifies the marker in later calls to moveMarker and removeMarker.
+     * count is the number of markers a cluster marker stands for, 1 otherwise.
+     */
+    addMarker : function( id, address, html, count ) {
       if( GBrowserIsCompatible() && address != null && address != "" ) {
         this._createMap();
         var map = this._map;
+        var markers = this._markers;
+        // Reserve the id, so that a marker removed while its address is
+        // still being looked up is not added afterwards.
+        var token = {};
+        markers[ id ] = token;
         var func = function( point ) {
           if( !point ) {
             alert( "Address not found: '" + address + "'" );
-          } else {
-            var marker = new GMarker( point );
+          } else if( markers[ id ] === token ) {
+            var options = count > 1 ? { title : count + " markers" } : {};
+            var marker = new GMarker( point, options );
+            markers[ id ] = marker;
             map.addOverlay( marker );
             if( html != null ) {
               marker.openInfoWindowHtml( html );
@@ -100,10 +120,26 @@ qx.Class.define( "org.eclipse.examples.toast.rap.gmaps.GMap", {
       }
     },
 
+    moveMarker : function( id, address ) {
+      var marker = this._markers[ id ];
+      if( marker instanceof GMarker ) {
+        marker.setLatLng( new GLatLng( address[ 0 ], address[ 1 ] ) );
+      }
+    },
+
+    removeMarker : function( id ) {
+      var marker = this._markers[ id ];
+      delete this._markers[ id ];
+      if( marker instanceof GMarker ) {
+        this._map.removeOverlay( marker );
+      }
+    },
+
     clearMarkers : function() {
       if( GBrowserIsCompatible() ) {
         this._createMap();
         this._map.clearOverlays();
+        this._markers = {};
       }
     },
 
@@ -115,6 +151,14 @@ qx.Class.define( "org.eclipse.examples.toast.rap.gmaps.GMap", {
         var center = this._map.getCenter();
         req.addParameter( gmapId + ".centerLat", center.lat() );
         req.addParameter( gmapId + ".centerLon", center.lng() );
+        var zoom = this._map.getZoom();
+        if( zoom != this._zoom ) {
+          // Markers are clustered for the zoom level on the server, so ask
+          // for them straight away rather than with the next request.
+          this._zoom = zoom;
+          req.addParameter( gmapId + ".zoom", zoom );
+          req.send();
+        }
       }
     },
 
@@ -14,10 +14,16 @@ package org.eclipse.examples.toast.rap.internal.gmaps.gmapkit;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import org.eclipse.examples.toast.rap.gmaps.GMap;
 import org.eclipse.examples.toast.rap.gmaps.GMap.Location;
 import org.eclipse.examples.toast.rap.gmaps.GMap.Marker;
+import org.eclipse.examples.toast.rap.internal.gmaps.gmapkit.MarkerClusterer.ClientMarker;
 import org.eclipse.rwt.lifecycle.AbstractWidgetLCA;
 import org.eclipse.rwt.lifecycle.ControlLCAUtil;
 import org.eclipse.rwt.lifecycle.IWidgetAdapter;
@@ -34,11 +40,18 @@ public class GMapLCA extends AbstractWidgetLCA {
 	private static final String PARAM_CENTER_LON = "centerLon";
 	private static final String JS_PROP_CENTER = "center";
 	private static final String PROP_CENTER = "address";
+	private static final String PARAM_ZOOM = "zoom";
+	private static final String JS_PROP_ZOOM = "zoom";
+	private static final String PROP_ZOOM = "zoom";
+	private static final String RENDERED_MARKERS = GMapLCA.class.getName() + ".renderedMarkers";
+
+	private final MarkerClusterer clusterer = new MarkerClusterer();
 
 	public void preserveValues(final Widget widget) {
 		ControlLCAUtil.preserveValues((Control) widget);
 		IWidgetAdapter adapter = WidgetUtil.getAdapter(widget);
 		adapter.preserve(PROP_CENTER, ((GMap) widget).getCenter());
+		adapter.preserve(PROP_ZOOM, new Integer(((GMap) widget).getZoom()));
 		// only needed for custom variants (theming)
 		WidgetLCAUtil.preserveCustomVariant(widget);
 	}
@@ -57,6 +70,14 @@ public class GMapLCA extends AbstractWidgetLCA {
 		} catch (Exception e) {
 			// TODO: handle exception
 		}
+		String zoomStr = WidgetLCAUtil.readPropertyValue(map, PARAM_ZOOM);
+		if (zoomStr != null) {
+			try {
+				map.setZoom(Integer.parseInt(zoomStr));
+			} catch (NumberFormatException e) {
+				// Keep the current zoom level.
+			}
+		}
 	}
 
 	/*
@@ -69,12 +90,15 @@ public class GMapLCA extends AbstractWidgetLCA {
 		writer.set("appearance", "composite");
 		writer.set("overflow", "hidden");
 		ControlLCAUtil.writeStyleFlags((GMap) widget);
+		// A new client widget starts without markers.
+		widget.setData(RENDERED_MARKERS, null);
 	}
 
 	public void renderChanges(final Widget widget) throws IOException {
 		GMap gmap = (GMap) widget;
 		ControlLCAUtil.writeChanges(gmap);
 		writeCenter(gmap);
+		writeZoom(gmap);
 		writeMarkers(gmap);
 		// only needed for custom variants (theming)
 		WidgetLCAUtil.writeCustomVariant(widget);
@@ -106,27 +130,75 @@ public class GMapLCA extends AbstractWidgetLCA {
 		}
 	}
 
-	private void writeMarkers(final GMap gmap) throws IOException {
+	private void writeZoom(final GMap gmap) throws IOException {
 		JSWriter writer = JSWriter.getWriterFor(gmap);
+		Integer zoom = new Integer(gmap.getZoom());
+		if (WidgetLCAUtil.hasChanged(gmap, PROP_ZOOM, zoom)) {
+			writer.set(PROP_ZOOM, JS_PROP_ZOOM, zoom);
+		}
+	}
+
+	/*
+	 * The markers the client shows are remembered on the widget, so each
+	 * render only sends the markers that were added, moved or removed since
+	 * the last one. Nothing is sent unless the markers or the zoom changed.
+	 */
+	private void writeMarkers(final GMap gmap) throws IOException {
 		Marker[] markers = gmap.getMarkers();
-		if (WidgetLCAUtil.hasChanged(gmap, PROP_CENTER, markers)) {
-			writer.call("clearMarkers", new Object[0]);
-			for (int i = 0; i < markers.length; i++) {
-				Marker marker = markers[i];
-				if (marker.location.address == null) {
-					String jsArray = getJsArray(marker.location.lat, marker.location.lon);
-					writer.call("addMarker", new Object[] {new JSVar(jsArray), marker.html});
-				} else {
-					writer.call("addMarker", new Object[] {marker.location.address, marker.html});
-				}
+		int zoom = gmap.getZoom();
+		RenderedMarkers rendered = (RenderedMarkers) gmap.getData(RENDERED_MARKERS);
+		if (rendered == null) {
+			rendered = new RenderedMarkers();
+			gmap.setData(RENDERED_MARKERS, rendered);
+		} else if (rendered.zoom == zoom && Arrays.equals(rendered.markers, markers)) {
+			return;
+		}
+		List clientMarkers = clusterer.cluster(markers, zoom);
+		Map current = new HashMap(clientMarkers.size() * 4 / 3 + 1);
+		for (int i = 0; i < clientMarkers.size(); i++) {
+			ClientMarker marker = (ClientMarker) clientMarkers.get(i);
+			current.put(marker.key, marker);
+		}
+		JSWriter writer = JSWriter.getWriterFor(gmap);
+		DecimalFormat format = createFormat();
+		for (Iterator i = rendered.byKey.values().iterator(); i.hasNext();) {
+			ClientMarker old = (ClientMarker) i.next();
+			ClientMarker marker = (ClientMarker) current.get(old.key);
+			if (marker == null || !marker.isSameAs(old))
+				writer.call("removeMarker", new Object[] {old.key});
+		}
+		for (int i = 0; i < clientMarkers.size(); i++) {
+			ClientMarker marker = (ClientMarker) clientMarkers.get(i);
+			ClientMarker old = (ClientMarker) rendered.byKey.get(marker.key);
+			if (old == null || !marker.isSameAs(old)) {
+				Object address = marker.address == null ? (Object) new JSVar(getJsArray(format, marker.lat, marker.lon)) : marker.address;
+				writer.call("addMarker", new Object[] {marker.key, address, marker.html, new Integer(marker.count)});
+			} else if (marker.isMovedFrom(old)) {
+				writer.call("moveMarker", new Object[] {marker.key, new JSVar(getJsArray(format, marker.lat, marker.lon))});
 			}
 		}
+		rendered.markers = markers;
+		rendered.zoom = zoom;
+		rendered.byKey = current;
 	}
 
 	private static String getJsArray(final double lat, final double lon) {
-		DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.US);
-		DecimalFormat fmt = new DecimalFormat("#.########", symbols);
+		return getJsArray(createFormat(), lat, lon);
+	}
+
+	private static String getJsArray(final DecimalFormat fmt, final double lat, final double lon) {
 		String jsArray = "[" + fmt.format(lat) + "," + fmt.format(lon) + "]";
 		return jsArray;
 	}
+
+	private static DecimalFormat createFormat() {
+		DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.US);
+		return new DecimalFormat("#.########", symbols);
+	}
+
+	private static class RenderedMarkers {
+		Marker[] markers = new Marker[0];
+		int zoom = -1;
+		Map byKey = new HashMap();
+	}
 }
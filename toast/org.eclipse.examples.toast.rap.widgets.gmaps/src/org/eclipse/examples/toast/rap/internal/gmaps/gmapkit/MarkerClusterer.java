@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2009 EclipseSource Inc. and others. All rights reserved.
+ * This program and the accompanying materials are made available under the 
+ * terms of the Eclipse Public License v1.0 and Eclipse Distribution License v1.0 
+ * which accompanies this distribution. The Eclipse Public License is available at 
+ * http://www.eclipse.org/legal/epl-v10.html and the Eclipse Distribution License 
+ * is available at http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors: 
+ *     EclipseSource Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.examples.toast.rap.internal.gmaps.gmapkit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.examples.toast.rap.gmaps.GMap.Marker;
+
+/**
+ * Groups markers that would be drawn within the same square of screen pixels
+ * at a given zoom level. The squares are laid out in the Mercator pixel space
+ * the map itself uses, so a group stays together while the map is panned and
+ * only changes when the zoom level does or one of its markers moves away.
+ */
+public class MarkerClusterer {
+	public static final int CELL_SIZE = 64;
+	private static final String CLUSTER_PREFIX = "cluster:";
+	private static final String INDEX_PREFIX = "#";
+
+	public List cluster(final Marker[] markers, final int zoom) {
+		double scale = 256.0 * Math.pow(2, zoom) / CELL_SIZE;
+		Map cells = new LinkedHashMap();
+		List result = new ArrayList();
+		for (int i = 0; i < markers.length; i++) {
+			Marker marker = markers[i];
+			String key = marker.id == null ? INDEX_PREFIX + i : marker.id;
+			if (marker.location.address != null) {
+				// Addresses are only resolved in the browser, so they cannot be grouped.
+				result.add(new ClientMarker(key, marker.location.lat, marker.location.lon, marker.location.address, marker.html, 1));
+				continue;
+			}
+			long x = (long) Math.floor(getX(marker.location.lon) * scale);
+			long y = (long) Math.floor(getY(marker.location.lat) * scale);
+			Long cell = new Long((x << 32) | (y & 0xFFFFFFFFL));
+			List members = (List) cells.get(cell);
+			if (members == null) {
+				members = new ArrayList(1);
+				cells.put(cell, members);
+			}
+			members.add(new ClientMarker(key, marker.location.lat, marker.location.lon, null, marker.html, 1));
+		}
+		for (Iterator i = cells.entrySet().iterator(); i.hasNext();) {
+			Map.Entry entry = (Map.Entry) i.next();
+			List members = (List) entry.getValue();
+			if (members.size() == 1) {
+				result.add(members.get(0));
+				continue;
+			}
+			double lat = 0;
+			double lon = 0;
+			for (int j = 0; j < members.size(); j++) {
+				ClientMarker member = (ClientMarker) members.get(j);
+				lat += member.lat;
+				lon += member.lon;
+			}
+			long cell = ((Long) entry.getKey()).longValue();
+			String key = CLUSTER_PREFIX + (cell >> 32) + ":" + (int) cell;
+			result.add(new ClientMarker(key, lat / members.size(), lon / members.size(), null, null, members.size()));
+		}
+		return result;
+	}
+
+	/*
+	 * The position of a longitude across the world map, from 0 to 1.
+	 */
+	private static double getX(final double lon) {
+		return (lon + 180) / 360;
+	}
+
+	/*
+	 * The position of a latitude down the Mercator world map, from 0 to 1.
+	 */
+	private static double getY(final double lat) {
+		double sin = Math.sin(Math.toRadians(lat));
+		sin = Math.min(Math.max(sin, -0.9999), 0.9999);
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	/**
+	 * A marker as it is shown in the browser: either one of the widget's
+	 * markers or a cluster standing for <code>count</code> of them.
+	 */
+	public static class ClientMarker {
+		public final String key;
+		public final double lat;
+		public final double lon;
+		public final String address;
+		public final String html;
+		public final int count;
+
+		public ClientMarker(final String key, final double lat, final double lon, final String address, final String html, final int count) {
+			this.key = key;
+			this.lat = lat;
+			this.lon = lon;
+			this.address = address;
+			this.html = html;
+			this.count = count;
+		}
+
+		public boolean isMovedFrom(final ClientMarker other) {
+			return lat != other.lat || lon != other.lon;
+		}
+
+		/*
+		 * Answer whether the marker can be moved from the other one's
+		 * position, rather than having to be recreated.
+		 */
+		public boolean isSameAs(final ClientMarker other) {
+			return count == other.count && equals(address, other.address) && equals(html, other.html);
+		}
+
+		private static boolean equals(final String string1, final String string2) {
+			return string1 == null ? string2 == null : string1.equals(string2);
+		}
+	}
+}